@@ -0,0 +1,77 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// Checks that the steady-state tick and paint allocate nothing: plays a scripted
+// game through GameLoop.tick() (input queue, rules, replay recording, snapshot
+// publishing) and draws every snapshot off-screen, measuring the bytes this
+// thread allocates with ThreadMXBean once the JIT has warmed up. Exits with 1
+// if either path allocates regularly.
+//
+// A handful of stray ticks are tolerated: when C2 deoptimizes a hot method the
+// interpreter may resolve a call site it never needed before, and the JVM
+// allocates a few dozen bytes doing so. That is the JVM, once, not the game.
+//
+//   java -Djava.awt.headless=true AllocationCheck [ticks]
+public class AllocationCheck {
+
+    public static void main(String[] args) throws IOException {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        if (PerfHud.allocatedBytes() < 0) {
+            System.out.println("this JVM can't measure allocations per thread");
+            System.exit(2);
+        }
+
+        GameState state = new GameState(1);
+        SoundEngine sounds = SoundEngine.silent();
+        state.listener = sounds::play;
+        GameLoop loop = new GameLoop(state, 20);
+        Path replay = Files.createTempFile("allocation-check", ".pmr");
+        loop.recorder = new ReplayRecorder(replay, state);
+
+        Renderer renderer = new Renderer(state.tileSize).awaitSprites();
+        BufferedImage frame = new BufferedImage(state.boardWidth, state.boardHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = frame.createGraphics();
+
+        Rng input = new Rng(7);
+        long[] allocated = new long[2]; // tick, paint
+        int[] allocating = new int[2];  // how many of them allocated at all
+        for (int round = 0; round < 2; round++) {
+            allocated[0] = 0;
+            allocated[1] = 0;
+            allocating[0] = 0;
+            allocating[1] = 0;
+            for (int i = 0; i < ticks; i++) {
+                if (i % 8 == 0) {
+                    loop.press("UDLR".charAt(input.nextInt(4)));
+                }
+                loop.requestRestart();
+
+                long before = PerfHud.allocatedBytes();
+                loop.tick(System.nanoTime());
+                long between = PerfHud.allocatedBytes();
+                renderer.draw(g, loop.snapshots.latest(), 0.5);
+                long after = PerfHud.allocatedBytes();
+
+                allocated[0] += between - before;
+                allocated[1] += after - between;
+                allocating[0] += between > before ? 1 : 0;
+                allocating[1] += after > between ? 1 : 0;
+            }
+            // the first round is warm-up
+        }
+        loop.recorder.close(state.tick);
+        Files.deleteIfExists(replay);
+
+        System.out.printf("%d ticks: %d bytes in %d ticks, %d bytes in %d paints%n",
+                ticks, allocated[0], allocating[0], allocated[1], allocating[1]);
+        int tolerated = Math.max(1, ticks / 1000);
+        if (allocating[0] > tolerated || allocating[1] > tolerated) {
+            System.out.println("FAIL: the steady state allocates");
+            System.exit(1);
+        }
+        System.out.println("OK: no regular allocation");
+    }
+}
@@ -2,24 +2,20 @@ import javax.swing.JFrame;
 
 public class App {
     public static void main(String[] args) throws Exception {
-        int rowCount = 21;
-        int columnCount = 19;
-        int tileSize = 32;
-        int boardWidth = columnCount * tileSize;
-        int boardHeight = rowCount * tileSize;
-
         JFrame frame = new JFrame("Pac Man");
 
-        frame.setSize(boardWidth, boardHeight);
-        frame.setLocationRelativeTo(null);
-        frame.setResizable(false);
+        frame.setResizable(true); // the board scales to fit, or scrolls when it can't
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
+        // sized by the level
         PacMan pacmanGame = new PacMan();
         frame.add(pacmanGame);
         frame.pack();
-        pacmanGame.requestFocus();
+        frame.setLocationRelativeTo(null);
         frame.setVisible(true);
+        pacmanGame.requestFocus();
+        pacmanGame.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(pacmanGame::stop));
 
     }
 }
\ No newline at end of file
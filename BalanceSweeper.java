@@ -0,0 +1,245 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.LongStream;
+
+// Monte-Carlo balance runner. Plays many headless games per GameConfig across
+// all cores and prints aggregate statistics for every point of a parameter grid.
+//
+//   java BalanceSweeper [--games N] [--ticks N] [--agent random|wander] [--threads N]
+//                       [--spawn 200,300,400] [--cherry 60,100] [--scared 100,150]
+//                       [--flash 10,20] [--seed N] [--scaling]
+//
+// Games are seeded from (seed, game index), so results don't depend on the
+// thread count or on how the pool splits the work.
+public class BalanceSweeper {
+
+    static final int SCORE_BUCKET = 10;
+    static final int SCORE_BUCKETS = 4096;
+
+    // per-thread accumulator, merged at the end of a batch
+    static class Stats {
+        long games;
+        long ticks;
+        long survivalTicks; // to the first death, or the whole game for those who never died
+        long gamesSurvived; // reached the tick cap with lives left
+        long ghostsEaten;
+        long pelletsEaten;
+        long levelsCleared;
+        long scoreSum;
+        long[] scoreHistogram = new long[SCORE_BUCKETS];
+
+        void add(GameState state, int ticksPlayed, long firstDeath) {
+            games++;
+            ticks += ticksPlayed;
+            survivalTicks += firstDeath >= 0 ? firstDeath : ticksPlayed;
+            if (!state.gameOver) {
+                gamesSurvived++;
+            }
+            ghostsEaten += state.ghostsEaten;
+            pelletsEaten += state.pelletsEaten;
+            levelsCleared += state.levelsCleared;
+            scoreSum += state.score;
+            scoreHistogram[Math.min(state.score / SCORE_BUCKET, SCORE_BUCKETS - 1)]++;
+        }
+
+        void merge(Stats other) {
+            games += other.games;
+            ticks += other.ticks;
+            survivalTicks += other.survivalTicks;
+            gamesSurvived += other.gamesSurvived;
+            ghostsEaten += other.ghostsEaten;
+            pelletsEaten += other.pelletsEaten;
+            levelsCleared += other.levelsCleared;
+            scoreSum += other.scoreSum;
+            for (int i = 0; i < SCORE_BUCKETS; i++) {
+                scoreHistogram[i] += other.scoreHistogram[i];
+            }
+        }
+
+        int scorePercentile(double p) {
+            long rank = (long) Math.ceil(p * games);
+            long seen = 0;
+            for (int i = 0; i < SCORE_BUCKETS; i++) {
+                seen += scoreHistogram[i];
+                if (seen >= rank && seen > 0) {
+                    return i * SCORE_BUCKET;
+                }
+            }
+            return (SCORE_BUCKETS - 1) * SCORE_BUCKET;
+        }
+    }
+
+    static final char[] DIRECTIONS = {'U', 'D', 'L', 'R'};
+
+    // random agent: a new direction every 8 ticks, like a player mashing keys
+    static char randomAgent(GameState state, Rng rng, char current) {
+        if (state.tick % 8 == 0) {
+            return DIRECTIONS[rng.nextInt(4)];
+        }
+        return current;
+    }
+
+    // wander agent: at every tile centre pick a random open direction that isn't a u-turn
+    static char wanderAgent(GameState state, Rng rng, char current) {
+        GameState.Block pacman = state.pacman;
+        if (pacman.x % state.tileSize != 0 || pacman.y % state.tileSize != 0) {
+            return current;
+        }
+        char reverse = reverse(pacman.direction);
+        int start = rng.nextInt(4);
+        for (int i = 0; i < 4; i++) {
+            char d = DIRECTIONS[(start + i) & 3];
+            if (d != reverse && state.canMove(pacman, d)) {
+                return d;
+            }
+        }
+        return reverse;
+    }
+
+    static char reverse(char d) {
+        switch (d) {
+            case 'U': return 'D';
+            case 'D': return 'U';
+            case 'L': return 'R';
+            default: return 'L';
+        }
+    }
+
+    // plays one game to game over or maxTicks; firstDeath[0] is the tick pac man
+    // first lost a life, -1 if he never did
+    static GameState playGame(GameConfig config, long seed, int maxTicks, boolean wander, long[] firstDeath) {
+        GameState state = new GameState(seed, config);
+        Rng rng = new Rng(~seed);
+        char nextDirection = ' ';
+        int lives = state.lives;
+        firstDeath[0] = -1;
+        while (state.tick < maxTicks && !state.gameOver) {
+            nextDirection = wander ? wanderAgent(state, rng, nextDirection) : randomAgent(state, rng, nextDirection);
+            state.step(nextDirection);
+            if (state.lives < lives && firstDeath[0] < 0) {
+                firstDeath[0] = state.tick;
+            }
+        }
+        return state;
+    }
+
+    static Stats runBatch(ForkJoinPool pool, GameConfig config, long seed, long games, int maxTicks, boolean wander) {
+        return pool.submit(() -> LongStream.range(0, games).parallel().collect(
+                Stats::new,
+                (stats, i) -> {
+                    long gameSeed = new Rng(seed ^ (i * 0x9E3779B97F4A7C15L)).nextLong();
+                    long[] firstDeath = new long[1];
+                    GameState state = playGame(config, gameSeed, maxTicks, wander, firstDeath);
+                    stats.add(state, (int) state.tick, firstDeath[0]);
+                },
+                Stats::merge)).join();
+    }
+
+    static int[] parseList(String s) {
+        String[] parts = s.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    public static void main(String[] args) {
+        long games = 2000;
+        int maxTicks = 6000; // 5 minutes of play
+        boolean wander = true;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = 1;
+        boolean scaling = false;
+        GameConfig defaults = new GameConfig();
+        int[] spawn = {defaults.cherrySpawnInterval};
+        int[] cherry = {defaults.cherryDuration};
+        int[] scared = {defaults.scaredDuration};
+        int[] flash = {defaults.flashDuration};
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--games": games = Long.parseLong(args[++i]); break;
+                case "--ticks": maxTicks = Integer.parseInt(args[++i]); break;
+                case "--agent": wander = !args[++i].equals("random"); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--spawn": spawn = parseList(args[++i]); break;
+                case "--cherry": cherry = parseList(args[++i]); break;
+                case "--scared": scared = parseList(args[++i]); break;
+                case "--flash": flash = parseList(args[++i]); break;
+                case "--scaling": scaling = true; break;
+                default:
+                    System.err.println("unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+
+        if (scaling) {
+            reportScaling(defaults, seed, games, maxTicks, wander, threads);
+            return;
+        }
+
+        List<GameConfig> grid = new ArrayList<>();
+        for (int a : spawn) {
+            for (int b : cherry) {
+                for (int c : scared) {
+                    for (int d : flash) {
+                        GameConfig config = defaults.copy();
+                        config.cherrySpawnInterval = a;
+                        config.cherryDuration = b;
+                        config.scaredDuration = c;
+                        config.flashDuration = d;
+                        grid.add(config);
+                    }
+                }
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        System.out.printf("%d configs x %d games, %s agent, %d ticks max, %d threads%n",
+                grid.size(), games, wander ? "wander" : "random", maxTicks, threads);
+        System.out.printf("%-44s %8s %6s %6s %6s %9s %6s %7s %7s %7s %9s%n",
+                "config", "score", "p10", "p50", "p90", "1st death", "alive", "ghosts", "pellets", "levels", "games/s");
+        for (GameConfig config : grid) {
+            long start = System.nanoTime();
+            Stats stats = runBatch(pool, config, seed, games, maxTicks, wander);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%-44s %8.1f %6d %6d %6d %9.1f %5.1f%% %7.2f %7.1f %7.3f %9.0f%n",
+                    config,
+                    stats.scoreSum / (double) stats.games,
+                    stats.scorePercentile(0.10),
+                    stats.scorePercentile(0.50),
+                    stats.scorePercentile(0.90),
+                    stats.survivalTicks / (double) stats.games,
+                    100.0 * stats.gamesSurvived / stats.games,
+                    stats.ghostsEaten / (double) stats.games,
+                    stats.pelletsEaten / (double) stats.games,
+                    stats.levelsCleared / (double) stats.games,
+                    stats.games / seconds);
+        }
+        pool.shutdown();
+    }
+
+    // same batch at 1, 2, 4 ... threads to check throughput grows with cores
+    static void reportScaling(GameConfig config, long seed, long games, int maxTicks, boolean wander, int maxThreads) {
+        double base = 0;
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            runBatch(pool, config, seed, Math.max(1, games / 10), maxTicks, wander); // warm up
+            long start = System.nanoTime();
+            Stats stats = runBatch(pool, config, seed, games, maxTicks, wander);
+            double gamesPerSecond = stats.games / ((System.nanoTime() - start) / 1e9);
+            pool.shutdown();
+            if (threads == 1) {
+                base = gamesPerSecond;
+            }
+            System.out.printf("%3d threads: %9.0f games/s  %10.0f ticks/s  speedup %.2fx%n",
+                    threads, gamesPerSecond, gamesPerSecond * stats.ticks / stats.games, gamesPerSecond / base);
+            if (threads == maxThreads) {
+                break;
+            }
+        }
+    }
+}
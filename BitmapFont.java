@@ -0,0 +1,80 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+// A font pre-rendered into one small image per printable ASCII character, so
+// drawing text is a row of plain image blits. Graphics.drawString lays out
+// glyphs and allocates on every call, which the per-frame score text can't
+// afford. No kerning, which the fonts used here don't have anyway.
+public class BitmapFont {
+    private static final char FIRST = 32;
+    private static final char LAST = 126;
+
+    private final BufferedImage[] glyphs = new BufferedImage[LAST - FIRST + 1];
+    private final int[] advances = new int[LAST - FIRST + 1];
+    final int ascent;
+    final int height;
+    private final char[] digits = new char[20]; // scratch for drawNumber, render thread only
+
+    BitmapFont(Font font, Color color) {
+        BufferedImage probe = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D pg = probe.createGraphics();
+        FontMetrics metrics = pg.getFontMetrics(font);
+        pg.dispose();
+        ascent = metrics.getAscent();
+        height = metrics.getHeight();
+        for (char c = FIRST; c <= LAST; c++) {
+            int advance = metrics.charWidth(c);
+            advances[c - FIRST] = advance;
+            // a little slack either side for glyphs that overhang their advance
+            BufferedImage glyph = new BufferedImage(advance + 4, height, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = glyph.createGraphics();
+            g.setFont(font);
+            g.setColor(color);
+            g.drawString(String.valueOf(c), 2, ascent);
+            g.dispose();
+            glyphs[c - FIRST] = glyph;
+        }
+    }
+
+    private int drawChar(Graphics g, char c, int x, int top) {
+        if (c < FIRST || c > LAST) {
+            c = '?';
+        }
+        g.drawImage(glyphs[c - FIRST], x - 2, top, null);
+        return x + advances[c - FIRST];
+    }
+
+    // y is the baseline, as for drawString; returns the x after the text
+    int drawString(Graphics g, String text, int x, int y) {
+        int top = y - ascent;
+        for (int i = 0; i < text.length(); i++) {
+            x = drawChar(g, text.charAt(i), x, top);
+        }
+        return x;
+    }
+
+    int width(String text) {
+        int width = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            width += advances[(c < FIRST || c > LAST ? '?' : c) - FIRST];
+        }
+        return width;
+    }
+
+    int drawNumber(Graphics g, long value, int x, int y) {
+        int top = y - ascent;
+        if (value < 0) {
+            x = drawChar(g, '-', x, top);
+        }
+        int n = 0;
+        do {
+            digits[n++] = (char) ('0' + Math.abs(value % 10));
+            value /= 10;
+        } while (value != 0);
+        while (n > 0) {
+            x = drawChar(g, digits[--n], x, top);
+        }
+        return x;
+    }
+}
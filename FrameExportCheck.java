@@ -0,0 +1,158 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import javax.imageio.ImageIO;
+
+// Checks FrameExporter against frames drawn one at a time on this thread: the
+// same seeded game is exported with more encoders than frames in the pool, so
+// encoders finish out of order and frame() keeps waiting for buffers, and
+// every frame of the raw stream and every PNG must match its serial twin.
+// Exits with 1 on any mismatch.
+//
+//   java -Djava.awt.headless=true FrameExportCheck [ticks] [scale]
+public class FrameExportCheck {
+    public static void main(String[] args) throws Exception {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 120;
+        double scale = args.length > 1 ? Double.parseDouble(args[1]) : 1.5;
+        Level level = Level.named(Level.CLASSIC);
+        int mismatches = 0;
+
+        long[] expected = render(level, ticks, scale, null);
+        GameState board = new GameState(3, new GameConfig(), level);
+        int width = (int) Math.round(board.boardWidth * scale);
+        int height = (int) Math.round(board.boardHeight * scale);
+        int frameBytes = 3 * width * height;
+
+        // the raw stream, checked as it arrives: a CRC of each frame's bytes
+        long[] streamed = new long[expected.length];
+        long[] length = new long[1];
+        CRC32 crc = new CRC32();
+        OutputStream raw = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                while (len > 0) {
+                    int n = (int) Math.min(len, frameBytes - length[0] % frameBytes);
+                    crc.update(b, off, n);
+                    length[0] += n;
+                    off += n;
+                    len -= n;
+                    if (length[0] % frameBytes == 0) {
+                        int f = (int) (length[0] / frameBytes) - 1;
+                        if (f < streamed.length) {
+                            streamed[f] = crc.getValue();
+                        }
+                        crc.reset();
+                    }
+                }
+            }
+        };
+        render(level, ticks, scale, (r, w, h, sc) -> new FrameExporter(r, w, h, sc, 4, 3, null, raw));
+        if (length[0] != (long) frameBytes * expected.length) {
+            System.out.println("raw stream is " + length[0] + " bytes, expected " + (long) frameBytes * expected.length);
+            mismatches++;
+        }
+        for (int f = 0; f < expected.length; f++) {
+            if (streamed[f] != expected[f]) {
+                mismatches++;
+            }
+        }
+
+        Path directory = Files.createTempDirectory("frames");
+        render(level, ticks, scale, (r, w, h, sc) -> new FrameExporter(r, w, h, sc, 4, 3, directory, null));
+        byte[] rgb = new byte[frameBytes];
+        for (int f = 0; f < expected.length; f++) {
+            BufferedImage image = ImageIO.read(directory.resolve(String.format("frame-%06d.png", f)).toFile());
+            if (image.getWidth() != width || image.getHeight() != height
+                    || crc(image.getRGB(0, 0, width, height, null, 0, width), rgb) != expected[f]) {
+                mismatches++;
+            }
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(f -> f.toFile().delete());
+        }
+        Files.delete(directory);
+
+        if (mismatches > 0) {
+            System.out.println("FAIL: " + mismatches + " frames differ");
+            System.exit(1);
+        }
+        System.out.println("OK: " + expected.length + " frames, raw and PNG, matched frames drawn one at a time");
+    }
+
+    // CRC32 of pixels as the raw stream has them
+    static long crc(int[] pixels, byte[] rgb) {
+        for (int i = 0, j = 0; i < pixels.length; i++, j += 3) {
+            rgb[j] = (byte) (pixels[i] >> 16);
+            rgb[j + 1] = (byte) (pixels[i] >> 8);
+            rgb[j + 2] = (byte) pixels[i];
+        }
+        CRC32 crc = new CRC32();
+        crc.update(rgb, 0, 3 * pixels.length);
+        return crc.getValue();
+    }
+
+    interface Output {
+        FrameExporter open(Renderer renderer, int width, int height, double scale) throws IOException;
+    }
+
+    // plays HeadlessRunner's seeded game for ticks, through an exporter made by
+    // output, or with no output into one image; returns each frame's crc() then
+    static long[] render(Level level, int ticks, double scale, Output output) throws Exception {
+        GameState state = new GameState(3, new GameConfig(), level);
+        Rng input = new Rng(3 * 31 + 7);
+        Renderer renderer = new Renderer(state.tileSize).awaitSprites();
+        int width = (int) Math.round(state.boardWidth * scale);
+        int height = (int) Math.round(state.boardHeight * scale);
+        FrameExporter exporter = null;
+        BufferedImage image = null;
+        Graphics2D g = null;
+        if (output != null) {
+            exporter = output.open(renderer, width, height, scale);
+        } else {
+            renderer.setViewport(0, 0, scale);
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            g = image.createGraphics();
+            g.scale(scale, scale);
+        }
+        long[] frames = new long[ticks + 1];
+        byte[] rgb = output == null ? new byte[3 * width * height] : null;
+        Snapshot current = new Snapshot(state);
+        Snapshot previous = new Snapshot(state);
+        char nextDirection = ' ';
+        for (int t = 0; t <= ticks; t++) {
+            if (t > 0) {
+                if (state.gameOver) {
+                    state.restart();
+                }
+                if (state.tick % 8 == 0) {
+                    nextDirection = "UDLR".charAt(input.nextInt(4));
+                }
+                state.step(nextDirection);
+            }
+            Snapshot swap = previous;
+            previous = current;
+            current = swap;
+            current.capture(state, previous, 0);
+            if (exporter != null) {
+                exporter.frame(current);
+            } else {
+                renderer.draw(g, current, 1);
+                frames[t] = crc(image.getRGB(0, 0, width, height, null, 0, width), rgb);
+            }
+        }
+        if (exporter != null) {
+            exporter.finish();
+        }
+        return frames;
+    }
+}
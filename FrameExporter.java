@@ -0,0 +1,299 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+// Renders a session tick by tick into off-screen images and writes them as
+// numbered PNGs or one raw RGB stream, for bug reports and clips without a
+// screen recorder. The session is a Replay, or a seeded game with random input
+// like HeadlessRunner's.
+//
+// Frames come from a fixed pool: an image, its graphics and a buffer for its
+// RGB bytes, made once. frame() draws into a free one and hands it to an
+// encoder thread, which puts it back when it is written; when every frame is
+// out, frame() waits. So the game runs as far ahead as the pool lets it and
+// no further, and memory is the pool however long the session. PNGs are
+// written by whichever encoder finishes; the raw stream has to be in order, so
+// each encoder converts its frame and then waits for its turn to write.
+//
+//   raw stream  width * height RGB triples per frame, row by row, no header;
+//               ffmpeg -f rawvideo -pix_fmt rgb24 -s WxH -r 20 -i file ...
+//
+//   java -Djava.awt.headless=true FrameExporter [--replay file | --seed N] [--from tick] [--ticks N]
+//        [--scale S] [--threads N] [--pool N] (--png directory | --raw file-or-dash)
+public class FrameExporter {
+    private static final class Frame {
+        final BufferedImage image;
+        final Graphics2D graphics;
+        final int[] pixels;
+        final byte[] rgb; // raw output only
+        long index;
+
+        Frame(int width, int height, boolean raw) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            graphics = image.createGraphics();
+            pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            rgb = raw ? new byte[3 * width * height] : null;
+        }
+    }
+
+    final int width;
+    final int height;
+    private final Renderer renderer;
+    private final ArrayBlockingQueue<Frame> free;
+    private final ExecutorService encoders;
+    private final Path pngDirectory; // one of these two
+    private final OutputStream raw;
+    private final ThreadLocal<ImageWriter> pngWriter =
+            ThreadLocal.withInitial(() -> ImageIO.getImageWritersByFormatName("png").next());
+
+    private final Object turn = new Object();
+    private long nextWrite = 0; // raw: the frame whose turn it is; guarded by turn
+    private volatile IOException failure;
+
+    long frames = 0;
+    long drawNanos; // frame() only
+
+    // the renderer draws the whole board at scale; frames of width x height
+    FrameExporter(Renderer renderer, int width, int height, double scale, int threads, int pool,
+            Path pngDirectory, OutputStream raw) throws IOException {
+        this.renderer = renderer;
+        this.width = width;
+        this.height = height;
+        this.pngDirectory = pngDirectory;
+        this.raw = raw;
+        if (pngDirectory != null) {
+            Files.createDirectories(pngDirectory);
+        }
+        renderer.setViewport(0, 0, scale);
+        free = new ArrayBlockingQueue<>(pool);
+        for (int i = 0; i < pool; i++) {
+            Frame frame = new Frame(width, height, raw != null);
+            frame.graphics.scale(scale, scale); // what a HiDPI screen's graphics would carry
+            free.add(frame);
+        }
+        encoders = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "frame-encoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // draws s into the next frame and queues it; waits while the whole pool is
+    // being encoded
+    void frame(Snapshot s) throws IOException, InterruptedException {
+        check();
+        Frame frame = free.take();
+        long start = System.nanoTime();
+        renderer.draw(frame.graphics, s, 1);
+        drawNanos += System.nanoTime() - start;
+        frame.index = frames++;
+        encoders.execute(() -> encode(frame));
+    }
+
+    private void encode(Frame frame) {
+        try {
+            if (raw != null) {
+                writeRaw(frame);
+            } else if (failure == null) {
+                writePng(frame);
+            }
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            fail(new IOException("frame " + frame.index + ": " + e, e));
+        } finally {
+            free.add(frame);
+        }
+    }
+
+    private void writePng(Frame frame) throws IOException {
+        Path file = pngDirectory.resolve(String.format("frame-%06d.png", frame.index));
+        ImageWriter writer = pngWriter.get();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file.toFile())) {
+            writer.setOutput(out);
+            writer.write(frame.image);
+        } finally {
+            writer.setOutput(null);
+        }
+    }
+
+    private void writeRaw(Frame frame) throws IOException {
+        int[] pixels = frame.pixels;
+        byte[] rgb = frame.rgb;
+        for (int i = 0, j = 0; i < pixels.length; i++, j += 3) {
+            int p = pixels[i];
+            rgb[j] = (byte) (p >> 16);
+            rgb[j + 1] = (byte) (p >> 8);
+            rgb[j + 2] = (byte) p;
+        }
+        // frames are queued in order, so the one whose turn it is has always
+        // started ahead of the ones waiting for it
+        synchronized (turn) {
+            while (nextWrite != frame.index) {
+                try {
+                    turn.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted waiting to write frame " + frame.index);
+                }
+            }
+        }
+        try {
+            if (failure == null) {
+                raw.write(rgb);
+            }
+        } finally {
+            synchronized (turn) {
+                nextWrite++;
+                turn.notifyAll();
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        if (failure == null) {
+            failure = e;
+        }
+    }
+
+    private void check() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    // waits for every queued frame to be written and flushes the raw stream
+    void finish() throws IOException, InterruptedException {
+        encoders.shutdown();
+        encoders.awaitTermination(1, TimeUnit.DAYS);
+        check();
+        if (raw != null) {
+            raw.flush();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String replayFile = null;
+        long seed = 1;
+        long from = 0;
+        long ticks = -1;
+        double scale = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int pool = -1;
+        String png = null;
+        String rawFile = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--replay": replayFile = args[++i]; break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--from": from = Long.parseLong(args[++i]); break;
+                case "--ticks": ticks = Long.parseLong(args[++i]); break;
+                case "--scale": scale = Double.parseDouble(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--pool": pool = Integer.parseInt(args[++i]); break;
+                case "--png": png = args[++i]; break;
+                case "--raw": rawFile = args[++i]; break;
+                default:
+                    System.out.println("unknown option " + args[i]);
+                    System.exit(2);
+            }
+        }
+        if ((png == null) == (rawFile == null)) {
+            System.out.println("usage: java -Djava.awt.headless=true FrameExporter [--replay file | --seed N]"
+                    + " [--from tick] [--ticks N] [--scale S] [--threads N] [--pool N] (--png directory | --raw file-or-dash)");
+            System.exit(2);
+        }
+        if (pool < 0) {
+            pool = 2 * threads; // enough to keep every encoder busy while the next frames are drawn
+        }
+        // with the frames on stdout, everything else goes to stderr
+        PrintStream log = "-".equals(rawFile) ? System.err : System.out;
+        int tickRate = Integer.getInteger("pacman.tickRate", 20);
+
+        // the session: a replay, or a seeded game with HeadlessRunner's random joystick
+        ReplayPlayer player = null;
+        GameState state;
+        Rng input = null;
+        if (replayFile != null) {
+            player = new ReplayPlayer(Replay.load(Paths.get(replayFile)));
+            player.seek(from);
+            state = player.state;
+        } else {
+            state = new GameState(seed, new GameConfig(), Level.named(System.getProperty("pacman.level", Level.CLASSIC)));
+            input = new Rng(seed * 31 + 7);
+        }
+
+        Renderer renderer = new Renderer(state.tileSize).awaitSprites();
+        int width = (int) Math.round(state.boardWidth * scale);
+        int height = (int) Math.round(state.boardHeight * scale);
+        OutputStream raw = null;
+        if (rawFile != null) {
+            raw = "-".equals(rawFile) ? System.out : new BufferedOutputStream(new FileOutputStream(rawFile), 1 << 20);
+        }
+        FrameExporter exporter = new FrameExporter(renderer, width, height, scale, threads, pool,
+                png != null ? Paths.get(png) : null, raw);
+
+        Snapshot current = new Snapshot(state);
+        Snapshot previous = new Snapshot(state);
+        char[] directions = {'U', 'D', 'L', 'R'};
+        char nextDirection = ' ';
+        long stepNanos = 0;
+        long start = System.nanoTime();
+        // a seeded game has no end: 30 seconds unless asked
+        long limit = ticks >= 0 ? ticks : player != null ? Long.MAX_VALUE : 30 * tickRate;
+        current.capture(state, previous, 0);
+        exporter.frame(current);
+        while (exporter.frames <= limit && (player == null || !player.finished())) {
+            long stepStart = System.nanoTime();
+            if (player != null) {
+                player.step();
+                state = player.state; // the same object unless the replay seeks back
+            } else {
+                if (state.gameOver) {
+                    state.restart();
+                }
+                if (state.tick % 8 == 0) {
+                    nextDirection = directions[input.nextInt(4)];
+                }
+                state.step(nextDirection);
+            }
+            stepNanos += System.nanoTime() - stepStart;
+            Snapshot swap = previous;
+            previous = current;
+            current = swap;
+            current.capture(state, previous, 0);
+            exporter.frame(current);
+        }
+        exporter.finish();
+        if (raw != null && raw != System.out) {
+            raw.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        log.printf("%d frames of %dx%d in %.2fs: %.0f frames/s, %.1fx real time at %d ticks/s%n",
+                exporter.frames, width, height, seconds, exporter.frames / seconds,
+                exporter.frames / seconds / tickRate, tickRate);
+        log.printf("game %.1f ms, drawing %.1f ms, the rest encoding on %d threads with %d frames in the pool (%.1f MB)%n",
+                stepNanos / 1e6, exporter.drawNanos / 1e6, threads, pool,
+                pool * (4.0 + (raw != null ? 3 : 0)) * width * height / 1e6);
+        if (rawFile != null) {
+            log.printf("ffmpeg -f rawvideo -pix_fmt rgb24 -s %dx%d -r %d -i %s out.mp4%n", width, height, tickRate, rawFile);
+        }
+    }
+}
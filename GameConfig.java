@@ -0,0 +1,23 @@
+// Tunable rule constants, in ticks of 50ms. The defaults are the shipped game;
+// BalanceSweeper builds variations of this to search for better values.
+public class GameConfig {
+    int cherrySpawnInterval = 300; // from the last cherry going to the next appearing
+    int cherryDuration = 100;      // cherries stay this long before they start flashing
+    int scaredDuration = 150;
+    int flashDuration = 20;
+
+    GameConfig copy() {
+        GameConfig c = new GameConfig();
+        c.cherrySpawnInterval = cherrySpawnInterval;
+        c.cherryDuration = cherryDuration;
+        c.scaredDuration = scaredDuration;
+        c.flashDuration = flashDuration;
+        return c;
+    }
+
+    @Override
+    public String toString() {
+        return "spawn=" + cherrySpawnInterval + " cherry=" + cherryDuration
+                + " scared=" + scaredDuration + " flash=" + flashDuration;
+    }
+}
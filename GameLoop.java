@@ -0,0 +1,248 @@
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+// Fixed-timestep simulation thread. Steps the GameState at tickRate per second
+// independent of rendering and of the EDT, and after every tick publishes a
+// Snapshot for the renderer to interpolate between.
+//
+// Key presses arrive through an InputQueue with their timestamps. The newest one
+// is buffered and offered to the rules every tick, so a turn pressed early is
+// taken at the next junction where canMove allows it; with a turn window set it
+// is dropped if no junction comes within that many ticks. The time from key press
+// to the tick that turns Pac-Man is recorded in turnLatency.
+//
+// With a recorder set, every input and restart passed to the rules is logged
+// to a Replay. With a replay set, keys are ignored and the recorded inputs drive
+// the rules instead, replaySpeed ticks per tick, seeking on request.
+//
+// With a rewind buffer set (practice mode) every tick is kept in it, and while
+// rewinding is held the loop steps back through it REWIND_SPEED ticks per tick
+// instead of forward; play carries on from wherever it is let go.
+//
+// With a net client set, state is its view of a GameServer room: keys go to
+// the server and the view is moved on by what comes back.
+public class GameLoop implements Runnable {
+    static final int MAX_CATCH_UP_TICKS = 5; // after a longer stall, resync instead of fast-forwarding
+
+    volatile GameState state; // only replaced by a replay seek, on this thread
+    final SnapshotBuffer snapshots;
+    final long tickNanos;
+
+    private final Snapshot last; // positions published for the previous tick
+
+    final InputQueue input = new InputQueue();
+    int turnWindowTicks = 0; // 0 = a buffered turn waits until replaced
+    private char nextDirection = ' ';
+    private char bufferedTurn = 0; // pending press not yet taken, 0 = none
+    private long bufferedTime;
+    private long bufferedTick;
+    final LatencyHistogram turnLatency = new LatencyHistogram();
+    long expiredTurns = 0;
+    private volatile boolean restartRequested = false;
+
+    ReplayRecorder recorder;
+    ReplayPlayer replay;
+    volatile int replaySpeed = 1; // 0 pauses
+    volatile long seekRequest = -1;
+
+    NetClient net;
+
+    static final int REWIND_SPEED = 2;
+    RewindBuffer rewind;
+    volatile boolean rewinding = false;
+
+    PerfHud hud; // optional
+
+    private volatile boolean running = true;
+    private Thread thread;
+
+    GameLoop(GameState state, int tickRate) {
+        this.state = state;
+        this.snapshots = new SnapshotBuffer(state);
+        this.tickNanos = 1_000_000_000L / tickRate;
+        this.last = new Snapshot(state);
+        publish(System.nanoTime());
+    }
+
+    void start() {
+        thread = new Thread(this, "simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (recorder != null) {
+            recorder.close(state.tick);
+        }
+        if (net != null) {
+            net.close();
+        }
+    }
+
+    // called from the EDT as soon as the key goes down
+    void press(char direction) {
+        input.offer(direction, System.nanoTime());
+    }
+
+    // a key after game over starts a new game, applied between ticks
+    void requestRestart() {
+        restartRequested = true;
+    }
+
+    @Override
+    public void run() {
+        long next = System.nanoTime();
+        while (running) {
+            long now = System.nanoTime();
+            if (now - next > MAX_CATCH_UP_TICKS * tickNanos) {
+                next = now;
+            }
+            while (now - next >= 0) {
+                PerfHud h = hud;
+                boolean measure = h != null && h.enabled;
+                if (measure) {
+                    h.tickStarted();
+                }
+                PerfEvents.Tick event = null;
+                if (PerfEvents.TICK.isEnabled()) {
+                    event = new PerfEvents.Tick();
+                    event.begin();
+                }
+                tick(next);
+                if (event != null) {
+                    event.tick = state.tick;
+                    event.score = state.score;
+                    event.commit();
+                }
+                if (measure) {
+                    h.tickEnded();
+                }
+                next += tickNanos;
+            }
+            LockSupport.parkNanos(next - System.nanoTime());
+        }
+    }
+
+    // one tick; run() calls this on the simulation thread, AllocationCheck directly
+    void tick(long due) {
+        if (replay != null) {
+            tickReplay(due);
+            return;
+        }
+        if (net != null) {
+            tickNet(due);
+            return;
+        }
+        if (rewind != null && rewinding) {
+            tickRewind(due);
+            return;
+        }
+        if (restartRequested) {
+            restartRequested = false;
+            if (state.gameOver) {
+                state.restart();
+                if (recorder != null) {
+                    recorder.restart(state.tick);
+                }
+            }
+        }
+        while (input.poll()) {
+            nextDirection = input.polledDirection;
+            bufferedTurn = input.polledDirection;
+            bufferedTime = input.polledTime;
+            bufferedTick = state.tick;
+        }
+        if (bufferedTurn != 0 && bufferedTurn == state.pacman.direction) {
+            bufferedTurn = 0; // already going that way, nothing to measure
+        }
+        if (bufferedTurn != 0 && turnWindowTicks > 0 && state.tick - bufferedTick >= turnWindowTicks) {
+            bufferedTurn = 0;
+            nextDirection = state.pacman.direction;
+            expiredTurns++;
+        }
+
+        if (recorder != null) {
+            recorder.input(state.tick, nextDirection);
+        }
+        state.step(nextDirection);
+        if (recorder != null) {
+            recorder.stepped(state);
+        }
+        if (rewind != null) {
+            rewind.record(state);
+        }
+
+        if (bufferedTurn != 0 && state.pacman.direction == bufferedTurn) {
+            turnLatency.record(System.nanoTime() - bufferedTime);
+            bufferedTurn = 0;
+        }
+        publish(due);
+    }
+
+    private void tickReplay(long due) {
+        long seek = seekRequest;
+        if (seek >= 0) {
+            seekRequest = -1;
+            replay.seek(seek);
+            state = replay.state;
+        }
+        int speed = replaySpeed;
+        state.listener = speed == 1 ? replay.listener : null; // no sound when fast-forwarding
+        for (int i = 0; i < speed && !replay.finished(); i++) {
+            replay.step();
+        }
+        while (input.poll()) {
+            // keys don't steer a replay
+        }
+        publish(due);
+    }
+
+    private void tickRewind(long due) {
+        for (int i = 0; i < REWIND_SPEED && rewind.stepBack(state); i++) {
+        }
+        // let go, pac man carries on the way he was going then, unless a key says otherwise
+        nextDirection = state.pacman.direction;
+        bufferedTurn = 0;
+        while (input.poll()) {
+            nextDirection = input.polledDirection;
+        }
+        publish(due);
+    }
+
+    private void tickNet(long due) {
+        while (input.poll()) {
+            nextDirection = input.polledDirection;
+        }
+        try {
+            if (restartRequested) {
+                restartRequested = false;
+                if (state.gameOver) {
+                    net.restart();
+                }
+            }
+            net.tick(nextDirection);
+        } catch (IOException e) {
+            if (!net.closed) {
+                System.err.println("lost the server: " + e.getMessage());
+                net.close(); // the view stays as it was last seen
+            }
+        }
+        publish(due);
+    }
+
+    private void publish(long due) {
+        Snapshot snapshot = snapshots.back();
+        snapshot.capture(state, last, due);
+        last.copyPositionsFrom(snapshot);
+        snapshots.publish();
+    }
+}
@@ -0,0 +1,418 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+// Authoritative multiplayer server: any number of Rooms, each running the game
+// rules headless, and every connection on one non-blocking NIO selector thread.
+// Clients only send inputs; the server steps every room tickRate times a
+// second and sends each player a NetSnapshot delta of what changed.
+//
+// A room is made by the first JOIN naming it and goes when its last player
+// leaves. Rooms are cheap (a classic room ticks in a few microseconds and sends
+// tens of bytes a tick per player), so one thread carries hundreds of them;
+// a client that can't keep up has its snapshots dropped, not queued, and gets
+// a full one once it has caught up. See NetProtocol for the messages.
+//
+//   java GameServer [port] [level]      (-Dpacman.tickRate, default 20;
+//                                        -Dpacman.telemetry=directory to log games)
+public class GameServer implements Runnable {
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    static final int DEFAULT_PORT = 7777;
+    static final int INPUT_QUEUE = 8;        // inputs a player can be ahead of the server; power of two
+    static final int MAX_BACKLOG = 64 * 1024; // unsent bytes before a player's snapshots are dropped
+    static final int MAX_CATCH_UP_TICKS = 5;
+    static final int REFUSED_LINGER_SECONDS = 5; // for a refused client to read why before it is cut off
+
+    // one client; everything here is touched by the server thread only
+    static final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocate(4 * NetProtocol.MAX_CLIENT_FRAME).order(ORDER);
+        ByteBuffer out = ByteBuffer.allocate(4096).order(ORDER); // pending bytes, in write mode
+        Room room;
+        int seat = -1;
+        boolean needsFull = true;
+        long refusedAt = -1; // server tick of the REFUSED; hung up once it is sent
+
+        // inputs received but not yet applied, oldest first
+        private final char[] directions = new char[INPUT_QUEUE];
+        private final int[] sequences = new int[INPUT_QUEUE];
+        private int head = 0;
+        private int queued = 0;
+        private char direction = ' ';
+        private int applied = 0; // sequence number of the input in effect
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // a client running fast fills the queue; its oldest inputs are dropped
+        void queueInput(int sequence, char direction) {
+            if (queued == INPUT_QUEUE) {
+                head = (head + 1) & (INPUT_QUEUE - 1);
+                queued--;
+            }
+            int i = (head + queued) & (INPUT_QUEUE - 1);
+            directions[i] = direction;
+            sequences[i] = sequence;
+            queued++;
+        }
+
+        // one input per tick, the last one again if none has arrived
+        char takeInput() {
+            if (queued > 0) {
+                direction = directions[head];
+                applied = sequences[head];
+                head = (head + 1) & (INPUT_QUEUE - 1);
+                queued--;
+            }
+            return direction;
+        }
+
+        boolean keepingUp() {
+            return out.position() < MAX_BACKLOG;
+        }
+
+        void sendSnapshot(ByteBuffer body) {
+            reserve(body.remaining() + 16);
+            int start = NetProtocol.beginFrame(out, NetProtocol.SNAPSHOT);
+            NetProtocol.putVarInt(out, applied);
+            out.put(body.duplicate());
+            NetProtocol.endFrame(out, start);
+        }
+
+        void reserve(int bytes) {
+            if (out.remaining() < bytes) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * out.capacity(), out.position() + bytes)).order(ORDER);
+                out.flip();
+                bigger.put(out);
+                out = bigger;
+            }
+        }
+    }
+
+    final Level level;
+    final int tickRate;
+    final long tickNanos;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final LinkedHashMap<String, Room> rooms = new LinkedHashMap<>();
+    private final ArrayList<Connection> connections = new ArrayList<>();
+    private final ArrayList<Connection> closing = new ArrayList<>();
+    private volatile boolean running = true;
+    private Thread thread;
+    Telemetry telemetry; // set before start() to log every room's games
+
+    // server thread only; read them once it has stopped or as rough live figures
+    final LatencyHistogram tickTime = new LatencyHistogram(); // all rooms' tick and encode
+    volatile long ticks = 0;
+    volatile long bytesSent = 0;
+    volatile int roomCount = 0;
+    volatile int playerCount = 0;
+
+    GameServer(Level level, InetSocketAddress address, int tickRate) throws IOException {
+        this.level = level;
+        this.tickRate = tickRate;
+        this.tickNanos = 1_000_000_000L / tickRate;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address, 256);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    int port() {
+        return server.socket().getLocalPort();
+    }
+
+    void start() {
+        thread = new Thread(this, "game-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+        if (thread != null) {
+            try {
+                thread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        long next = System.nanoTime();
+        try {
+            while (running) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    selector.select((wait + 999_999) / 1_000_000);
+                } else {
+                    selector.selectNow();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+                closeDead();
+
+                long now = System.nanoTime();
+                if (now - next >= 0) {
+                    if (now - next > MAX_CATCH_UP_TICKS * tickNanos) {
+                        next = now; // stalled; the rooms just run late
+                    }
+                    tick();
+                    next += tickNanos;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("server: " + e.getMessage());
+        } finally {
+            for (Connection c : connections) {
+                closeQuietly(c);
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+        Connection c = (Connection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                read(c);
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush(c);
+            }
+        } catch (IOException e) {
+            closing.add(c);
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = server.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection c = new Connection(channel);
+                c.key = channel.register(selector, SelectionKey.OP_READ, c);
+                connections.add(c);
+            }
+        } catch (IOException e) {
+            System.err.println("server: can't accept: " + e.getMessage());
+        }
+    }
+
+    private void read(Connection c) throws IOException {
+        if (c.channel.read(c.in) < 0) {
+            throw new IOException("closed by the client");
+        }
+        c.in.flip();
+        ByteBuffer frame;
+        while (c.refusedAt < 0 && (frame = NetProtocol.nextFrame(c.in, NetProtocol.MAX_CLIENT_FRAME)) != null) {
+            message(c, frame);
+        }
+        if (c.refusedAt >= 0) {
+            c.in.clear(); // nothing it says now matters
+        } else {
+            c.in.compact();
+        }
+    }
+
+    private void message(Connection c, ByteBuffer frame) throws IOException {
+        int type = frame.get();
+        if (type == NetProtocol.JOIN) {
+            join(c, frame);
+            return;
+        }
+        if (c.room == null) {
+            throw new IOException("message " + type + " before joining");
+        }
+        switch (type) {
+            case NetProtocol.INPUT:
+                int sequence = NetProtocol.getVarInt(frame);
+                char direction = (char) frame.get();
+                c.queueInput(sequence, "UDLR".indexOf(direction) >= 0 ? direction : ' ');
+                break;
+            case NetProtocol.RESTART:
+                c.room.requestRestart();
+                break;
+            case NetProtocol.RESYNC:
+                c.needsFull = true;
+                break;
+            default:
+                throw new IOException("unknown message " + type);
+        }
+    }
+
+    private void join(Connection c, ByteBuffer frame) throws IOException {
+        if (c.room != null) {
+            throw new IOException("joined twice");
+        }
+        int version = NetProtocol.getVarInt(frame);
+        int wanted = NetProtocol.getVarInt(frame);
+        String name = NetProtocol.getString(frame);
+        if (version != NetProtocol.VERSION) {
+            refuse(c, "protocol version " + version + ", the server speaks " + NetProtocol.VERSION);
+            return;
+        }
+        Room room = rooms.get(name);
+        if (room == null) {
+            room = new Room(name, level, System.nanoTime());
+            if (telemetry != null) {
+                room.state.telemetry = telemetry.source(room.state);
+            }
+            rooms.put(name, room);
+            roomCount = rooms.size();
+        }
+        int seat = room.join(c, wanted);
+        if (seat < 0) {
+            refuse(c, "room " + name + " is full");
+            return;
+        }
+        c.room = room;
+        c.seat = seat;
+        playerCount++;
+        c.reserve(256);
+        int start = NetProtocol.beginFrame(c.out, NetProtocol.WELCOME);
+        NetProtocol.putString(c.out, level.name);
+        NetProtocol.putVarInt(c.out, level.rowCount);
+        NetProtocol.putVarInt(c.out, level.columnCount);
+        NetProtocol.putVarInt(c.out, level.ghostCount);
+        NetProtocol.putVarInt(c.out, tickRate);
+        NetProtocol.putVarInt(c.out, seat);
+        NetProtocol.endFrame(c.out, start);
+        flush(c);
+    }
+
+    // tells the client why and ignores it from then on; flush() hangs up once
+    // the last of that is sent, or tick() does if the client won't read it
+    private void refuse(Connection c, String reason) throws IOException {
+        c.reserve(16 + 3 * reason.length());
+        int start = NetProtocol.beginFrame(c.out, NetProtocol.REFUSED);
+        NetProtocol.putString(c.out, reason);
+        NetProtocol.endFrame(c.out, start);
+        c.refusedAt = ticks;
+        flush(c);
+    }
+
+    private void tick() {
+        long start = System.nanoTime();
+        for (Room room : rooms.values()) {
+            room.tick();
+        }
+        for (Connection c : connections) {
+            if (c.out.position() > 0) {
+                try {
+                    flush(c);
+                } catch (IOException e) {
+                    closing.add(c);
+                }
+            }
+            if (c.refusedAt >= 0 && ticks - c.refusedAt > REFUSED_LINGER_SECONDS * tickRate) {
+                closing.add(c);
+            }
+        }
+        closeDead();
+        tickTime.record(System.nanoTime() - start);
+        ticks++;
+    }
+
+    // writes what the socket takes now, and waits for OP_WRITE for the rest
+    private void flush(Connection c) throws IOException {
+        c.out.flip();
+        bytesSent += c.channel.write(c.out);
+        boolean more = c.out.hasRemaining();
+        c.out.compact();
+        if (c.key.isValid()) {
+            c.key.interestOps(more ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+        if (c.refusedAt >= 0 && !more) {
+            closing.add(c);
+        }
+    }
+
+    private void closeDead() {
+        for (Connection c : closing) {
+            if (connections.remove(c)) {
+                closeQuietly(c);
+                if (c.room != null) {
+                    c.room.leave(c);
+                    playerCount--;
+                    if (c.room.players == 0) {
+                        rooms.remove(c.room.name);
+                        roomCount = rooms.size();
+                    }
+                }
+            }
+        }
+        closing.clear();
+    }
+
+    private static void closeQuietly(Connection c) {
+        c.key.cancel();
+        try {
+            c.channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        Level level = Level.named(args.length > 1 ? args[1] : Level.CLASSIC);
+        int tickRate = Integer.getInteger("pacman.tickRate", 20);
+        GameServer server = new GameServer(level, new InetSocketAddress(port), tickRate);
+        System.out.println("serving " + level.name + " on port " + server.port() + " at " + tickRate + " ticks/s");
+        String telemetryDirectory = System.getProperty("pacman.telemetry");
+        if (telemetryDirectory != null) {
+            server.telemetry = new Telemetry(Paths.get(telemetryDirectory), Telemetry.DEFAULT_SEGMENT_BYTES);
+        }
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            if (server.telemetry != null) {
+                server.telemetry.close();
+            }
+        }));
+        long lastBytes = 0;
+        while (true) {
+            try {
+                Thread.sleep(60_000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long bytes = server.bytesSent;
+            System.out.printf("%d rooms, %d players, %.1f KB/s out, tick %s%n", server.roomCount,
+                    server.playerCount, (bytes - lastBytes) / 60.0 / 1024, server.tickTime.summary());
+            lastBytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,925 @@
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Headless game rules. Everything that used to live in the PacMan panel and was
+// driven by Swing timers is advanced here one tick at a time by step(), so the
+// game can run off the EDT, faster than real time, and reproducibly from a seed.
+// No AWT or Swing types are allowed in this class.
+public class GameState {
+
+    // a ghost's sprite while it flashes after being eaten
+    static final int LOOK_NORMAL = 0;
+    static final int LOOK_HIDDEN = 1;
+    static final int LOOK_SCARED = 2;
+
+    // receives side effects the rules can't perform themselves
+    interface Listener {
+        void sound(Sound sound);
+    }
+
+    class Block {
+        int x;
+        int y;
+        int width;
+        int height;
+        char type; // tile map char: P pac man, b o p r ghosts
+
+        int startX;
+        int startY;
+        char direction = 'U'; // U D L R
+        int velocityX = 0;
+        int velocityY = 0;
+
+        int look = LOOK_NORMAL;
+        boolean isFlashing = false; // eaten ghost flash, one step every 2 ticks (100ms)
+        int flashCount = 0;
+        long flashTimer = TickScheduler.NONE;
+        boolean eaten = false; // this tick: moves from its spawn even if that is far away
+
+        Block(char type, int x, int y, int width, int height) {
+            this.type = type;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.startX = x;
+            this.startY = y;
+        }
+
+        void updateDirection(char direction) {
+            char prevDirection = this.direction;
+            this.direction = direction;
+            updateVelocity();
+            this.x += this.velocityX;
+            this.y += this.velocityY;
+            if (grid.hitsWall(this.x, this.y, this.width, this.height)) {
+                this.x -= this.velocityX;
+                this.y -= this.velocityY;
+                this.direction = prevDirection;
+                updateVelocity();
+            }
+        }
+
+        void updateVelocity() {
+            if (this.direction == 'U') {
+                this.velocityX = 0;
+                this.velocityY = -tileSize/4;
+            }
+            else if (this.direction == 'D') {
+                this.velocityX = 0;
+                this.velocityY = tileSize/4;
+            }
+            else if (this.direction == 'L') {
+                this.velocityX = -tileSize/4;
+                this.velocityY = 0;
+            }
+            else if (this.direction == 'R') {
+                this.velocityX = tileSize/4;
+                this.velocityY = 0;
+            }
+        }
+
+        void reset() {
+            this.x = this.startX;
+            this.y = this.startY;
+        }
+
+        // as freshly loaded from the map
+        void respawn() {
+            reset();
+            direction = 'U';
+            velocityX = 0;
+            velocityY = 0;
+            look = LOOK_NORMAL;
+            isFlashing = false;
+            flashCount = 0;
+            timers.cancel(flashTimer);
+            flashTimer = TickScheduler.NONE;
+        }
+    }
+
+    final int rowCount;
+    final int columnCount;
+    final int tileSize = 32;
+    final int boardWidth;
+    final int boardHeight;
+
+    // every timed effect is an entry in timers, due on a simulation tick, so
+    // effects pause with the game and cost nothing until they are due.
+    // What an entry does is its kind; arg is a ghost index or ticks or flashes left
+    final TickScheduler timers = new TickScheduler(512);
+    private final TickScheduler.Task timerTask = this::timerFired;
+    static final int TIMER_GHOST_FLASH = 0;
+    static final int TIMER_DEATH_FLASH = 1;
+    static final int TIMER_SCARED_FLASH = 2;
+    static final int TIMER_SCARED_BLINK = 3;
+    static final int TIMER_SCARED_END = 4;
+    static final int TIMER_CHERRY_FLASH = 5;
+    static final int TIMER_CHERRY_BLINK = 6;
+    static final int TIMER_CHERRY_END = 7;
+    static final int TIMER_CHERRY_SPAWN = 8;
+
+    // cherries stay CHERRY_DURATION ticks, flash for CHERRY_FLASH_DURATION more and
+    // go; CHERRY_SPAWN_INTERVAL ticks after the last one goes a new one appears
+    boolean isCherryActive = false;
+    final int CHERRY_SPAWN_INTERVAL;
+    final int CHERRY_DURATION;
+    final int CHERRY_FLASH_DURATION = 40;
+    final int CHERRY_BLINK_TICKS = 10;
+    boolean isCherryFlashing = false;
+    boolean showCherry = true;
+    long cherryTimer = TickScheduler.NONE; // the cherries' next step, or the next spawn
+
+    boolean areGhostsScared = false;
+    final int SCARED_DURATION;  // 150 * 50ms = 7.5s by default
+    boolean areGhostsFlashing = false;
+    final int FLASH_DURATION;   // 20 * 50ms = 1000ms = 1s by default, the end of SCARED_DURATION
+    final int SCARED_BLINK_TICKS = 5; // 250ms
+    boolean showFlashingGhosts = true;
+    long scaredTimer = TickScheduler.NONE; // the scare's next step
+
+    // ghost scatter/chase schedule in ticks from level start or a lost life,
+    // alternating scatter, chase, scatter, ...; chase for good after the last entry
+    final int[] GHOST_MODE_TICKS = {140, 400, 140, 400, 100, 400, 100};
+    int ghostModeTicks = 0;
+
+    // ghosts further than this many tiles from pac man, in either direction, are
+    // well off screen and only move one tick in FAR_GHOST_INTERVAL; never the
+    // case on mazes smaller than the radius
+    final int SIMULATION_RADIUS = 40;
+    final int FAR_GHOST_INTERVAL = 4;
+
+    // with at least this many ghosts their moves are spread over the common
+    // fork/join pool, GHOST_CHUNK ghosts per task
+    static final int PARALLEL_GHOSTS = 256;
+    static final int GHOST_CHUNK = 128;
+
+    final int DEATH_FLASHES = 6;
+    final int DEATH_FLASH_TICKS = 4;  // 4 * 50ms = 200ms per flash
+    boolean isDying = false; // the rest of the game is frozen while pac man flashes
+
+    //X = wall, O = skip, P = pac man, ' ' = food
+    //Ghosts: b = blue, o = orange, p = pink, r = red
+    //the built in "classic" level; others are text files in this format, see Level
+    static final String[] DEFAULT_MAP = {
+        "XXXXXXXXXXXXXXXXXXX",
+        "X        X        X",
+        "X XX XXX X XXX XX X",
+        "X                 X",
+        "X XX X XXXXX X XX X",
+        "X    X       X    X",
+        "XXXX XXXX XXXX XXXX",
+        "OOOX X       X XOOO",
+        "XXXX X XXrXX X XXXX",
+        "O       bpo       O",
+        "XXXX X XXXXX X XXXX",
+        "OOOX X       X XOOO",
+        "XXXX X XXXXX X XXXX",
+        "X        X        X",
+        "X XX XXX X XXX XX X",
+        "X  X     P     X  X",
+        "XX X X XXXXX X X XX",
+        "X    X   X   X    X",
+        "X XXXXXX X XXXXXX X",
+        "X                 X",
+        "XXXXXXXXXXXXXXXXXXX"
+    };
+    final Level level;
+    final TileBits portalRows; // rows pac man can leave on one side to come back on the other
+
+    // pellets drawn 4x4 in the middle of their tile
+    static final int PELLET_OFFSET = 14;
+    static final int PELLET_SIZE = 4;
+
+    // a list so iteration order, and with it the rng draws, is reproducible
+    ArrayList<Block> ghosts = new ArrayList<>();
+    final TileGrid grid;
+    final GhostAI ghostAI;
+
+    // ghost vs pac man broadphase, kept up to date as ghosts move; anything else
+    // that moves ghosts must set ghostGridStale to have it rebuilt
+    final SpatialGrid ghostGrid;
+    boolean ghostGridStale = true;
+    private int ghostGridCount = 0;
+    private int[] ghostHits = new int[0];
+
+    // ghosts a player steers instead of GhostAI (network rooms): 0 leaves the
+    // ghost to GhostAI, otherwise the direction its player last asked for, ' '
+    // for none yet. null until some ghost has a player
+    char[] ghostInput;
+
+    // every ghost move of a tick reads these, set before any ghost moves
+    private int moveMode;
+    private int movePacmanTile;
+    private int moveRedTile;
+    private GhostChunk[] ghostChunks = new GhostChunk[0];
+
+    Block pacman;
+    char pacmanFacing = 'R';
+
+    final long seed;
+    final Rng random;
+    int score = 0;
+    int lives = 3;
+    boolean gameOver = false;
+    boolean isPacmanVisible = true;
+    long tick = 0;
+
+    // totals for balance statistics, never reset by restart()
+    int ghostsEaten = 0;
+    int pelletsEaten = 0;
+    int levelsCleared = 0;
+
+    Listener listener;
+    Telemetry.Source telemetry; // null unless someone is collecting
+
+    GameState(long seed) {
+        this(seed, new GameConfig());
+    }
+
+    GameState(long seed, GameConfig config) {
+        this(seed, config, Level.classic());
+    }
+
+    // any rectangular map in DEFAULT_MAP's format
+    GameState(long seed, GameConfig config, String[] tileMap) {
+        this(seed, config, Level.compile("custom", tileMap));
+    }
+
+    GameState(long seed, GameConfig config, Level level) {
+        this.level = level;
+        rowCount = level.rowCount;
+        columnCount = level.columnCount;
+        boardWidth = columnCount * tileSize;
+        boardHeight = rowCount * tileSize;
+        CHERRY_SPAWN_INTERVAL = config.cherrySpawnInterval;
+        CHERRY_DURATION = config.cherryDuration;
+        SCARED_DURATION = config.scaredDuration;
+        FLASH_DURATION = config.flashDuration;
+        this.seed = seed;
+        random = new Rng(seed);
+        grid = new TileGrid(rowCount, columnCount, tileSize);
+        level.readWalls(grid.walls);
+        level.readPellets(grid.pelletTemplate);
+        portalRows = new TileBits(rowCount);
+        level.readPortalRows(portalRows);
+        for (int i = 0; i < level.ghostCount; i++) {
+            int tile = level.ghostTile(i);
+            ghosts.add(new Block(level.ghostType(i), (tile % columnCount) * tileSize, (tile / columnCount) * tileSize,
+                    tileSize, tileSize));
+        }
+        int tile = level.pacmanTile;
+        pacman = new Block('P', (tile % columnCount) * tileSize, (tile / columnCount) * tileSize, tileSize, tileSize);
+        ghostAI = new GhostAI(grid, level);
+        ghostGrid = new SpatialGrid(rowCount, columnCount, tileSize);
+        loadMap();
+    }
+
+    private void playSound(Sound sound) {
+        if (listener != null) {
+            listener.sound(sound);
+        }
+    }
+
+    // level reset: pellets are copied back from the template, some become cherries
+    public void loadMap() {
+        PerfEvents.LevelLoad event = null;
+        if (PerfEvents.LEVEL_LOAD.isEnabled()) {
+            event = new PerfEvents.LevelLoad();
+            event.begin();
+        }
+        grid.resetPellets();
+
+        int cherryCount = 0;
+        TileBits template = grid.pelletTemplate;
+        for (int i = template.nextSetBit(0); i >= 0 && cherryCount < 2; i = template.nextSetBit(i + 1)) {
+            if (random.nextInt(1000) < 20) {
+                grid.pellets.clear(i);
+                grid.cherries.set(i);
+                cherryCount++;
+            }
+        }
+        if (grid.cherries.isEmpty()) {
+            cherriesGone();
+        } else {
+            cherriesAppeared();
+        }
+
+        pacman.respawn();
+        pacmanFacing = 'R';
+        ghostModeTicks = 0;
+        for (int i = 0; i < ghosts.size(); i++) {
+            Block ghost = ghosts.get(i);
+            ghost.respawn();
+        }
+        ghostGridStale = true;
+        if (event != null) {
+            event.levelsCleared = levelsCleared;
+            event.commit();
+        }
+    }
+
+    // one 50ms tick; nextDirection is the player's latest requested direction or ' '
+    public void step(char nextDirection) {
+        if (gameOver) {
+            return;
+        }
+        tick++;
+        timers.advanceTo(tick, timerTask);
+        if (isDying) {
+            return;
+        }
+
+        move(nextDirection);
+        updateCherries();
+    }
+
+    void move(char nextDirection) {
+        movePacman(nextDirection);
+
+        //check ghost collisions
+        int pacmanTile = pacmanTile();
+        ghostAI.track(pacmanTile);
+        int mode = ghostMode();
+        if (!areGhostsScared) {
+            ghostModeTicks++; // the schedule holds while ghosts are frightened
+        }
+        int redTile = pacmanTile;
+        for (int i = 0; i < ghosts.size(); i++) {
+            Block ghost = ghosts.get(i);
+            if (ghost.type == 'r') {
+                redTile = grid.index(ghost.y / tileSize, ghost.x / tileSize);
+                break;
+            }
+        }
+        // ghosts don't touch each other, so the rules are as if they took turns in
+        // index order: the first one to catch pac man ends the tick and the ghosts
+        // after it stay where they are, but ghosts eaten with a cherry active move on
+        int caught = -1;
+        int hits = ghostsTouchingPacman();
+        for (int h = 0; h < hits; h++) {
+            int i = ghostHits[h];
+            Block ghost = ghosts.get(i);
+            if (skipsTick(ghost, i)) {
+                continue;
+            }
+            if (isCherryActive) {
+                playSound(Sound.EAT_GHOST);
+                ghost.reset();
+                ghost.look = LOOK_NORMAL;
+                ghost.eaten = true;
+
+                // flash ghost briefly
+                ghost.isFlashing = true;
+                ghost.flashCount = 0;
+                timers.cancel(ghost.flashTimer);
+                ghost.flashTimer = timers.schedule(2, TIMER_GHOST_FLASH, i);
+
+                score += 50;
+                ghostsEaten++;
+                if (telemetry != null) {
+                    telemetry.ghostEaten(tick, pacmanTile, ghost.type);
+                }
+            }
+            else {
+                caught = i;
+                break;
+            }
+        }
+        moveGhosts(caught >= 0 ? caught : ghosts.size(), mode, pacmanTile, redTile);
+        if (caught >= 0) {
+            lives -= 1;
+            if (telemetry != null) {
+                telemetry.died(tick, pacmanTile, ghosts.get(caught).type);
+            }
+            if (lives == 0) {
+                gameOver = true;
+                if (telemetry != null) {
+                    telemetry.gameOver(tick, score);
+                }
+                return;
+            }
+            isDying = true;
+            // everything else waits out the freeze: the last flash's tick is the
+            // first one played again
+            timers.postpone(DEATH_FLASHES * DEATH_FLASH_TICKS - 1);
+            timers.schedule(DEATH_FLASH_TICKS, TIMER_DEATH_FLASH, DEATH_FLASHES);
+            playSound(Sound.DEATH);
+            return;
+        }
+
+        //check food collision, only the tiles pac man overlaps can hold a pellet he touches
+        int foodEaten = -1;
+        int lastRow = grid.lastTile(pacman.y, pacman.height);
+        int lastColumn = grid.lastTile(pacman.x, pacman.width);
+        for (int r = grid.firstTile(pacman.y); r <= lastRow; r++) {
+            for (int c = grid.firstTile(pacman.x); c <= lastColumn; c++) {
+                if (grid.hasPellet(r, c) && overlaps(pacman, c * tileSize + PELLET_OFFSET, r * tileSize + PELLET_OFFSET, PELLET_SIZE, PELLET_SIZE)) {
+                    playSound(Sound.EAT_DOT);
+                    foodEaten = grid.index(r, c);
+                    score += 10;
+                    pelletsEaten++;
+                }
+            }
+        }
+
+        if (foodEaten >= 0) {
+            removePellet(foodEaten); // Remove the food after Pac-Man eats it
+        }
+
+        if (grid.pelletCount() == 0) {
+            levelsCleared++;
+            if (telemetry != null) {
+                telemetry.levelCleared(tick);
+            }
+            loadMap();
+            resetPositions();
+        }
+    }
+
+    // pac man's own step: turn if he can, move, wrap through a portal, stop at a
+    // wall. NetClient predicts its player's pac man with this between snapshots
+    void movePacman(char nextDirection) {
+        if (nextDirection != pacman.direction && canMove(pacman, nextDirection)) {
+            pacman.updateDirection(nextDirection);
+            pacmanFacing = pacman.direction;
+        }
+
+        pacman.x += pacman.velocityX;
+        pacman.y += pacman.velocityY;
+        if (pacman.y % tileSize == 0 && portalRows.get(pacman.y / tileSize)) {
+            if (pacman.x < -pacman.width / 2) {
+                pacman.x = boardWidth - tileSize;
+            } else if (pacman.x > boardWidth - tileSize / 2) {
+                pacman.x = 0;
+            }
+        }
+
+        //check wall collisions
+        if (grid.hitsWall(pacman.x, pacman.y, pacman.width, pacman.height)) {
+            pacman.x -= pacman.velocityX;
+            pacman.y -= pacman.velocityY;
+        }
+    }
+
+    // hands ghost i to a player (direction ' ' until they press one) or, with 0, back to GhostAI
+    void steerGhost(int i, char direction) {
+        if (ghostInput == null) {
+            if (direction == 0) {
+                return;
+            }
+            ghostInput = new char[ghosts.size()];
+        }
+        ghostInput[i] = direction;
+    }
+
+    boolean isSteered(int i) {
+        return ghostInput != null && ghostInput[i] != 0;
+    }
+
+    // indices of the ghosts overlapping pac man, ascending, into ghostHits
+    private int ghostsTouchingPacman() {
+        int count = ghosts.size();
+        if (ghostGridStale || ghostGridCount != count) {
+            ghostGrid.clear(count);
+            for (int i = 0; i < count; i++) {
+                Block ghost = ghosts.get(i);
+                ghostGrid.add(i, ghost.x, ghost.y);
+            }
+            ghostGridCount = count;
+            ghostGridStale = false;
+            if (ghostHits.length < count) {
+                ghostHits = new int[count];
+            }
+        }
+        // a ghost overlapping pac man has its corner less than a tile up or left of his
+        int candidates = ghostGrid.query(pacman.x - tileSize + 1, pacman.y - tileSize + 1,
+                pacman.x + pacman.width - 1, pacman.y + pacman.height - 1, ghostHits);
+        int hits = 0;
+        for (int k = 0; k < candidates; k++) {
+            int i = ghostHits[k];
+            if (collision(ghosts.get(i), pacman)) {
+                // insertion sort, there are only ever a few
+                int at = hits++;
+                while (at > 0 && ghostHits[at - 1] > i) {
+                    ghostHits[at] = ghostHits[at - 1];
+                    at--;
+                }
+                ghostHits[at] = i;
+            }
+        }
+        return hits;
+    }
+
+    // far ghosts only move every FAR_GHOST_INTERVAL ticks, staggered by index;
+    // a player's ghost is never far
+    private boolean skipsTick(Block ghost, int i) {
+        if (ghostInput != null && ghostInput[i] != 0) {
+            return false;
+        }
+        int radius = SIMULATION_RADIUS * tileSize;
+        boolean far = Math.abs(ghost.x - pacman.x) > radius || Math.abs(ghost.y - pacman.y) > radius;
+        return far && (tick + i) % FAR_GHOST_INTERVAL != 0;
+    }
+
+    // ghosts 0 .. count-1 take their step. Only pink and orange running scared
+    // (and not steered by a player) draw from the rng; every other ghost reads nothing another ghost writes, so with
+    // enough of them they move in chunks on any thread, and the wanderers follow
+    // here in index order, drawing exactly what one ghost after another would.
+    // Same game on any core count.
+    private void moveGhosts(int count, int mode, int pacmanTile, int redTile) {
+        moveMode = mode;
+        movePacmanTile = pacmanTile;
+        moveRedTile = redTile;
+        if (count < PARALLEL_GHOSTS || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            for (int i = 0; i < count; i++) {
+                if (moveGhost(i)) {
+                    regrid(i);
+                }
+            }
+            return;
+        }
+        int chunks = (ghosts.size() + GHOST_CHUNK - 1) / GHOST_CHUNK;
+        if (ghostChunks.length != chunks) {
+            ghostChunks = new GhostChunk[chunks];
+            for (int k = 0; k < chunks; k++) {
+                ghostChunks[k] = new GhostChunk();
+            }
+        }
+        for (int k = 0; k < chunks; k++) {
+            GhostChunk chunk = ghostChunks[k];
+            chunk.reinitialize();
+            chunk.from = Math.min(count, k * GHOST_CHUNK);
+            chunk.to = Math.min(count, chunk.from + GHOST_CHUNK);
+        }
+        ForkJoinTask.invokeAll(ghostChunks);
+        // the grid is shared, so the few ghosts that changed cell are relinked here
+        for (int k = 0; k < chunks; k++) {
+            GhostChunk chunk = ghostChunks[k];
+            for (int m = 0; m < chunk.movedCount; m++) {
+                regrid(chunk.moved[m]);
+            }
+        }
+        if (mode == GhostAI.FRIGHTENED) {
+            for (int i = 0; i < count; i++) {
+                if (wanders(i) && moveGhost(i)) {
+                    regrid(i);
+                }
+            }
+        }
+    }
+
+    // ghosts from .. to-1, except the wanderers, on whichever thread runs it
+    @SuppressWarnings("serial") // never serialized
+    private final class GhostChunk extends RecursiveAction {
+        final int[] moved = new int[GHOST_CHUNK]; // ghosts that changed grid cell
+        int movedCount;
+        int from;
+        int to;
+
+        @Override
+        protected void compute() {
+            movedCount = 0;
+            for (int i = from; i < to; i++) {
+                if (!wanders(i) && moveGhost(i)) {
+                    moved[movedCount++] = i;
+                }
+            }
+        }
+    }
+
+    private boolean wanders(int i) {
+        return GhostAI.wanders(ghosts.get(i).type, moveMode) && (ghostInput == null || ghostInput[i] == 0);
+    }
+
+    // true if the ghost ended up in a different ghostGrid cell
+    private boolean moveGhost(int i) {
+        Block ghost = ghosts.get(i);
+        boolean eaten = ghost.eaten;
+        ghost.eaten = false;
+        if (!eaten && skipsTick(ghost, i)) {
+            return false;
+        }
+        char steer = ghostInput != null ? ghostInput[i] : 0;
+        if (steer != 0) {
+            moveSteeredGhost(ghost, steer);
+        } else {
+            // ghosts move a quarter tile per tick, so they land exactly on every tile they cross
+            if (ghost.x % tileSize == 0 && ghost.y % tileSize == 0) {
+                int tile = grid.index(ghost.y / tileSize, ghost.x / tileSize);
+                ghost.direction = ghostAI.choose(tile, ghost.direction, ghost.type, moveMode,
+                        movePacmanTile, pacmanFacing, moveRedTile, random);
+                ghost.updateVelocity();
+            }
+            advanceGhost(ghost);
+        }
+        return ghostGrid.cell(ghost.x, ghost.y) != ghostGrid.cellOf(i);
+    }
+
+    // a player's ghost turns on a tile if the way it asked for is open, else keeps
+    // going; NetClient predicts its player's ghost with this between snapshots
+    void moveSteeredGhost(Block ghost, char direction) {
+        if (ghost.x % tileSize == 0 && ghost.y % tileSize == 0 && direction != ' '
+                && direction != ghost.direction && canMove(ghost, direction)) {
+            ghost.direction = direction;
+            ghost.updateVelocity();
+        }
+        advanceGhost(ghost);
+    }
+
+    private void advanceGhost(Block ghost) {
+        ghost.x += ghost.velocityX;
+        ghost.y += ghost.velocityY;
+        if (grid.hitsWall(ghost.x, ghost.y, ghost.width, ghost.height) || ghost.x <= 0 || ghost.x + ghost.width >= boardWidth) {
+            ghost.x -= ghost.velocityX; // boxed in, choose again next tick
+            ghost.y -= ghost.velocityY;
+        }
+    }
+
+    private void regrid(int i) {
+        Block ghost = ghosts.get(i);
+        ghostGrid.move(i, ghost.x, ghost.y);
+    }
+
+    // the tile under pac man's centre, clamped to the board while he is in a portal
+    int pacmanTile() {
+        int r = Math.max(0, Math.min(rowCount - 1, Math.floorDiv(pacman.y + tileSize / 2, tileSize)));
+        int c = Math.max(0, Math.min(columnCount - 1, Math.floorDiv(pacman.x + tileSize / 2, tileSize)));
+        return grid.index(r, c);
+    }
+
+    int ghostMode() {
+        if (areGhostsScared) {
+            return GhostAI.FRIGHTENED;
+        }
+        int t = ghostModeTicks;
+        for (int i = 0; i < GHOST_MODE_TICKS.length; i++) {
+            if (t < GHOST_MODE_TICKS[i]) {
+                return i % 2 == 0 ? GhostAI.SCATTER : GhostAI.CHASE;
+            }
+            t -= GHOST_MODE_TICKS[i];
+        }
+        return GhostAI.CHASE;
+    }
+
+    private void removePellet(int tile) {
+        grid.pellets.clear(tile);
+    }
+
+    private void updateCherries() {
+        // a cherry fills its tile, so every cherry on a tile pac man overlaps is touched
+        TileBits cherries = grid.cherries;
+        int lastRow = grid.lastTile(pacman.y, pacman.height);
+        int lastColumn = grid.lastTile(pacman.x, pacman.width);
+        for (int r = grid.firstTile(pacman.y); r <= lastRow; r++) {
+            for (int c = grid.firstTile(pacman.x); c <= lastColumn; c++) {
+                if (grid.hasCherry(r, c)) {
+                    playSound(Sound.EAT_CHERRY);
+                    playSound(Sound.GHOST_SCARED);
+                    cherries.clear(grid.index(r, c));
+                    if (telemetry != null) {
+                        telemetry.cherry(tick, grid.index(r, c));
+                    }
+                    isCherryActive = true;
+                    scareGhosts();
+                    if (cherries.isEmpty()) {
+                        cherriesGone();
+                    }
+                }
+            }
+        }
+    }
+
+    private void timerFired(int kind, int arg) {
+        switch (kind) {
+            case TIMER_GHOST_FLASH: flashGhost(arg); break;
+            case TIMER_DEATH_FLASH: flashPacman(arg); break;
+            case TIMER_SCARED_FLASH:
+                areGhostsFlashing = true;
+                blinkScared(arg);
+                break;
+            case TIMER_SCARED_BLINK:
+                showFlashingGhosts = !showFlashingGhosts;
+                blinkScared(arg);
+                break;
+            case TIMER_SCARED_END:
+                scaredTimer = TickScheduler.NONE;
+                areGhostsScared = false;
+                areGhostsFlashing = false;
+                showFlashingGhosts = true;
+                break;
+            case TIMER_CHERRY_FLASH:
+                isCherryFlashing = true;
+                blinkCherries(arg);
+                break;
+            case TIMER_CHERRY_BLINK:
+                showCherry = !showCherry;
+                blinkCherries(arg);
+                break;
+            case TIMER_CHERRY_END:
+                grid.cherries.clear(); // Despawn cherries
+                cherriesGone();
+                break;
+            case TIMER_CHERRY_SPAWN:
+                spawnNewCherry();
+                if (grid.cherries.isEmpty()) {
+                    cherriesGone(); // no room this time
+                } else {
+                    cherriesAppeared();
+                }
+                break;
+            default:
+                throw new IllegalStateException("timer kind " + kind);
+        }
+    }
+
+    // an eaten ghost flashes 3 times, a step every 2 ticks (100ms)
+    private void flashGhost(int i) {
+        Block ghost = ghosts.get(i);
+        if (ghost.flashCount % 2 == 0) {
+            ghost.look = LOOK_HIDDEN;
+            isCherryActive = false;
+        } else {
+            ghost.look = LOOK_SCARED; // show scared again briefly
+        }
+        ghost.flashCount++;
+        if (ghost.flashCount >= 6) { // 3 full flashes
+            ghost.look = LOOK_NORMAL;
+            ghost.isFlashing = false;
+            ghost.flashTimer = TickScheduler.NONE;
+            isCherryActive = false;
+        } else {
+            ghost.flashTimer = timers.schedule(2, TIMER_GHOST_FLASH, i);
+        }
+    }
+
+    private void flashPacman(int flashesLeft) {
+        isPacmanVisible = !isPacmanVisible;
+        if (flashesLeft > 1) {
+            timers.schedule(DEATH_FLASH_TICKS, TIMER_DEATH_FLASH, flashesLeft - 1);
+        } else {
+            isPacmanVisible = true;
+            isDying = false;
+            resetPositions();
+        }
+    }
+
+    // starts the scare over: SCARED_DURATION ticks, flashing for the last FLASH_DURATION
+    private void scareGhosts() {
+        timers.cancel(scaredTimer);
+        areGhostsScared = true;
+        areGhostsFlashing = false;
+        showFlashingGhosts = true;
+        if (SCARED_DURATION > FLASH_DURATION) {
+            scaredTimer = timers.schedule(SCARED_DURATION - FLASH_DURATION, TIMER_SCARED_FLASH, FLASH_DURATION);
+        } else {
+            areGhostsFlashing = true;
+            blinkScared(SCARED_DURATION);
+        }
+    }
+
+    private void blinkScared(int ticksLeft) {
+        if (ticksLeft > SCARED_BLINK_TICKS) {
+            scaredTimer = timers.schedule(SCARED_BLINK_TICKS, TIMER_SCARED_BLINK, ticksLeft - SCARED_BLINK_TICKS);
+        } else {
+            scaredTimer = timers.schedule(Math.max(1, ticksLeft), TIMER_SCARED_END, 0);
+        }
+    }
+
+    // the cherries on the board start their CHERRY_DURATION
+    private void cherriesAppeared() {
+        timers.cancel(cherryTimer);
+        isCherryFlashing = false;
+        showCherry = true;
+        cherryTimer = timers.schedule(Math.max(1, CHERRY_DURATION), TIMER_CHERRY_FLASH, CHERRY_FLASH_DURATION);
+    }
+
+    // the board has no cherries left: the next comes CHERRY_SPAWN_INTERVAL ticks from now
+    private void cherriesGone() {
+        timers.cancel(cherryTimer);
+        isCherryFlashing = false;
+        showCherry = true;
+        cherryTimer = timers.schedule(Math.max(1, CHERRY_SPAWN_INTERVAL), TIMER_CHERRY_SPAWN, 0);
+    }
+
+    private void blinkCherries(int ticksLeft) {
+        if (ticksLeft > CHERRY_BLINK_TICKS) {
+            cherryTimer = timers.schedule(CHERRY_BLINK_TICKS, TIMER_CHERRY_BLINK, ticksLeft - CHERRY_BLINK_TICKS);
+        } else {
+            cherryTimer = timers.schedule(Math.max(1, ticksLeft), TIMER_CHERRY_END, 0);
+        }
+    }
+
+    public boolean collision(Block a, Block b) {
+        return overlaps(a, b.x, b.y, b.width, b.height);
+    }
+
+    public boolean overlaps(Block a, int x, int y, int width, int height) {
+        return  a.x < x + width &&
+                a.x + a.width > x &&
+                a.y < y + height &&
+                a.y + a.height > y;
+    }
+
+    public void resetPositions() {
+        pacman.reset();
+        pacman.velocityX = 0;
+        pacman.velocityY = 0;
+        ghostModeTicks = 0;
+        for (int i = 0; i < ghosts.size(); i++) {
+            Block ghost = ghosts.get(i);
+            ghost.reset();
+        }
+        ghostGridStale = true;
+    }
+
+    public boolean canMove(Block block, char direction) {
+        int testX = block.x;
+        int testY = block.y;
+
+        int speed = tileSize / 4; // Same as your current speed
+
+        switch (direction) {
+            case 'U': testY -= speed; break;
+            case 'D': testY += speed; break;
+            case 'L': testX -= speed; break;
+            case 'R': testX += speed; break;
+        }
+
+        // Check collision with walls
+        return !grid.hitsWall(testX, testY, block.width, block.height);
+    }
+
+    private void spawnNewCherry() {
+        int emptyTileAttempts = 100;
+
+        while (emptyTileAttempts-- > 0) {
+            int r = random.nextInt(rowCount);
+            int c = random.nextInt(columnCount);
+
+            if (grid.pelletTemplate.get(grid.index(r, c))) {
+                // Make sure no wall or cherry is already here
+                if (!grid.isWall(r, c) && !grid.hasCherry(r, c)) {
+                    grid.cherries.set(grid.index(r, c));
+                    break;
+                }
+            }
+        }
+    }
+
+    // what a key press did after game over
+    public void restart() {
+        loadMap();
+        resetPositions();
+        lives = 3;
+        score = 0;
+        gameOver = false;
+        grid.cherries.clear();
+        cherriesGone();
+        if (telemetry != null) {
+            telemetry.started(tick);
+        }
+    }
+
+    // order-sensitive hash of everything step() reads, for comparing two runs
+    public long stateHash() {
+        long h = 0xcbf29ce484222325L;
+        h = mix(h, random.getState());
+        h = mix(h, tick);
+        h = mix(h, score);
+        h = mix(h, lives);
+        h = mix(h, (gameOver ? 1 : 0) | (isPacmanVisible ? 2 : 0) | (isCherryActive ? 4 : 0)
+                | (isCherryFlashing ? 8 : 0) | (showCherry ? 16 : 0) | (areGhostsScared ? 32 : 0)
+                | (areGhostsFlashing ? 64 : 0) | (showFlashingGhosts ? 128 : 0));
+        h = mix(h, isDying ? 1 : 0);
+        h = mix(h, timers.stateHash());
+        h = mix(h, ghostModeTicks);
+        h = mix(h, hashBlock(pacman));
+        h = mix(h, pacmanFacing);
+        for (int i = 0; i < ghosts.size(); i++) {
+            Block ghost = ghosts.get(i);
+            h = mix(h, hashBlock(ghost));
+            h = mix(h, ghost.look | (ghost.isFlashing ? 8 : 0) | ghost.flashCount << 4);
+        }
+        for (int i = grid.pellets.nextSetBit(0); i >= 0; i = grid.pellets.nextSetBit(i + 1)) {
+            h = mix(h, i);
+        }
+        for (int i = grid.cherries.nextSetBit(0); i >= 0; i = grid.cherries.nextSetBit(i + 1)) {
+            h = mix(h, ~i);
+        }
+        return h;
+    }
+
+    private static long hashBlock(Block b) {
+        return ((long) b.x << 40) ^ ((long) b.y << 16) ^ ((long) b.direction << 8) ^ b.type
+                ^ ((long) b.velocityX << 52) ^ ((long) b.velocityY << 28);
+    }
+
+    private static long mix(long h, long v) {
+        h ^= v;
+        h *= 0x100000001b3L;
+        return h ^ (h >>> 29);
+    }
+}
@@ -0,0 +1,356 @@
+// Ghost targeting, precomputed per map.
+//
+// Ghosts decide only when they sit exactly on a tile, and then only between the
+// (at most three) open neighbours that aren't a u-turn, picking the one closest
+// to their target tile. "Closest" is a table lookup:
+//   - maps with up to MAX_TABLE_TILES walkable tiles get an all-pairs shortest
+//     path table, filled by one BFS per tile when the map is compiled and
+//     stored with the compiled Level;
+//   - bigger maps get a flow field: a BFS from Pac-Man's tile, limited to
+//     FLOW_RADIUS steps and redone only when Pac-Man changes tile. Distances it
+//     doesn't know fall back to straight-line distance.
+// Either way a decision costs a few array reads, whatever the size of the map.
+//
+// Targets follow the arcade game:
+//   red    chase: Pac-Man's tile                 scatter: top right     frightened: flee
+//   pink   chase: 4 tiles ahead of Pac-Man       scatter: top left      frightened: random
+//   blue   chase: 2 ahead of Pac-Man, mirrored
+//          through the red ghost                 scatter: bottom right  frightened: flee
+//   orange chase: Pac-Man, or its corner when
+//          closer than 8 tiles                   scatter: bottom left   frightened: random
+public class GhostAI {
+    static final int SCATTER = 0;
+    static final int CHASE = 1;
+    static final int FRIGHTENED = 2;
+
+    static final int MAX_TABLE_TILES = 2048;
+    static final int FLOW_RADIUS = 32; // well past where a ghost's choice depends on the exact path
+    static final short UNKNOWN = Short.MAX_VALUE;
+
+    // arcade tie-break order
+    private static final char[] DIRECTIONS = {'U', 'L', 'D', 'R'};
+
+    final int rowCount;
+    final int columnCount;
+    private final boolean[] open; // walkable for ghosts
+    private final int[] nodeOf;   // tile -> table row, -1 if not walkable
+    final int nodeCount;
+    private final short[] table;  // nodeCount * nodeCount path lengths, or null
+
+    // flow field towards flowTarget, used when there is no table
+    private final short[] flow;
+    private final int[] flowStamp;
+    private final int[] flowQueue;
+    private int flowGeneration = 0;
+    private int flowTarget = -1;
+
+    // scatter corners: top right, top left, bottom right, bottom left
+    private final int[] corners = new int[4];
+
+    GhostAI(TileGrid grid) {
+        this(grid, null);
+    }
+
+    // takes the path table from level when it has one, otherwise computes it
+    GhostAI(TileGrid grid, Level level) {
+        rowCount = grid.rowCount;
+        columnCount = grid.columnCount;
+        int tiles = rowCount * columnCount;
+        open = new boolean[tiles];
+        nodeOf = new int[tiles];
+        int nodes = 0;
+        for (int r = 0; r < rowCount; r++) {
+            for (int c = 0; c < columnCount; c++) {
+                int tile = grid.index(r, c);
+                // ghosts never enter the outer columns, that's where the portal tunnel leaves the board
+                open[tile] = !grid.isWall(r, c) && c > 0 && c < columnCount - 1;
+                nodeOf[tile] = open[tile] ? nodes++ : -1;
+            }
+        }
+        nodeCount = nodes;
+
+        flowQueue = new int[tiles];
+        if (nodeCount <= MAX_TABLE_TILES) {
+            table = new short[nodeCount * nodeCount];
+            if (level != null && level.tableNodes == nodeCount) {
+                level.readTable(table);
+            } else {
+                fillTable(tiles);
+            }
+            flow = null;
+            flowStamp = null;
+        } else {
+            table = null;
+            flow = new short[tiles];
+            flowStamp = new int[tiles];
+        }
+
+        corners[0] = nearestOpen(0, columnCount - 1);
+        corners[1] = nearestOpen(0, 0);
+        corners[2] = nearestOpen(rowCount - 1, columnCount - 1);
+        corners[3] = nearestOpen(rowCount - 1, 0);
+    }
+
+    private void fillTable(int tiles) {
+        short[] distances = new short[tiles];
+        for (int tile = 0; tile < tiles; tile++) {
+            if (open[tile]) {
+                bfs(tile, distances, null, Integer.MAX_VALUE);
+                int row = nodeOf[tile] * nodeCount;
+                for (int other = 0; other < tiles; other++) {
+                    if (open[other]) {
+                        table[row + nodeOf[other]] = distances[other];
+                    }
+                }
+            }
+        }
+    }
+
+    // the table in Level's layout, little-endian shorts from offset
+    void writeTable(java.nio.ByteBuffer data, int offset) {
+        for (int i = 0; i < table.length; i++) {
+            data.putShort(offset + 2 * i, table[i]);
+        }
+    }
+
+    boolean isOpen(int tile) {
+        return open[tile];
+    }
+
+    boolean hasTable() {
+        return table != null;
+    }
+
+    private int nearestOpen(int row, int column) {
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        for (int tile = 0; tile < open.length; tile++) {
+            if (open[tile]) {
+                long dr = tile / columnCount - row;
+                long dc = tile % columnCount - column;
+                if (dr * dr + dc * dc < bestDistance) {
+                    bestDistance = dr * dr + dc * dc;
+                    best = tile;
+                }
+            }
+        }
+        return best;
+    }
+
+    // breadth-first search from start; with a stamp array only stamped entries are valid.
+    // Only open tiles are queued and the outer columns are never open, so a queued
+    // tile's left and right neighbours are always on its own row.
+    private void bfs(int start, short[] distances, int[] stamp, int maxDepth) {
+        if (stamp == null) {
+            java.util.Arrays.fill(distances, UNKNOWN);
+        }
+        int tiles = open.length;
+        int head = 0;
+        int tail = 0;
+        distances[start] = 0;
+        if (stamp != null) {
+            stamp[start] = flowGeneration;
+        }
+        flowQueue[tail++] = start;
+        while (head < tail) {
+            int tile = flowQueue[head++];
+            int d = distances[tile];
+            if (d >= maxDepth) {
+                continue;
+            }
+            for (int i = 0; i < 4; i++) {
+                int next;
+                if (i == 0) {
+                    next = tile - columnCount;
+                } else if (i == 1) {
+                    next = tile - 1;
+                } else if (i == 2) {
+                    next = tile + columnCount;
+                } else {
+                    next = tile + 1;
+                }
+                if (next < 0 || next >= tiles || !open[next]) {
+                    continue;
+                }
+                boolean seen = stamp != null ? stamp[next] == flowGeneration : distances[next] != UNKNOWN;
+                if (!seen) {
+                    distances[next] = (short) (d + 1);
+                    if (stamp != null) {
+                        stamp[next] = flowGeneration;
+                    }
+                    flowQueue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    int neighbour(int tile, char direction) {
+        int r = tile / columnCount;
+        int c = tile % columnCount;
+        switch (direction) {
+            case 'U': r--; break;
+            case 'D': r++; break;
+            case 'L': c--; break;
+            case 'R': c++; break;
+        }
+        if (r < 0 || r >= rowCount || c < 0 || c >= columnCount) {
+            return -1;
+        }
+        return r * columnCount + c;
+    }
+
+    // call every tick with Pac-Man's tile; only does work on maps without a table
+    // and only when the tile changed
+    void track(int pacmanTile) {
+        if (table != null || pacmanTile == flowTarget || !open[pacmanTile]) {
+            return;
+        }
+        flowTarget = pacmanTile;
+        flowGeneration++;
+        bfs(pacmanTile, flow, flowStamp, FLOW_RADIUS);
+    }
+
+    // what the flow field leads to, -1 before the first track(); RewindBuffer
+    // puts it back so a rewound game steers as it did the first time
+    int flowTarget() {
+        return flowTarget;
+    }
+
+    void restoreFlowTarget(int tile) {
+        if (tile < 0) {
+            flowTarget = -1;
+        } else {
+            track(tile);
+        }
+    }
+
+    // path length between two tiles, UNKNOWN if we can't tell cheaply
+    int distance(int from, int to) {
+        if (!open[from] || !open[to]) {
+            return UNKNOWN;
+        }
+        if (table != null) {
+            return table[nodeOf[from] * nodeCount + nodeOf[to]];
+        }
+        if (to == flowTarget && flowStamp[from] == flowGeneration) {
+            return flow[from];
+        }
+        if (from == flowTarget && flowStamp[to] == flowGeneration) {
+            return flow[to];
+        }
+        return UNKNOWN;
+    }
+
+    // known path lengths rank before straight-line guesses
+    private long cost(int from, int targetRow, int targetColumn) {
+        boolean onBoard = targetRow >= 0 && targetRow < rowCount && targetColumn >= 0 && targetColumn < columnCount;
+        if (onBoard) {
+            int d = distance(from, targetRow * columnCount + targetColumn);
+            if (d != UNKNOWN) {
+                return d;
+            }
+        }
+        long dr = from / columnCount - targetRow;
+        long dc = from % columnCount - targetColumn;
+        return (1L << 32) + dr * dr + dc * dc;
+    }
+
+    static char reverse(char direction) {
+        switch (direction) {
+            case 'U': return 'D';
+            case 'D': return 'U';
+            case 'L': return 'R';
+            case 'R': return 'L';
+            default: return ' ';
+        }
+    }
+
+    private static int dRow(char direction) {
+        return direction == 'U' ? -1 : direction == 'D' ? 1 : 0;
+    }
+
+    private static int dColumn(char direction) {
+        return direction == 'L' ? -1 : direction == 'R' ? 1 : 0;
+    }
+
+    // whether choose() picks at random, the only time it draws from the rng
+    static boolean wanders(char type, int mode) {
+        return mode == FRIGHTENED && type != 'r' && type != 'b';
+    }
+
+    // direction for a ghost standing on tile, heading in direction
+    char choose(int tile, char direction, char type, int mode,
+                int pacmanTile, char pacmanFacing, int redTile, Rng random) {
+        int pacmanRow = pacmanTile / columnCount;
+        int pacmanColumn = pacmanTile % columnCount;
+        int targetRow;
+        int targetColumn;
+        boolean flee = false;
+        boolean wander = false;
+
+        if (mode == FRIGHTENED) {
+            wander = wanders(type, mode);
+            flee = !wander;
+            targetRow = pacmanRow;
+            targetColumn = pacmanColumn;
+        } else if (mode == SCATTER) {
+            int corner = corners[cornerOf(type)];
+            targetRow = corner / columnCount;
+            targetColumn = corner % columnCount;
+        } else if (type == 'p') {
+            targetRow = pacmanRow + 4 * dRow(pacmanFacing);
+            targetColumn = pacmanColumn + 4 * dColumn(pacmanFacing);
+        } else if (type == 'b') {
+            int aheadRow = pacmanRow + 2 * dRow(pacmanFacing);
+            int aheadColumn = pacmanColumn + 2 * dColumn(pacmanFacing);
+            targetRow = 2 * aheadRow - redTile / columnCount;
+            targetColumn = 2 * aheadColumn - redTile % columnCount;
+        } else if (type == 'o' && cost(tile, pacmanRow, pacmanColumn) < 8) {
+            int corner = corners[cornerOf(type)];
+            targetRow = corner / columnCount;
+            targetColumn = corner % columnCount;
+        } else {
+            targetRow = pacmanRow;
+            targetColumn = pacmanColumn;
+        }
+
+        char back = reverse(direction);
+        char best = 0;
+        long bestCost = 0;
+        int choices = 0;
+        for (int i = 0; i < 4; i++) {
+            char d = DIRECTIONS[i];
+            int next = neighbour(tile, d);
+            if (d == back || next < 0 || !open[next]) {
+                continue;
+            }
+            choices++;
+            if (wander) {
+                // reservoir pick: every open direction equally likely, one rng draw each
+                if (random.nextInt(choices) == 0) {
+                    best = d;
+                }
+                continue;
+            }
+            long c = cost(next, targetRow, targetColumn);
+            if (best == 0 || (flee ? c > bestCost : c < bestCost)) {
+                best = d;
+                bestCost = c;
+            }
+        }
+        if (best != 0) {
+            return best;
+        }
+        int behind = neighbour(tile, back);
+        return behind >= 0 && open[behind] ? back : direction; // dead end
+    }
+
+    private static int cornerOf(char type) {
+        switch (type) {
+            case 'r': return 0;
+            case 'p': return 1;
+            case 'b': return 2;
+            default: return 3;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+// Measures what ghost decisions cost per tick as the maze grows. Mazes are
+// square pillar grids (every other tile a wall) so every size is fully connected
+// and full of junctions. Small mazes get the all-pairs table, big ones the
+// flow field; the cost per tick should stay flat either way.
+//
+//   java GhostAIBenchmark [ticks]
+public class GhostAIBenchmark {
+
+    static TileGrid pillarMaze(int size) {
+        TileGrid grid = new TileGrid(size, size, 32);
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                boolean border = r == 0 || c == 0 || r == size - 1 || c == size - 1;
+                if (border || (r % 2 == 0 && c % 2 == 0)) {
+                    grid.setWall(r, c);
+                }
+            }
+        }
+        return grid;
+    }
+
+    // four ghosts and a wandering pac man, all stepping one tile per 4 ticks like
+    // the game; returns a checksum so the work can't be optimised away
+    static long run(GhostAI ai, int size, int ticks, Rng random) {
+        char[] types = {'r', 'p', 'b', 'o'};
+        int[] tiles = new int[4];
+        char[] headings = {'U', 'U', 'U', 'U'};
+        int middle = (size / 2) | 1; // odd rows and columns are open
+        for (int i = 0; i < 4; i++) {
+            tiles[i] = middle * size + middle;
+        }
+        int pacman = size + 1;
+        char facing = 'R';
+        long checksum = 0;
+        for (int t = 0; t < ticks; t++) {
+            if (t % 4 != 0) {
+                continue; // between tiles nothing is decided
+            }
+            char turn = "ULDR".charAt(random.nextInt(4));
+            int next = ai.neighbour(pacman, turn);
+            if (next >= 0 && ai.isOpen(next)) {
+                pacman = next;
+                facing = turn;
+            }
+            ai.track(pacman);
+            int mode = (t / 400) % 3;
+            for (int i = 0; i < 4; i++) {
+                headings[i] = ai.choose(tiles[i], headings[i], types[i], mode, pacman, facing, tiles[0], random);
+                int moved = ai.neighbour(tiles[i], headings[i]);
+                if (moved >= 0 && ai.isOpen(moved)) {
+                    tiles[i] = moved;
+                }
+                checksum += tiles[i];
+            }
+        }
+        return checksum;
+    }
+
+    public static void main(String[] args) {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int[] sizes = {21, 41, 61, 91, 201, 501, 1001};
+        System.out.println("  size    tiles  lookup  build ms  ns/tick");
+        for (int size : sizes) {
+            TileGrid grid = pillarMaze(size);
+            long start = System.nanoTime();
+            GhostAI ai = new GhostAI(grid);
+            long build = System.nanoTime() - start;
+
+            Rng random = new Rng(size);
+            run(ai, size, ticks / 4, random); // warm up
+            start = System.nanoTime();
+            long checksum = run(ai, size, ticks, random);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%6d %8d  %-6s %9.1f %8.1f   (%x)%n", size, ai.nodeCount,
+                    ai.hasTable() ? "table" : "flow", build / 1e6, elapsed / (double) ticks, checksum & 0xfff);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+// Runs the game rules with no display, as fast as the CPU allows.
+// Plays the same seeded game twice with the same scripted input and checks the
+// two runs end in bit-identical state.
+//
+//   java -Djava.awt.headless=true [-Dpacman.level=name] HeadlessRunner [seed] [ticks]
+public class HeadlessRunner {
+
+    // random joystick: a new direction every few ticks, restart after game over
+    static long play(Level level, long seed, long inputSeed, int ticks) {
+        GameState state = new GameState(seed, new GameConfig(), level);
+        Rng input = new Rng(inputSeed);
+        char[] directions = {'U', 'D', 'L', 'R'};
+        char nextDirection = ' ';
+        for (int i = 0; i < ticks; i++) {
+            if (state.gameOver) {
+                state.restart();
+            }
+            if (i % 8 == 0) {
+                nextDirection = directions[input.nextInt(4)];
+            }
+            state.step(nextDirection);
+        }
+        return state.stateHash();
+    }
+
+    public static void main(String[] args) throws java.io.IOException {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        Level level = Level.named(System.getProperty("pacman.level", Level.CLASSIC));
+
+        long start = System.nanoTime();
+        long first = play(level, seed, seed * 31 + 7, ticks);
+        long elapsed = System.nanoTime() - start;
+        long second = play(level, seed, seed * 31 + 7, ticks);
+
+        System.out.printf("%d ticks in %.1f ms (%.0f ticks/s)%n",
+                ticks, elapsed / 1e6, ticks / (elapsed / 1e9));
+        System.out.printf("state hash %016x / %016x%n", first, second);
+        if (first != second) {
+            System.out.println("runs diverged");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Single-producer single-consumer ring of timestamped direction presses.
+// The EDT offers key presses, the simulation thread polls them at the start of
+// each tick. Never blocks and never allocates; a full queue drops the press.
+public class InputQueue {
+    private static final int SIZE = 64; // power of two
+
+    private final char[] directions = new char[SIZE];
+    private final long[] times = new long[SIZE];
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    // set by poll(), consumer only
+    char polledDirection;
+    long polledTime;
+
+    boolean offer(char direction, long nanoTime) {
+        long t = tail.get();
+        if (t - head.get() >= SIZE) {
+            return false;
+        }
+        int i = (int) (t & (SIZE - 1));
+        directions[i] = direction;
+        times[i] = nanoTime;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    boolean poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            return false;
+        }
+        int i = (int) (h & (SIZE - 1));
+        polledDirection = directions[i];
+        polledTime = times[i];
+        head.lazySet(h + 1);
+        return true;
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.Arrays;
+
+// Log-linear histogram of durations in nanoseconds, bucketed in microseconds
+// with ~3% precision. Fixed size and allocation-free; record() is meant for a
+// single writer, readers may see slightly stale counts.
+public class LatencyHistogram {
+    private static final int LINEAR = 64;   // exact buckets for 0..63us
+    private static final int SUB_BUCKETS = 32;
+    private static final int BUCKETS = LINEAR + (63 - 6) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long max;
+
+    private static int bucket(long micros) {
+        if (micros < LINEAR) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros); // >= 6
+        int sub = (int) (micros >>> (exponent - 5)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, LINEAR + (exponent - 6) * SUB_BUCKETS + sub);
+    }
+
+    // upper bound of a bucket, in microseconds
+    private static long bucketValue(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int exponent = (index - LINEAR) / SUB_BUCKETS + 6;
+        int sub = (index - LINEAR) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - 5)) - 1;
+    }
+
+    void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts[bucket(micros)]++;
+        count++;
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+
+    long count() {
+        return count;
+    }
+
+    long maxNanos() {
+        return max;
+    }
+
+    // p in [0, 1]; nanoseconds
+    long percentile(double p) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketValue(i) * 1000, max);
+            }
+        }
+        return max;
+    }
+
+    void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+    }
+
+    String summary() {
+        return String.format("n=%d p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms",
+                count, percentile(0.50) / 1e6, percentile(0.90) / 1e6, percentile(0.99) / 1e6, max / 1e6);
+    }
+}
@@ -0,0 +1,324 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// A maze compiled into the tables GameState and GhostAI run on, stored in one
+// flat little-endian buffer so building a game from it is a few bulk copies.
+//
+// Levels are text files in levels/, one line per row, any size, in the same
+// characters as GameState.DEFAULT_MAP (lines starting with # are comments).
+// Every row whose first and last tiles are both open is a portal row. A row
+// open on one side only, or an open tile on the top or bottom row, would let
+// Pac-Man walk off the board and is rejected.
+//
+// The compiled form is cached next to the text file as cache/<name>.lvl and
+// memory-mapped on later loads; it is rebuilt when the text file's size or
+// modification time no longer match. "classic" is built in and needs no file.
+//
+//   header   "PMLV" version sourceSize(8) sourceModified(8) rows columns
+//            pacmanTile ghostCount tableNodes padding       (ints unless noted)
+//   spawns   ghostCount * (tile, type)
+//   walls    TileBits words
+//   pellets  TileBits words
+//   portals  one bit per row
+//   table    GhostAI's tableNodes * tableNodes path lengths as shorts, when
+//            the maze is small enough to have one
+//
+//   java Level levels/*.txt   compile (or check) the cache for each file
+public class Level {
+    static final byte[] MAGIC = {'P', 'M', 'L', 'V'};
+    static final int VERSION = 1;
+    static final String CLASSIC = "classic";
+    static final Path DIRECTORY = Paths.get("levels");
+
+    private static final int HEADER = 48;
+
+    final String name;
+    final ByteBuffer data;
+    final int rowCount;
+    final int columnCount;
+    final int pacmanTile;
+    final int ghostCount;
+    final int tableNodes; // 0 without a table
+    private final int wallsAt;
+    private final int pelletsAt;
+    private final int portalsAt;
+    private final int tableAt;
+
+    Level(String name, ByteBuffer data) throws IOException {
+        this.name = name;
+        this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data.limit() <= i || data.get(i) != MAGIC[i]) {
+                throw new IOException("not a compiled level");
+            }
+        }
+        if (data.limit() < HEADER || data.getInt(4) != VERSION) {
+            throw new IOException("unsupported level version");
+        }
+        rowCount = data.getInt(24);
+        columnCount = data.getInt(28);
+        pacmanTile = data.getInt(32);
+        ghostCount = data.getInt(36);
+        tableNodes = data.getInt(40);
+        int tileWords = words(rowCount * columnCount);
+        wallsAt = HEADER + 8 * ghostCount;
+        pelletsAt = wallsAt + 8 * tileWords;
+        portalsAt = pelletsAt + 8 * tileWords;
+        tableAt = portalsAt + 8 * words(rowCount);
+        if (data.limit() < tableAt + 2L * tableNodes * tableNodes) {
+            throw new IOException("compiled level is truncated");
+        }
+    }
+
+    private static int words(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    long sourceSize() {
+        return data.getLong(8);
+    }
+
+    long sourceModified() {
+        return data.getLong(16);
+    }
+
+    int ghostTile(int i) {
+        return data.getInt(HEADER + 8 * i);
+    }
+
+    char ghostType(int i) {
+        return (char) data.getInt(HEADER + 8 * i + 4);
+    }
+
+    void readWalls(TileBits into) {
+        into.read(data, wallsAt);
+    }
+
+    void readPellets(TileBits into) {
+        into.read(data, pelletsAt);
+    }
+
+    void readPortalRows(TileBits into) {
+        into.read(data, portalsAt);
+    }
+
+    void readTable(short[] into) {
+        data.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(tableAt).asShortBuffer().get(into);
+    }
+
+    private static final class Classic {
+        static final Level LEVEL = compile(CLASSIC, GameState.DEFAULT_MAP);
+    }
+
+    // GameState.DEFAULT_MAP, compiled once and shared; a Level is read-only
+    static Level classic() {
+        return Classic.LEVEL;
+    }
+
+    // "classic" is built in; anything else is levels/<name>.txt, or a path to a text file
+    static Level named(String name) throws IOException {
+        if (name.equals(CLASSIC) && !Files.exists(DIRECTORY.resolve(CLASSIC + ".txt"))) {
+            return classic();
+        }
+        Path path = name.endsWith(".txt") ? Paths.get(name) : DIRECTORY.resolve(name + ".txt");
+        return load(name, path);
+    }
+
+    static Level load(String name, Path source) throws IOException {
+        long size = Files.size(source);
+        long modified = Files.getLastModifiedTime(source).toMillis();
+        String stem = source.getFileName().toString().replaceFirst("\\.txt$", "");
+        Path parent = source.toAbsolutePath().getParent();
+        Path cache = parent.resolve("cache").resolve(stem + ".lvl");
+
+        if (Files.exists(cache)) {
+            try {
+                Level cached = map(name, cache);
+                if (cached.sourceSize() == size && cached.sourceModified() == modified) {
+                    return cached;
+                }
+            } catch (IOException e) {
+                // stale format or a damaged file, compile it again
+            }
+        }
+
+        Level level;
+        try {
+            level = compile(name, Files.readAllLines(source, StandardCharsets.UTF_8), size, modified);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(source + ": " + e.getMessage());
+        }
+        try {
+            Files.createDirectories(cache.getParent());
+            Path temp = cache.resolveSibling(stem + ".lvl.tmp");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer data = level.data.duplicate();
+                data.position(0);
+                while (data.hasRemaining()) {
+                    out.write(data);
+                }
+            }
+            Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("can't cache " + source + ": " + e.getMessage());
+        }
+        return level;
+    }
+
+    // the mapping lives as long as the Level
+    private static Level map(String name, Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Level(name, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // for maps built in code
+    static Level compile(String name, String[] rows) {
+        List<String> lines = new ArrayList<>(rows.length);
+        for (String row : rows) {
+            lines.add(row);
+        }
+        return compile(name, lines, 0, 0);
+    }
+
+    // throws IllegalArgumentException naming the line for anything malformed
+    static Level compile(String name, List<String> lines, long sourceSize, long sourceModified) {
+        List<String> rows = new ArrayList<>();
+        List<Integer> lineNumbers = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.startsWith("#")) {
+                continue;
+            }
+            rows.add(line);
+            lineNumbers.add(i + 1);
+        }
+        while (!rows.isEmpty() && rows.get(rows.size() - 1).isEmpty()) {
+            rows.remove(rows.size() - 1); // trailing blank lines
+        }
+        if (rows.isEmpty() || rows.get(0).isEmpty()) {
+            throw new IllegalArgumentException("no maze");
+        }
+        int rowCount = rows.size();
+        int columnCount = rows.get(0).length();
+        if ((long) rowCount * columnCount > Integer.MAX_VALUE / 2) {
+            throw new IllegalArgumentException("maze too big: " + rowCount + "x" + columnCount);
+        }
+
+        // the same tables GameState used to build from the map itself
+        TileGrid grid = new TileGrid(rowCount, columnCount, 1);
+        TileBits portals = new TileBits(rowCount);
+        int pacmanTile = -1;
+        List<Integer> ghosts = new ArrayList<>(); // tile, type pairs in reading order
+        for (int r = 0; r < rowCount; r++) {
+            String row = rows.get(r);
+            int line = lineNumbers.get(r);
+            if (row.length() != columnCount) {
+                throw new IllegalArgumentException("line " + line + ": " + row.length()
+                        + " tiles, the first row has " + columnCount);
+            }
+            for (int c = 0; c < columnCount; c++) {
+                char tileMapChar = row.charAt(c);
+                int tile = grid.index(r, c);
+                if (tileMapChar == ' ') {
+                    grid.pelletTemplate.set(tile);
+                } else if (tileMapChar == 'X') {
+                    grid.setWall(r, c);
+                } else if (tileMapChar == 'b' || tileMapChar == 'o' || tileMapChar == 'p' || tileMapChar == 'r') {
+                    ghosts.add(tile);
+                    ghosts.add((int) tileMapChar);
+                } else if (tileMapChar == 'P') {
+                    if (pacmanTile >= 0) {
+                        throw new IllegalArgumentException("line " + line + ": a second P");
+                    }
+                    pacmanTile = tile;
+                } else if (tileMapChar != 'O') {
+                    throw new IllegalArgumentException("line " + line + ", column " + (c + 1)
+                            + ": unknown tile '" + tileMapChar + "'");
+                }
+            }
+            boolean leftOpen = !grid.isWall(r, 0);
+            boolean rightOpen = !grid.isWall(r, columnCount - 1);
+            if (leftOpen != rightOpen) {
+                throw new IllegalArgumentException("line " + line + ": open on one side only");
+            }
+            if (leftOpen) {
+                portals.set(r);
+            }
+        }
+        for (int c = 0; c < columnCount; c++) {
+            if (!grid.isWall(0, c) || !grid.isWall(rowCount - 1, c)) {
+                int line = lineNumbers.get(grid.isWall(0, c) ? rowCount - 1 : 0);
+                throw new IllegalArgumentException("line " + line + ": the top and bottom rows must be walls");
+            }
+        }
+        if (pacmanTile < 0) {
+            throw new IllegalArgumentException("no P");
+        }
+
+        GhostAI ai = new GhostAI(grid, null);
+        int tableNodes = ai.hasTable() ? ai.nodeCount : 0;
+        int ghostCount = ghosts.size() / 2;
+        int tileWords = words(rowCount * columnCount);
+        long length = HEADER + 8L * ghostCount + 16L * tileWords + 8L * words(rowCount)
+                + 2L * tableNodes * tableNodes;
+        ByteBuffer data = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+        data.put(MAGIC);
+        data.putInt(4, VERSION);
+        data.putLong(8, sourceSize);
+        data.putLong(16, sourceModified);
+        data.putInt(24, rowCount);
+        data.putInt(28, columnCount);
+        data.putInt(32, pacmanTile);
+        data.putInt(36, ghostCount);
+        data.putInt(40, tableNodes);
+        for (int i = 0; i < ghosts.size(); i++) {
+            data.putInt(HEADER + 4 * i, ghosts.get(i));
+        }
+        int at = HEADER + 8 * ghostCount;
+        at = grid.walls.write(data, at);
+        at = grid.pelletTemplate.write(data, at);
+        at = portals.write(data, at);
+        if (tableNodes > 0) {
+            ai.writeTable(data, at);
+        }
+        try {
+            return new Level(name, data);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // we just wrote it
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("usage: java Level <level.txt>...");
+            System.exit(2);
+        }
+        for (String arg : args) {
+            long start = System.nanoTime();
+            Level level = load(arg, Paths.get(arg));
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("%s: %dx%d, %d ghosts, %d portal rows, %s, %d bytes, %.1f ms%n",
+                    arg, level.columnCount, level.rowCount, level.ghostCount, level.portalRowCount(),
+                    level.tableNodes > 0 ? "path table for " + level.tableNodes + " tiles" : "flow field",
+                    level.data.limit(), elapsed / 1e6);
+        }
+    }
+
+    private int portalRowCount() {
+        TileBits portals = new TileBits(rowCount);
+        readPortalRows(portals);
+        return portals.cardinality();
+    }
+}
@@ -0,0 +1,158 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+// Generates level files of any size. The odd tiles inside the border are cells,
+// joined into a random spanning maze by a depth-first search, then every dead end
+// is knocked through to a neighbour so corridors loop like the arcade maze.
+// Tunnel rows sit at a third and two thirds of the height, Pac-Man starts bottom
+// left, four ghosts start round the centre and any more are scattered at random.
+// The same size, ghosts and seed always give the same maze.
+//
+//   java MazeGenerator <file> <columns> <rows> [ghosts] [seed]
+//   java MazeGenerator levels/huge.txt 1000 1000 200
+public class MazeGenerator {
+    private static final String GHOST_TYPES = "rpbo";
+
+    static String[] generate(int columns, int rows, int ghosts, long seed) {
+        if (columns < 7 || rows < 7) {
+            throw new IllegalArgumentException("mazes are at least 7x7");
+        }
+        Rng random = new Rng(seed);
+        char[][] tiles = new char[rows][columns];
+        for (char[] row : tiles) {
+            Arrays.fill(row, 'X');
+        }
+        // even sizes leave a second wall row or column at the bottom or right
+        int cellRows = (rows - 1) / 2;
+        int cellColumns = (columns - 1) / 2;
+        int cells = cellRows * cellColumns;
+        if (ghosts > cells - 1) {
+            throw new IllegalArgumentException("no room for " + ghosts + " ghosts");
+        }
+
+        boolean[] visited = new boolean[cells];
+        int[] stack = new int[cells];
+        int[] choices = new int[4];
+        int top = 0;
+        stack[top++] = 0;
+        visited[0] = true;
+        tiles[1][1] = ' ';
+        while (top > 0) {
+            int cell = stack[top - 1];
+            int n = 0;
+            for (int d = 0; d < 4; d++) {
+                int next = neighbour(cell, d, cellRows, cellColumns);
+                if (next >= 0 && !visited[next]) {
+                    choices[n++] = next;
+                }
+            }
+            if (n == 0) {
+                top--;
+                continue;
+            }
+            int next = choices[random.nextInt(n)];
+            visited[next] = true;
+            join(tiles, cell, next, cellColumns);
+            stack[top++] = next;
+        }
+
+        // braid: a dead end has one open side, open one more
+        for (int cell = 0; cell < cells; cell++) {
+            int open = 0;
+            int closed = 0;
+            for (int d = 0; d < 4; d++) {
+                int next = neighbour(cell, d, cellRows, cellColumns);
+                if (next < 0) {
+                    continue;
+                }
+                if (between(tiles, cell, next, cellColumns) == ' ') {
+                    open++;
+                } else {
+                    choices[closed++] = next;
+                }
+            }
+            if (open == 1 && closed > 0) {
+                join(tiles, cell, choices[random.nextInt(closed)], cellColumns);
+            }
+        }
+
+        int lastCellColumn = 2 * cellColumns - 1;
+        for (int tunnel = 1; tunnel <= 2; tunnel++) {
+            int r = (cellRows * tunnel / 3) * 2 + 1;
+            tiles[r][0] = 'O';
+            for (int c = lastCellColumn + 1; c < columns; c++) {
+                tiles[r][c] = 'O';
+            }
+        }
+
+        tiles[2 * cellRows - 1][1] = 'P';
+
+        // four round the centre, in rings outwards from it
+        int placed = 0;
+        int middleRow = cellRows / 2;
+        int middleColumn = cellColumns / 2;
+        for (int d = 0; placed < Math.min(ghosts, 4); d++) {
+            for (int cr = middleRow - d; cr <= middleRow + d && placed < Math.min(ghosts, 4); cr++) {
+                for (int cc = middleColumn - d; cc <= middleColumn + d && placed < Math.min(ghosts, 4); cc++) {
+                    boolean ring = Math.max(Math.abs(cr - middleRow), Math.abs(cc - middleColumn)) == d;
+                    if (ring && cr >= 0 && cc >= 0 && cr < cellRows && cc < cellColumns
+                            && tiles[2 * cr + 1][2 * cc + 1] == ' ') {
+                        tiles[2 * cr + 1][2 * cc + 1] = GHOST_TYPES.charAt(placed++);
+                    }
+                }
+            }
+        }
+        while (placed < ghosts) {
+            int cell = random.nextInt(cells);
+            int r = 2 * (cell / cellColumns) + 1;
+            int c = 2 * (cell % cellColumns) + 1;
+            if (tiles[r][c] == ' ') {
+                tiles[r][c] = GHOST_TYPES.charAt(placed++ % 4);
+            }
+        }
+
+        String[] map = new String[rows];
+        for (int r = 0; r < rows; r++) {
+            map[r] = new String(tiles[r]);
+        }
+        return map;
+    }
+
+    // neighbouring cell in direction d (up, left, down, right), -1 off the grid
+    private static int neighbour(int cell, int d, int cellRows, int cellColumns) {
+        int r = cell / cellColumns;
+        int c = cell % cellColumns;
+        switch (d) {
+            case 0: return r > 0 ? cell - cellColumns : -1;
+            case 1: return c > 0 ? cell - 1 : -1;
+            case 2: return r < cellRows - 1 ? cell + cellColumns : -1;
+            default: return c < cellColumns - 1 ? cell + 1 : -1;
+        }
+    }
+
+    private static char between(char[][] tiles, int a, int b, int cellColumns) {
+        return tiles[a / cellColumns + b / cellColumns + 1][a % cellColumns + b % cellColumns + 1];
+    }
+
+    private static void join(char[][] tiles, int a, int b, int cellColumns) {
+        tiles[a / cellColumns + b / cellColumns + 1][a % cellColumns + b % cellColumns + 1] = ' ';
+        tiles[2 * (b / cellColumns) + 1][2 * (b % cellColumns) + 1] = ' ';
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("usage: java MazeGenerator <file> <columns> <rows> [ghosts] [seed]");
+            System.exit(2);
+        }
+        int columns = Integer.parseInt(args[1]);
+        int rows = Integer.parseInt(args[2]);
+        int ghosts = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+        String[] map = generate(columns, rows, ghosts, seed);
+        Files.write(Paths.get(args[0]), Arrays.asList(map), StandardCharsets.UTF_8);
+        System.out.println(args[0] + ": " + columns + "x" + rows + ", " + ghosts + " ghosts, seed " + seed);
+    }
+}
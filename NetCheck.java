@@ -0,0 +1,103 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+// Plays many network rooms at once over loopback. Starts a GameServer on
+// 127.0.0.1, seats a pac man and a ghost in each room as NetClients steered by
+// random joysticks, and runs them all in real time. Every client checks the
+// state it decoded against the hashes the server sends; any mismatch, or a
+// client losing its connection, fails the run with exit code 1.
+//
+// Prints the server's tick time for all rooms together, the bytes a snapshot
+// costs against a full one, and how often prediction had to be corrected.
+//
+//   java -Djava.awt.headless=true [-Dpacman.level=name] NetCheck [rooms] [seconds]
+public class NetCheck {
+
+    public static void main(String[] args) throws IOException {
+        int rooms = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        Level level = Level.named(System.getProperty("pacman.level", Level.CLASSIC));
+        int tickRate = Integer.getInteger("pacman.tickRate", 20);
+
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        GameServer server = new GameServer(level, new InetSocketAddress(loopback, 0), tickRate);
+        server.start();
+        InetSocketAddress address = new InetSocketAddress(loopback, server.port());
+
+        NetClient[] clients = new NetClient[2 * rooms];
+        for (int r = 0; r < rooms; r++) {
+            clients[2 * r] = NetClient.connect(address, "room-" + r, NetProtocol.SEAT_PACMAN);
+            clients[2 * r + 1] = NetClient.connect(address, "room-" + r, NetProtocol.SEAT_GHOST);
+        }
+        server.tickTime.reset(); // joining isn't the steady state
+
+        // random joystick: a new direction every 8 ticks, restart after game over
+        Rng input = new Rng(7);
+        char[] directions = new char[clients.length];
+        int lost = 0;
+        int ticks = seconds * tickRate;
+        long tickNanos = 1_000_000_000L / tickRate;
+        long next = System.nanoTime();
+        for (int t = 0; t < ticks; t++) {
+            for (int i = 0; i < clients.length; i++) {
+                NetClient client = clients[i];
+                if (client.closed) {
+                    continue;
+                }
+                if (t % 8 == i % 8) {
+                    directions[i] = "UDLR".charAt(input.nextInt(4));
+                }
+                try {
+                    if (client.view.gameOver) {
+                        client.restart();
+                    }
+                    client.tick(directions[i]);
+                } catch (IOException e) {
+                    System.out.println("client " + i + ": " + e.getMessage());
+                    client.close();
+                    lost++;
+                }
+            }
+            next += tickNanos;
+            LockSupport.parkNanos(next - System.nanoTime());
+        }
+        server.stop();
+
+        long snapshots = 0;
+        long fullSnapshots = 0;
+        long checks = 0;
+        long desyncs = 0;
+        long corrections = 0;
+        long bytes = 0;
+        for (NetClient client : clients) {
+            snapshots += client.snapshots;
+            fullSnapshots += client.fullSnapshots;
+            checks += client.checks;
+            desyncs += client.desyncs;
+            corrections += client.corrections;
+            bytes += client.bytesReceived;
+            client.close();
+        }
+        GameState fresh = new GameState(1, new GameConfig(), level);
+        NetSnapshot whole = new NetSnapshot(fresh);
+        whole.capture(fresh);
+        ByteBuffer buffer = ByteBuffer.allocate(whole.maxBytes()).order(GameServer.ORDER);
+        whole.write(new NetSnapshot(fresh), buffer, true, false);
+
+        System.out.printf("%d rooms, %d clients, %d ticks at %d/s on %s%n",
+                rooms, clients.length, ticks, tickRate, level.name);
+        System.out.println("server tick, all rooms: " + server.tickTime.summary());
+        System.out.printf("%d snapshots (%d full), %.1f bytes each on the wire, a full one is %d%n",
+                snapshots, fullSnapshots, bytes / (double) Math.max(1, snapshots), buffer.position());
+        System.out.printf("%d checks, %d desyncs, %d corrections (%.2f%% of snapshots), %d clients lost%n",
+                checks, desyncs, corrections, 100.0 * corrections / Math.max(1, snapshots), lost);
+        if (desyncs > 0 || lost > 0 || checks == 0) {
+            System.out.println("FAIL");
+            System.exit(1);
+        }
+        System.out.println("OK");
+    }
+}
@@ -0,0 +1,259 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// A player's end of a GameServer room. The server is the authority: every
+// snapshot it sends is decoded into server and shown in view, a GameState on
+// the same level that never runs the rules itself, so the renderer and
+// GameLoop take it like a local game.
+//
+// The player's own pac man or ghost is predicted: each tick's input is sent,
+// remembered and applied straight away to view with the same movement code the
+// server uses, so it turns when the key goes down rather than a round trip
+// later. When a snapshot says which input the server got to, the player is put
+// back where the server has them and the inputs after that are applied again;
+// corrections counts the times that moved them. Everything else is shown as
+// the server last sent it.
+//
+// Not thread safe: connect, then call tick() once per tick from one thread.
+public class NetClient {
+    static final int PENDING = 64; // unacknowledged inputs replayed at most; power of two
+    static final int MAX_SERVER_FRAME = 64 << 20;
+    static final long CONNECT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final Sound[] SOUNDS = Sound.values();
+
+    final SocketChannel channel;
+    final String levelName;
+    final int tickRate;
+    final int seat; // 0 pac man, i+1 ghost i
+    final GameState view;
+    final NetSnapshot server;
+
+    private ByteBuffer in;
+    private final ByteBuffer out = ByteBuffer.allocate(4096).order(GameServer.ORDER); // in write mode
+    private int sequence = 0;
+    private int acknowledged = 0;
+    private boolean updated = false;
+    private boolean resyncing = false;
+    private final char[] pendingDirections = new char[PENDING];
+    private final int[] predictedX = new int[PENDING];
+    private final int[] predictedY = new int[PENDING];
+
+    long snapshots = 0;
+    long fullSnapshots = 0;
+    long checks = 0;
+    long desyncs = 0;
+    long corrections = 0;
+    long bytesReceived = 0;
+    boolean closed = false;
+
+    private NetClient(SocketChannel channel, ByteBuffer in, ByteBuffer welcome) throws IOException {
+        this.channel = channel;
+        this.in = in;
+        levelName = NetProtocol.getString(welcome);
+        int rows = NetProtocol.getVarInt(welcome);
+        int columns = NetProtocol.getVarInt(welcome);
+        int ghosts = NetProtocol.getVarInt(welcome);
+        tickRate = NetProtocol.getVarInt(welcome);
+        seat = NetProtocol.getVarInt(welcome);
+        Level level = Level.named(levelName);
+        if (level.rowCount != rows || level.columnCount != columns || level.ghostCount != ghosts) {
+            throw new IOException("the server's level " + levelName + " isn't the same as ours");
+        }
+        view = new GameState(0, new GameConfig(), level);
+        server = new NetSnapshot(view);
+        if (seat > 0) {
+            view.steerGhost(seat - 1, ' ');
+        }
+    }
+
+    // joins room in the seat wanted (NetProtocol.SEAT_PACMAN or SEAT_GHOST) or
+    // whatever is free; throws with the server's reason if it refuses
+    static NetClient connect(InetSocketAddress address, String room, int wanted) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            ByteBuffer join = ByteBuffer.allocate(NetProtocol.MAX_CLIENT_FRAME).order(GameServer.ORDER);
+            int start = NetProtocol.beginFrame(join, NetProtocol.JOIN);
+            NetProtocol.putVarInt(join, NetProtocol.VERSION);
+            NetProtocol.putVarInt(join, wanted);
+            NetProtocol.putString(join, room);
+            NetProtocol.endFrame(join, start);
+            join.flip();
+            while (join.hasRemaining()) {
+                channel.write(join);
+            }
+
+            channel.configureBlocking(false);
+            ByteBuffer in = ByteBuffer.allocate(64 * 1024).order(GameServer.ORDER);
+            long deadline = System.nanoTime() + CONNECT_TIMEOUT_NANOS;
+            while (true) {
+                if (channel.read(in) < 0) {
+                    throw new IOException("the server hung up");
+                }
+                in.flip();
+                ByteBuffer frame = NetProtocol.nextFrame(in, MAX_SERVER_FRAME);
+                if (frame != null) {
+                    int type = frame.get();
+                    if (type == NetProtocol.REFUSED) {
+                        throw new IOException(NetProtocol.getString(frame));
+                    }
+                    if (type != NetProtocol.WELCOME) {
+                        throw new IOException("expected a welcome, got message " + type);
+                    }
+                    NetClient client = new NetClient(channel, in, frame);
+                    in.compact(); // snapshots that came straight after stay for the first tick
+                    return client;
+                }
+                in.compact();
+                if (System.nanoTime() - deadline > 0) {
+                    throw new IOException("no answer from the server");
+                }
+                LockSupport.parkNanos(1_000_000);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // one tick: sends direction (U D L R or ' '), takes in whatever the server
+    // has sent and moves the player on
+    void tick(char direction) throws IOException {
+        if (closed) {
+            return;
+        }
+        sequence++;
+        pendingDirections[sequence & (PENDING - 1)] = direction;
+        send(NetProtocol.INPUT, sequence, direction);
+        receive();
+        if (updated) {
+            updated = false;
+            reconcile();
+        } else {
+            predict(sequence);
+        }
+    }
+
+    // starts a new game if this one is over
+    void restart() throws IOException {
+        send(NetProtocol.RESTART, 0, ' ');
+    }
+
+    void close() {
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // back to the server's state, then forward again through the inputs it hasn't had
+    private void reconcile() {
+        server.applyTo(view);
+        GameState.Block player = seat == 0 ? view.pacman : view.ghosts.get(seat - 1);
+        int slot = acknowledged & (PENDING - 1);
+        if (acknowledged > 0 && sequence - acknowledged < PENDING
+                && (predictedX[slot] != player.x || predictedY[slot] != player.y)) {
+            corrections++;
+        }
+        for (int s = Math.max(acknowledged + 1, sequence - PENDING + 1); s <= sequence; s++) {
+            predict(s);
+        }
+    }
+
+    // applies input s to the player in view, unless the rules are holding still
+    private void predict(int s) {
+        int slot = s & (PENDING - 1);
+        GameState.Block player = seat == 0 ? view.pacman : view.ghosts.get(seat - 1);
+        if (!view.gameOver && !view.isDying) {
+            if (seat == 0) {
+                view.movePacman(pendingDirections[slot]);
+            } else {
+                view.moveSteeredGhost(player, pendingDirections[slot]);
+            }
+        }
+        predictedX[slot] = player.x;
+        predictedY[slot] = player.y;
+    }
+
+    private void send(int type, int sequence, char direction) throws IOException {
+        if (out.remaining() < 16) {
+            throw new IOException("the server isn't reading");
+        }
+        int start = NetProtocol.beginFrame(out, type);
+        if (type == NetProtocol.INPUT) {
+            NetProtocol.putVarInt(out, sequence);
+            out.put((byte) direction);
+        }
+        NetProtocol.endFrame(out, start);
+        out.flip();
+        channel.write(out);
+        out.compact();
+    }
+
+    private void receive() throws IOException {
+        while (true) {
+            if (!in.hasRemaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(2 * in.capacity()).order(GameServer.ORDER);
+                in.flip();
+                bigger.put(in);
+                in = bigger;
+            }
+            int n = channel.read(in);
+            if (n < 0) {
+                throw new IOException("the server hung up");
+            }
+            bytesReceived += n;
+            in.flip();
+            ByteBuffer frame;
+            while ((frame = NetProtocol.nextFrame(in, MAX_SERVER_FRAME)) != null) {
+                message(frame);
+            }
+            in.compact();
+            if (n == 0) {
+                return;
+            }
+        }
+    }
+
+    private void message(ByteBuffer frame) throws IOException {
+        int type = frame.get();
+        if (type == NetProtocol.REFUSED) {
+            throw new IOException(NetProtocol.getString(frame));
+        }
+        if (type != NetProtocol.SNAPSHOT) {
+            throw new IOException("unexpected message " + type);
+        }
+        acknowledged = NetProtocol.getVarInt(frame);
+        boolean ok = server.read(frame);
+        snapshots++;
+        updated = true;
+        if (server.full) {
+            fullSnapshots++;
+            resyncing = false;
+        }
+        if (server.checked) {
+            checks++;
+        }
+        if (!ok) {
+            desyncs++;
+            if (!resyncing) {
+                resyncing = true;
+                send(NetProtocol.RESYNC, 0, ' ');
+            }
+        }
+        GameState.Listener listener = view.listener;
+        if (listener != null && server.sounds != 0) {
+            for (int i = 0; i < SOUNDS.length; i++) {
+                if ((server.sounds & 1 << i) != 0) {
+                    listener.sound(SOUNDS[i]);
+                }
+            }
+        }
+    }
+}
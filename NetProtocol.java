@@ -0,0 +1,115 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Wire format between GameServer and NetClient over TCP. Every message is a
+// frame: its length as a 4 byte little-endian int, a type byte, then the body.
+// Numbers are varints (zigzag where they can be negative), strings a varint
+// length and UTF-8.
+//
+//   client to server
+//     JOIN      version, seat wanted (SEAT_PACMAN or SEAT_GHOST), room name
+//     INPUT     sequence number, direction (U D L R or ' ') for one client tick
+//     RESTART   start a new game if this one is over
+//     RESYNC    the last check failed, send the whole state again
+//   server to client
+//     WELCOME   level name, rows, columns, ghosts, tick rate, seat (0 pac man, i+1 ghost i)
+//     SNAPSHOT  last input sequence applied, then a NetSnapshot delta
+//     REFUSED   reason; the server closes the connection
+public class NetProtocol {
+    static final int VERSION = 2; // 2: timers hold during the death freeze
+
+    static final int JOIN = 1;
+    static final int INPUT = 2;
+    static final int RESTART = 3;
+    static final int RESYNC = 4;
+
+    static final int WELCOME = 1;
+    static final int SNAPSHOT = 2;
+    static final int REFUSED = 3;
+
+    static final int SEAT_PACMAN = 0;
+    static final int SEAT_GHOST = 1;
+
+    static final int MAX_CLIENT_FRAME = 1024; // clients never send more; the server drops them if they do
+
+    // reserves the length, to be filled in by endFrame
+    static int beginFrame(ByteBuffer out, int type) {
+        int start = out.position();
+        out.putInt(0);
+        out.put((byte) type);
+        return start;
+    }
+
+    static void endFrame(ByteBuffer out, int start) {
+        out.putInt(start, out.position() - start - 4);
+    }
+
+    static void putVarInt(ByteBuffer out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static void putZigZag(ByteBuffer out, int value) {
+        putVarInt(out, (value << 1) ^ (value >> 31));
+    }
+
+    static void putString(ByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarInt(out, bytes.length);
+        out.put(bytes);
+    }
+
+    static int getVarInt(ByteBuffer in) throws IOException {
+        int value = 0;
+        try {
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = in.get();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("message ends inside a number");
+        }
+        throw new IOException("malformed number");
+    }
+
+    static int getZigZag(ByteBuffer in) throws IOException {
+        int value = getVarInt(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static String getString(ByteBuffer in) throws IOException {
+        int length = getVarInt(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IOException("message ends inside a string");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // the next whole frame in in (flipped) as a slice starting at its type byte,
+    // or null if it hasn't all arrived; in is left after the frame
+    static ByteBuffer nextFrame(ByteBuffer in, int maxLength) throws IOException {
+        if (in.remaining() < 4) {
+            return null;
+        }
+        int length = in.getInt(in.position());
+        if (length < 1 || length > maxLength) {
+            throw new IOException("bad frame length " + length);
+        }
+        if (in.remaining() < 4 + length) {
+            return null;
+        }
+        ByteBuffer frame = in.slice(in.position() + 4, length).order(in.order());
+        in.position(in.position() + 4 + length);
+        return frame;
+    }
+}
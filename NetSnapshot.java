@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+// The part of a GameState a network client needs to show the game, in flat
+// arrays, and the delta encoding GameServer sends it in. Entity 0 is pac man
+// (look is his facing), entity i+1 is ghost i.
+//
+// A delta is written against the snapshot the client already has and decoded
+// onto it in place. Positions are sent as the difference from where the
+// entity would be had it kept moving the way it was, so a ghost running down a
+// corridor costs nothing until it turns or stops; pellets and cherries are the
+// XOR of the words that changed. A full snapshot is a delta against a blank one.
+//
+//   header    FULL and CHECK bits, tick (zigzag, from the base), sounds this tick
+//   globals   mask, then score (zigzag), lives, flags for the ones that changed
+//   entities  for each changed one: index gap, field mask, x y (zigzag,
+//             against the extrapolation), motion, look; a 0 gap ends them
+//   pellets   for each changed word: index gap, the XOR as 8 bytes; 0 ends them
+//   cherries  the same
+//   check     with CHECK, the 8 byte hash() of the whole snapshot after decoding
+public class NetSnapshot {
+    static final int FULL = 1;
+    static final int CHECK = 2;
+
+    static final int GAME_OVER = 1;
+    static final int PACMAN_VISIBLE = 2;
+    static final int CHERRY_ACTIVE = 4;
+    static final int CHERRY_FLASHING = 8;
+    static final int SHOW_CHERRY = 16;
+    static final int GHOSTS_SCARED = 32;
+    static final int GHOSTS_FLASHING = 64;
+    static final int SHOW_FLASHING_GHOSTS = 128;
+    static final int DYING = 256;
+
+    static final int STOPPED = 0x100; // in motion, above the direction char
+
+    final int entities;
+    final int speed; // pixels per tick, for the extrapolation
+
+    long tick;
+    int score;
+    int lives;
+    int flags;
+    int sounds; // bit per Sound played this tick; not part of the state
+    boolean full;    // what the last read() was
+    boolean checked;
+
+    final int[] x;
+    final int[] y;
+    final int[] motion; // direction, | STOPPED when not moving
+    final int[] look;
+    final TileBits pellets;
+    final TileBits cherries;
+
+    // what capture() last copied the boards from
+    private TileBits pelletsSource;
+    private int pelletsVersion;
+    private TileBits cherriesSource;
+    private int cherriesVersion;
+    // what applyTo() last copied the boards out of
+    private int appliedPelletsVersion = -1;
+    private int appliedCherriesVersion = -1;
+
+    NetSnapshot(GameState state) {
+        this(state.ghosts.size(), state.rowCount * state.columnCount, state.tileSize / 4);
+    }
+
+    NetSnapshot(int ghostCount, int tiles, int speed) {
+        this.entities = ghostCount + 1;
+        this.speed = speed;
+        x = new int[entities];
+        y = new int[entities];
+        motion = new int[entities];
+        look = new int[entities];
+        pellets = new TileBits(tiles);
+        cherries = new TileBits(tiles);
+    }
+
+    // blank: what a full snapshot is written against
+    void clear() {
+        tick = 0;
+        score = 0;
+        lives = 0;
+        flags = 0;
+        sounds = 0;
+        for (int i = 0; i < entities; i++) {
+            x[i] = 0;
+            y[i] = 0;
+            motion[i] = 0;
+            look[i] = 0;
+        }
+        pellets.clear();
+        cherries.clear();
+        pelletsSource = null;
+        cherriesSource = null;
+    }
+
+    void capture(GameState state) {
+        tick = state.tick;
+        score = state.score;
+        lives = state.lives;
+        flags = (state.gameOver ? GAME_OVER : 0) | (state.isPacmanVisible ? PACMAN_VISIBLE : 0)
+                | (state.isCherryActive ? CHERRY_ACTIVE : 0) | (state.isCherryFlashing ? CHERRY_FLASHING : 0)
+                | (state.showCherry ? SHOW_CHERRY : 0) | (state.areGhostsScared ? GHOSTS_SCARED : 0)
+                | (state.areGhostsFlashing ? GHOSTS_FLASHING : 0)
+                | (state.showFlashingGhosts ? SHOW_FLASHING_GHOSTS : 0) | (state.isDying ? DYING : 0);
+        captureBlock(0, state.pacman, state.pacmanFacing);
+        for (int i = 1; i < entities; i++) {
+            GameState.Block ghost = state.ghosts.get(i - 1);
+            captureBlock(i, ghost, ghost.look);
+        }
+        if (pelletsSource != state.grid.pellets || pelletsVersion != state.grid.pellets.version) {
+            pellets.copyFrom(state.grid.pellets);
+            pelletsSource = state.grid.pellets;
+            pelletsVersion = state.grid.pellets.version;
+        }
+        if (cherriesSource != state.grid.cherries || cherriesVersion != state.grid.cherries.version) {
+            cherries.copyFrom(state.grid.cherries);
+            cherriesSource = state.grid.cherries;
+            cherriesVersion = state.grid.cherries.version;
+        }
+    }
+
+    private void captureBlock(int i, GameState.Block block, int look) {
+        x[i] = block.x;
+        y[i] = block.y;
+        motion[i] = block.direction | (block.velocityX == 0 && block.velocityY == 0 ? STOPPED : 0);
+        this.look[i] = look;
+    }
+
+    // writes this snapshot as a delta from base (a blank one with FULL)
+    void write(NetSnapshot base, ByteBuffer out, boolean full, boolean check) {
+        out.put((byte) ((full ? FULL : 0) | (check ? CHECK : 0)));
+        NetProtocol.putZigZag(out, (int) (tick - base.tick));
+        NetProtocol.putVarInt(out, sounds);
+
+        int changed = (score != base.score ? 1 : 0) | (lives != base.lives ? 2 : 0) | (flags != base.flags ? 4 : 0);
+        out.put((byte) changed);
+        if ((changed & 1) != 0) {
+            NetProtocol.putZigZag(out, score - base.score);
+        }
+        if ((changed & 2) != 0) {
+            NetProtocol.putVarInt(out, lives);
+        }
+        if ((changed & 4) != 0) {
+            NetProtocol.putVarInt(out, flags);
+        }
+
+        int last = -1;
+        for (int i = 0; i < entities; i++) {
+            int dx = x[i] - base.x[i] - velocityX(base.motion[i]);
+            int dy = y[i] - base.y[i] - velocityY(base.motion[i]);
+            int mask = (dx != 0 ? 1 : 0) | (dy != 0 ? 2 : 0) | (motion[i] != base.motion[i] ? 4 : 0)
+                    | (look[i] != base.look[i] ? 8 : 0);
+            if (mask == 0) {
+                continue;
+            }
+            NetProtocol.putVarInt(out, i - last);
+            last = i;
+            out.put((byte) mask);
+            if ((mask & 1) != 0) {
+                NetProtocol.putZigZag(out, dx);
+            }
+            if ((mask & 2) != 0) {
+                NetProtocol.putZigZag(out, dy);
+            }
+            if ((mask & 4) != 0) {
+                NetProtocol.putVarInt(out, motion[i]);
+            }
+            if ((mask & 8) != 0) {
+                NetProtocol.putVarInt(out, look[i]);
+            }
+        }
+        out.put((byte) 0);
+
+        writeBits(pellets, base.pellets, out);
+        writeBits(cherries, base.cherries, out);
+        if (check) {
+            out.putLong(hash());
+        }
+    }
+
+    private static void writeBits(TileBits bits, TileBits base, ByteBuffer out) {
+        int last = -1;
+        for (int w = 0; w < bits.words.length; w++) {
+            long diff = bits.words[w] ^ base.words[w];
+            if (diff != 0) {
+                NetProtocol.putVarInt(out, w - last);
+                last = w;
+                out.putLong(diff);
+            }
+        }
+        out.put((byte) 0);
+    }
+
+    // bytes write() can take at most
+    int maxBytes() {
+        return 1 + 5 + 5 + 1 + 15 + entities * 26 + 1 + 2 * (pellets.words.length * 13 + 1) + 8;
+    }
+
+    // decodes a delta onto this snapshot; false if it carried a check that failed
+    boolean read(ByteBuffer in) throws IOException {
+        try {
+            int header = in.get();
+            full = (header & FULL) != 0;
+            checked = (header & CHECK) != 0;
+            if (full) {
+                clear();
+            }
+            tick += NetProtocol.getZigZag(in);
+            sounds = NetProtocol.getVarInt(in);
+
+            int changed = in.get();
+            if ((changed & 1) != 0) {
+                score += NetProtocol.getZigZag(in);
+            }
+            if ((changed & 2) != 0) {
+                lives = NetProtocol.getVarInt(in);
+            }
+            if ((changed & 4) != 0) {
+                flags = NetProtocol.getVarInt(in);
+            }
+
+            // everything keeps moving, then the changes are applied on top
+            for (int i = 0; i < entities; i++) {
+                x[i] += velocityX(motion[i]);
+                y[i] += velocityY(motion[i]);
+            }
+            int i = -1;
+            for (int gap = NetProtocol.getVarInt(in); gap != 0; gap = NetProtocol.getVarInt(in)) {
+                i += gap;
+                if (gap < 0 || i >= entities) {
+                    throw new IOException("entity " + i + " out of range");
+                }
+                int mask = in.get();
+                int dx = (mask & 1) != 0 ? NetProtocol.getZigZag(in) : 0;
+                int dy = (mask & 2) != 0 ? NetProtocol.getZigZag(in) : 0;
+                x[i] += dx;
+                y[i] += dy;
+                if ((mask & 4) != 0) {
+                    motion[i] = NetProtocol.getVarInt(in);
+                }
+                if ((mask & 8) != 0) {
+                    look[i] = NetProtocol.getVarInt(in);
+                }
+            }
+
+            readBits(pellets, in);
+            readBits(cherries, in);
+            if (checked) {
+                return in.getLong() == hash();
+            }
+            return true;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("snapshot is truncated");
+        }
+    }
+
+    private static void readBits(TileBits bits, ByteBuffer in) throws IOException {
+        int w = -1;
+        for (int gap = NetProtocol.getVarInt(in); gap != 0; gap = NetProtocol.getVarInt(in)) {
+            w += gap;
+            if (gap < 0 || w >= bits.words.length) {
+                throw new IOException("board word " + w + " out of range");
+            }
+            bits.xorWord(w, in.getLong());
+        }
+    }
+
+    private int velocityX(int motion) {
+        if ((motion & STOPPED) != 0) {
+            return 0;
+        }
+        char direction = (char) (motion & 0xff);
+        return direction == 'L' ? -speed : direction == 'R' ? speed : 0;
+    }
+
+    private int velocityY(int motion) {
+        if ((motion & STOPPED) != 0) {
+            return 0;
+        }
+        char direction = (char) (motion & 0xff);
+        return direction == 'U' ? -speed : direction == 'D' ? speed : 0;
+    }
+
+    // shows this snapshot in view, a GameState on the same level that never
+    // steps; the boards are only copied when they changed
+    void applyTo(GameState view) {
+        view.tick = tick;
+        view.score = score;
+        view.lives = lives;
+        view.gameOver = (flags & GAME_OVER) != 0;
+        view.isPacmanVisible = (flags & PACMAN_VISIBLE) != 0;
+        view.isCherryActive = (flags & CHERRY_ACTIVE) != 0;
+        view.isCherryFlashing = (flags & CHERRY_FLASHING) != 0;
+        view.showCherry = (flags & SHOW_CHERRY) != 0;
+        view.areGhostsScared = (flags & GHOSTS_SCARED) != 0;
+        view.areGhostsFlashing = (flags & GHOSTS_FLASHING) != 0;
+        view.showFlashingGhosts = (flags & SHOW_FLASHING_GHOSTS) != 0;
+        view.isDying = (flags & DYING) != 0;
+        applyBlock(0, view.pacman);
+        view.pacmanFacing = (char) look[0];
+        for (int i = 1; i < entities; i++) {
+            GameState.Block ghost = view.ghosts.get(i - 1);
+            applyBlock(i, ghost);
+            ghost.look = look[i];
+        }
+        if (appliedPelletsVersion != pellets.version) {
+            view.grid.pellets.copyFrom(pellets);
+            appliedPelletsVersion = pellets.version;
+        }
+        if (appliedCherriesVersion != cherries.version) {
+            view.grid.cherries.copyFrom(cherries);
+            appliedCherriesVersion = cherries.version;
+        }
+    }
+
+    void applyBlock(int i, GameState.Block block) {
+        block.x = x[i];
+        block.y = y[i];
+        block.direction = (char) (motion[i] & 0xff);
+        if ((motion[i] & STOPPED) != 0) {
+            block.velocityX = 0;
+            block.velocityY = 0;
+        } else {
+            block.updateVelocity();
+        }
+    }
+
+    // of everything but sounds, to check a client decoded the same state the server sent
+    long hash() {
+        long h = 0xcbf29ce484222325L;
+        h = (h ^ tick) * 0x100000001b3L;
+        h = (h ^ score) * 0x100000001b3L;
+        h = (h ^ lives) * 0x100000001b3L;
+        h = (h ^ flags) * 0x100000001b3L;
+        for (int i = 0; i < entities; i++) {
+            h = (h ^ ((long) x[i] << 32 | (y[i] & 0xffffffffL))) * 0x100000001b3L;
+            h = (h ^ ((long) motion[i] << 32 | look[i])) * 0x100000001b3L;
+        }
+        for (long w : pellets.words) {
+            h = (h ^ w) * 0x100000001b3L;
+        }
+        for (long w : cherries.words) {
+            h = (h ^ ~w) * 0x100000001b3L;
+        }
+        return h;
+    }
+}
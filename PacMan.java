@@ -1,694 +1,325 @@
 import java.awt.*;
 import java.awt.event.*;
-import java.util.HashSet;
-import java.util.Random;
-import javax.swing.*;
-import javax.sound.sampled.*;
-import java.io.File;
+import java.awt.image.BufferStrategy;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.concurrent.locks.LockSupport;
+
+// Front end: a GameLoop steps the rules on its own thread while this canvas
+// renders the latest snapshot with active rendering, and key presses become input.
+//
+// Options (system properties):
+//   pacman.tickRate  simulation ticks per second, default 20 (the game's speed)
+//   pacman.render    vsync (pace to the display refresh rate, default) or uncapped
+//   pacman.maxFps    frame limiter, 0 = none
+//   pacman.turnWindow  ticks a buffered turn stays queued, 0 = until replaced
+//   pacman.inputStats  print input latency percentiles on exit
+//   pacman.record    record the session under replays/, default true
+//   pacman.hud       show the F3 performance overlay from the start
+//   pacman.level     levels/<name>.txt or a path to a level file, default classic
+//   pacman.replay    play back a replay file instead: right/left change speed,
+//                    space pauses, page up/down seek 30s, home rewinds
+//   pacman.practice  practice mode: hold backspace to rewind up to 30s (not recorded)
+//   pacman.connect   host:port of a GameServer to play on instead
+//   pacman.room      the room to join there, default lobby
+//   pacman.seat      pacman (default) or ghost; whichever is free if taken
+//   pacman.telemetry  directory to log gameplay events to (see Telemetry), default none
+//   pacman.startupStats  print the time from JVM start to the first game frame
+public class PacMan extends Canvas implements KeyListener, GameState.Listener {
 
-public class PacMan extends JPanel implements ActionListener, KeyListener {
-
-    private void playSound(String fileName, boolean loop) {
-        try {
-            File soundFile = new File(fileName);
-            AudioInputStream audioIn = AudioSystem.getAudioInputStream(soundFile);
-            Clip clip = AudioSystem.getClip();
-            clip.open(audioIn);
-            if (loop) {
-                clip.loop(Clip.LOOP_CONTINUOUSLY);
-            } else {
-                clip.start();
-            }
-        } catch (UnsupportedAudioFileException | IOException | LineUnavailableException e) {
-            e.printStackTrace();
+    @Override
+    public void sound(Sound sound) {
+        if (PerfEvents.SOUND.isEnabled()) {
+            PerfEvents.SoundTrigger event = new PerfEvents.SoundTrigger();
+            event.sound = sound.name();
+            event.commit();
         }
+        sounds.play(sound);
     }
 
+    GameState state;
+    SoundEngine sounds;
+    GameLoop gameLoop;
+    Renderer renderer;
+    Telemetry telemetry;
+    final PerfHud hud = new PerfHud();
+
+    private final int tickRate = Integer.getInteger("pacman.tickRate", 20);
+    private final boolean vsync = !"uncapped".equals(System.getProperty("pacman.render", "vsync"));
+    private final int maxFps = Integer.getInteger("pacman.maxFps", 0);
+    private final int turnWindow = Integer.getInteger("pacman.turnWindow", 0);
+    private final boolean practice = Boolean.getBoolean("pacman.practice");
+    static final int REWIND_SECONDS = 30;
+    private volatile boolean rendering = true;
+    private final boolean startupStats = Boolean.getBoolean("pacman.startupStats");
+
+    // EDT only: when each arrow key went down, indexed like "UDLR"
+    private final long[] pressedAt = new long[4];
+    final LatencyHistogram keyHold = new LatencyHistogram();
 
-    class Block {
-        int x;
-        int y;
-        int width;
-        int height;
-        Image image;
-
-        int startX;
-        int startY;
-        char direction = 'U'; // U D L R
-        int velocityX = 0;
-        int velocityY = 0;
-
-        Image originalImage;
-
-        Block(Image image, int x, int y, int width, int height) {
-            this.image = image;
-            this.originalImage = image;
-            this.x = x;
-            this.y = y;
-            this.width = width;
-            this.height = height;
-            this.startX = x;
-            this.startY = y;
-        }
-
-        void updateDirection(char direction) {
-            char prevDirection = this.direction;
-            this.direction = direction;
-            updateVelocity();
-            this.x += this.velocityX;
-            this.y += this.velocityY;
-            for (Block wall : walls) {
-                if (collision(this, wall)) {
-                    this.x -= this.velocityX;
-                    this.y -= this.velocityY;
-                    this.direction = prevDirection;
-                    updateVelocity();
-                }
-            }
-        }
+    PacMan() {
+        this(System.nanoTime());
+    }
 
-        void updateVelocity() {
-            if (this.direction == 'U') {
-                this.velocityX = 0;
-                this.velocityY = -tileSize/4;
+    PacMan(long seed) {
+        String replayFile = System.getProperty("pacman.replay");
+        String connect = System.getProperty("pacman.connect");
+        ReplayPlayer player = null;
+        NetClient net = null;
+        if (connect != null) {
+            int colon = connect.lastIndexOf(':');
+            String host = colon >= 0 ? connect.substring(0, colon) : connect;
+            int port = colon >= 0 ? Integer.parseInt(connect.substring(colon + 1)) : GameServer.DEFAULT_PORT;
+            String room = System.getProperty("pacman.room", "lobby");
+            int seat = "ghost".equals(System.getProperty("pacman.seat")) ? NetProtocol.SEAT_GHOST : NetProtocol.SEAT_PACMAN;
+            try {
+                net = NetClient.connect(new InetSocketAddress(host, port), room, seat);
+            } catch (IOException e) {
+                throw new UncheckedIOException("can't join " + room + " on " + connect, e);
             }
-            else if (this.direction == 'D') {
-                this.velocityX = 0;
-                this.velocityY = tileSize/4;
+            state = net.view;
+        } else if (replayFile != null) {
+            try {
+                player = new ReplayPlayer(Replay.load(Paths.get(replayFile)));
+            } catch (IOException e) {
+                throw new UncheckedIOException("can't load replay " + replayFile, e);
             }
-            else if (this.direction == 'L') {
-                this.velocityX = -tileSize/4;
-                this.velocityY = 0;
+            player.listener = this;
+            state = player.state;
+        } else {
+            String level = System.getProperty("pacman.level", Level.CLASSIC);
+            try {
+                state = new GameState(seed, new GameConfig(), Level.named(level));
+            } catch (IOException e) {
+                throw new UncheckedIOException("can't load level " + level, e);
             }
-            else if (this.direction == 'R') {
-                this.velocityX = tileSize/4;
-                this.velocityY = 0;
+        }
+        state.listener = this;
+        sounds = SoundEngine.open();
+        renderer = new Renderer(state.tileSize); // sprites load while the rest is set up
+        gameLoop = new GameLoop(state, net != null ? net.tickRate : tickRate);
+        gameLoop.turnWindowTicks = turnWindow;
+        gameLoop.replay = player;
+        gameLoop.net = net;
+        gameLoop.hud = hud;
+        renderer.hud = hud;
+        if (Boolean.getBoolean("pacman.hud")) {
+            hud.toggle();
+        }
+        if (practice && player == null && net == null) {
+            gameLoop.rewind = new RewindBuffer(state, REWIND_SECONDS, tickRate);
+        } else if (player == null && net == null && !"false".equals(System.getProperty("pacman.record"))) {
+            try {
+                gameLoop.recorder = ReplayRecorder.open(state);
+            } catch (IOException e) {
+                System.err.println("not recording a replay: " + e.getMessage());
             }
         }
-
-        void reset() {
-            this.x = this.startX;
-            this.y = this.startY;
+        String telemetryDirectory = System.getProperty("pacman.telemetry");
+        if (telemetryDirectory != null && !practice && player == null && net == null) {
+            try {
+                telemetry = new Telemetry(Paths.get(telemetryDirectory), Telemetry.DEFAULT_SEGMENT_BYTES);
+                state.telemetry = telemetry.source(state);
+            } catch (IOException e) {
+                System.err.println("no telemetry: " + e.getMessage());
+            }
         }
-    }
-
-    private int rowCount = 21;
-    private int columnCount = 19;
-    private int tileSize = 32;
-    private int boardWidth = columnCount * tileSize;
-    private int boardHeight = rowCount * tileSize;
-
-    private Image wallImage;
-    private Image blueGhostImage;
-    private Image orangeGhostImage;
-    private Image pinkGhostImage;
-    private Image redGhostImage;
-
-    private Image pacmanUpImage;
-    private Image pacmanDownImage;
-    private Image pacmanLeftImage;
-    private Image pacmanRightImage;
-    private Image scaredGhostImage;
-    
-    private Image cherryImage;
-    private boolean isCherryActive = false;
-    private int cherryTimer = 0;
-    private int cherrySpawnTimer = 0; 
-    private final int CHERRY_SPAWN_INTERVAL = 300; 
-    private final int CHERRY_DURATION = 100; 
-
-    private final int CHERRY_FLASH_START = 100; 
-    private final int CHERRY_FLASH_DURATION = 40;
-    private boolean isCherryFlashing = false;
-    private boolean showCherry = true; 
-    private int cherryFlashCounter = 0;
-    private Block activeCherry = null; 
-
-    private boolean areGhostsScared = false;
-    private int scaredTimer = 0;
-    private final int SCARED_DURATION = 150;  // 100 * 50ms = 5000ms = 5s
-    private boolean areGhostsFlashing = false;
-    private int ghostFlashCounter = 0;
-    private final int FLASH_DURATION = 20;    // 20 * 50ms = 1000ms = 1s
-    private boolean showFlashingGhosts = true;
-    
-
-    //X = wall, O = skip, P = pac man, ' ' = food
-    //Ghosts: b = blue, o = orange, p = pink, r = red
-    private String[] tileMap = {
-        "XXXXXXXXXXXXXXXXXXX",
-        "X        X        X",
-        "X XX XXX X XXX XX X",
-        "X                 X",
-        "X XX X XXXXX X XX X",
-        "X    X       X    X",
-        "XXXX XXXX XXXX XXXX",
-        "OOOX X       X XOOO",
-        "XXXX X XXrXX X XXXX",
-        "O       bpo       O",
-        "XXXX X XXXXX X XXXX",
-        "OOOX X       X XOOO",
-        "XXXX X XXXXX X XXXX",
-        "X        X        X",
-        "X XX XXX X XXX XX X",
-        "X  X     P     X  X",
-        "XX X X XXXXX X X XX",
-        "X    X   X   X    X",
-        "X XXXXXX X XXXXXX X",
-        "X                 X",
-        "XXXXXXXXXXXXXXXXXXX" 
-    };
-
-    HashSet<Block> walls;
-    HashSet<Block> foods;
-    HashSet<Block> ghosts;
-    HashSet<Block> cherries = new HashSet<>();
-
-    Block pacman;
-
-    Timer gameLoop;
-    char[] directions = {'U', 'D', 'L', 'R'}; //up down left right
-    char nextDirection = ' ';
-    Random random = new Random();
-    int score = 0;
-    int lives = 3;
-    boolean gameOver = false;
-    boolean isPacmanVisible = true;
-   
-
-
-    PacMan() {
-        setPreferredSize(new Dimension(boardWidth, boardHeight));
+        // the whole board if it fits on the screen, otherwise the camera scrolls
+        Rectangle screen = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
+        int margin = 2 * state.tileSize; // window decorations
+        setPreferredSize(new Dimension(Math.min(state.boardWidth, screen.width - margin),
+                Math.min(state.boardHeight, screen.height - margin)));
         setBackground(Color.BLACK);
+        setIgnoreRepaint(true);
         addKeyListener(this);
         setFocusable(true);
-
-        //load images
-        wallImage = new ImageIcon(getClass().getResource("./wall.png")).getImage();
-        cherryImage = new ImageIcon(getClass().getResource("./cherry.png")).getImage();
-        blueGhostImage = new ImageIcon(getClass().getResource("./blueGhost.png")).getImage();
-        orangeGhostImage = new ImageIcon(getClass().getResource("./orangeGhost.png")).getImage();
-        pinkGhostImage = new ImageIcon(getClass().getResource("./pinkGhost.png")).getImage();
-        redGhostImage = new ImageIcon(getClass().getResource("./redGhost.png")).getImage();
-        scaredGhostImage = new ImageIcon(getClass().getResource("./scaredGhost.png")).getImage();
-
-        pacmanUpImage = new ImageIcon(getClass().getResource("./pacmanUp.png")).getImage();
-        pacmanDownImage = new ImageIcon(getClass().getResource("./pacmanDown.png")).getImage();
-        pacmanLeftImage = new ImageIcon(getClass().getResource("./pacmanLeft.png")).getImage();
-        pacmanRightImage = new ImageIcon(getClass().getResource("./pacmanRight.png")).getImage();
-
-        loadMap();
-        for (Block ghost : ghosts) {
-            char newDirection = directions[random.nextInt(4)];
-            ghost.updateDirection(newDirection);
-        }
-        //how long it takes to start timer, milliseconds gone between frames
-        gameLoop = new Timer(50, this); //20fps (1000/50)
-        gameLoop.start();
-        playSound("start_music.wav", false); // background music loop
-        cherrySpawnTimer = CHERRY_SPAWN_INTERVAL;
-
     }
 
-    public void loadMap() {
-        walls = new HashSet<Block>();
-        foods = new HashSet<Block>();
-        ghosts = new HashSet<Block>();
-    
-        int cherryCount = 0; // <-- Count cherries
-    
-        for (int r = 0; r < rowCount; r++) {
-            for (int c = 0; c < columnCount; c++) {
-                String row = tileMap[r];
-                char tileMapChar = row.charAt(c);
-    
-                int x = c * tileSize;
-                int y = r * tileSize;
-    
-                if (tileMapChar == ' ') {
-                    if (cherryCount < 2 && random.nextInt(1000) < 20) {
-                        Block cherry = new Block(cherryImage, x, y, tileSize, tileSize);
-                        cherries.add(cherry);
-                        cherryCount++; 
-                    } else {
-                        Block food = new Block(null, x + 14, y + 14, 4, 4);
-                        foods.add(food);
-                    }
-                }
-                
-    
-                if (tileMapChar == 'X') {
-                    Block wall = new Block(wallImage, x, y, tileSize, tileSize);
-                    walls.add(wall);
-                } else if (tileMapChar == 'b') {
-                    ghosts.add(new Block(blueGhostImage, x, y, tileSize, tileSize));
-                } else if (tileMapChar == 'o') {
-                    ghosts.add(new Block(orangeGhostImage, x, y, tileSize, tileSize));
-                } else if (tileMapChar == 'p') {
-                    ghosts.add(new Block(pinkGhostImage, x, y, tileSize, tileSize));
-                } else if (tileMapChar == 'r') {
-                    ghosts.add(new Block(redGhostImage, x, y, tileSize, tileSize));
-                } else if (tileMapChar == 'P') {
-                    pacman = new Block(pacmanRightImage, x, y, tileSize, tileSize);
-                }
-            }
-        }
+    // call once the canvas is displayable; the game starts with the first frame
+    // that has sprites, until then the renderer shows a loading screen
+    void start() {
+        createBufferStrategy(2);
+        Thread renderThread = new Thread(this::renderLoop, "render");
+        renderThread.setDaemon(true);
+        renderThread.start();
     }
 
-    public void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        draw(g);
-    }
-
-    public void playDeathAnimation() {
-        gameLoop.stop();
-    
-        Timer flashTimer = new Timer(200, null); // Flash every 200ms
-        final int[] flashes = {0};
-        final int maxFlashes = 6;
-    
-        flashTimer.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                isPacmanVisible = !isPacmanVisible;
-                repaint();
-                flashes[0]++;
-                if (flashes[0] >= maxFlashes) {
-                    flashTimer.stop();
-                    isPacmanVisible = true;
-                    resetPositions();
-                    gameLoop.start();
-                }
-            }
-        });
-    
-        flashTimer.start();
-    }
-
-    public void draw(Graphics g) {
-        if (isPacmanVisible) {
-            g.drawImage(pacman.image, pacman.x, pacman.y, pacman.width, pacman.height, null);
-        }
-        for (Block ghost : ghosts) {
-            Image ghostImg;
-
-             if (areGhostsScared) {
-               if (areGhostsFlashing) {
-                 ghostImg = showFlashingGhosts ? scaredGhostImage : ghost.image;
-                 } else {
-                   ghostImg = scaredGhostImage;
-                }
-                } else {
-                  ghostImg = ghost.image;
-               }
-
-            g.drawImage(ghostImg, ghost.x, ghost.y, ghost.width, ghost.height, null);
-        }
-
-
-        for (Block wall : walls) {
-            g.drawImage(wall.image, wall.x, wall.y, wall.width, wall.height, null);
+    private long frameNanos() {
+        int fps = 0;
+        if (vsync) {
+            DisplayMode mode = getGraphicsConfiguration().getDevice().getDisplayMode();
+            fps = mode.getRefreshRate() != DisplayMode.REFRESH_RATE_UNKNOWN ? mode.getRefreshRate() : 60;
         }
-
-        for (Block cherry : cherries) {
-            if (!isCherryFlashing || showCherry) {
-                g.drawImage(cherry.image, cherry.x, cherry.y, cherry.width, cherry.height, null);
-            }
-        }
-
-        g.setColor(Color.WHITE);
-        for (Block food : foods) {
-            if (food.image != null) {
-                if (food.image == cherryImage) {
-                    if (!isCherryFlashing || showCherry) {
-                        g.drawImage(food.image, food.x, food.y, food.width, food.height, null);
-                    }
-                } else {
-                    g.drawImage(food.image, food.x, food.y, food.width, food.height, null);
-                }
-            } else {
-                g.setColor(Color.WHITE);
-                g.fillRect(food.x, food.y, food.width, food.height);
-            }
-        }
-        //score
-        g.setFont(new Font("Arial", Font.PLAIN, 18));
-        if (gameOver) {
-            g.drawString("Game Over: " + String.valueOf(score), tileSize/2, tileSize/2);
-        }
-        else {
-            g.drawString("x" + String.valueOf(lives) + " Score: " + String.valueOf(score), tileSize/2, tileSize/2);
+        if (maxFps > 0) {
+            fps = fps > 0 ? Math.min(fps, maxFps) : maxFps;
         }
+        return fps > 0 ? 1_000_000_000L / fps : 0;
     }
 
-    public void move() {
-       
-        if (nextDirection != pacman.direction && canMove(pacman, nextDirection)) {
-            pacman.updateDirection(nextDirection);
-            updatePacmanImage();
-        }
-       
-        pacman.x += pacman.velocityX;
-        pacman.y += pacman.velocityY;
-        if (pacman.y == tileSize * 9) { // row with portals
-            if (pacman.x < -pacman.width / 2) {
-                pacman.x = boardWidth - tileSize;
-            } else if (pacman.x > boardWidth - tileSize / 2) {
-                pacman.x = 0;
+    private void renderLoop() {
+        BufferStrategy strategy = getBufferStrategy();
+        long frameNanos = frameNanos();
+        long nextFrame = System.nanoTime();
+        boolean playing = false;
+        GraphicsConfiguration screen = null;
+        double scale = 1;
+        while (rendering) {
+            if (getGraphicsConfiguration() != screen) {
+                // moved to another screen, or its scale changed; the default
+                // transform is a new object every call, so only ask then
+                screen = getGraphicsConfiguration();
+                scale = screen != null ? screen.getDefaultTransform().getScaleX() : 1;
             }
-        }
-
-        //check wall collisions
-        for (Block wall : walls) {
-            if (collision(pacman, wall)) {
-                pacman.x -= pacman.velocityX;
-                pacman.y -= pacman.velocityY;
-                break;
+            boolean firstFrame = false;
+            if (!playing && renderer.ready()) {
+                playing = firstFrame = true;
+                gameLoop.start();
+                sounds.play(Sound.START_MUSIC);
             }
-        }
-
-        //check ghost collisions
-        for (Block ghost : ghosts) {
-            if (collision(ghost, pacman)) {
-                if (isCherryActive) {
-                    playSound("eat_ghost.wav", false);
-                    ghost.reset();
-                    ghost.image = ghost.originalImage;
-                
-                    // Flash ghost briefly
-                    Timer flashGhost = new Timer(100, null);
-                    final int[] flashCount = {0};
-                    flashGhost.addActionListener(new ActionListener() {
-                        public void actionPerformed(ActionEvent e) {
-                            if (flashCount[0] % 2 == 0) {
-                                ghost.image = null; // hide
-                                isCherryActive = false;
-                            } else {
-                                ghost.image = scaredGhostImage; // show scared again briefly
-                            }
-                            flashCount[0]++;
-                            if (flashCount[0] >= 6) { // 3 full flashes
-                                ghost.image = ghost.originalImage;
-                                flashGhost.stop();
-                                isCherryActive = false;
-                            }
-                            repaint();
-                        }
-                    });
-                    
-                    flashGhost.start();
-                
-                    char newDirection = directions[random.nextInt(4)];
-                    ghost.updateDirection(newDirection);
-                    score += 50;
-                }
-                
-                else{
-                    lives -= 1;
-                if (lives == 0) {
-                gameOver = true;
-                 return;
-                 }
-                playDeathAnimation();
-                playSound("death.wav", false);
-                return;
-                }
+            Snapshot snapshot = gameLoop.snapshots.latest();
+            double alpha = (System.nanoTime() - snapshot.tickNanos) / (double) gameLoop.tickNanos;
+            alpha = Math.max(0, Math.min(1, alpha));
+            long paintStart = System.nanoTime();
+            PerfEvents.Paint event = null;
+            if (PerfEvents.PAINT.isEnabled()) {
+                event = new PerfEvents.Paint();
+                event.begin();
             }
-            if (ghost.y == tileSize*9 && ghost.direction != 'U' && ghost.direction != 'D') {
-                ghost.updateDirection('U');
+            do {
+                do {
+                    Graphics g = strategy.getDrawGraphics();
+                    try {
+                        renderer.setViewport(getWidth(), getHeight(), scale);
+                        renderer.draw(g, snapshot, alpha);
+                    } finally {
+                        g.dispose();
+                    }
+                } while (strategy.contentsRestored());
+                strategy.show();
+            } while (strategy.contentsLost());
+            Toolkit.getDefaultToolkit().sync();
+            if (firstFrame && startupStats) {
+                System.out.printf("first frame %d ms after JVM start (sprites took %.1f ms)%n",
+                        ManagementFactory.getRuntimeMXBean().getUptime(), renderer.spriteLoadNanos() / 1e6);
             }
-            ghost.x += ghost.velocityX;
-            ghost.y += ghost.velocityY;
-            for (Block wall : walls) {
-                if (collision(ghost, wall) || ghost.x <= 0 || ghost.x + ghost.width >= boardWidth) {
-                    ghost.x -= ghost.velocityX;
-                    ghost.y -= ghost.velocityY;
-                    char newDirection = directions[random.nextInt(4)];
-                    ghost.updateDirection(newDirection);
-                }
+            if (event != null) {
+                event.tick = snapshot.tick;
+                event.commit();
             }
-        }
-
-        //check food collision
-        Block foodEaten = null;
-        for (Block food : foods) {
-            if (collision(pacman, food)) {
-                playSound("eat_dot.wav", false);
-                if (food.image == cherryImage) {
-                    isCherryActive = true;
-                    cherryTimer = CHERRY_DURATION;
-
-                    areGhostsScared = true;
-                    scaredTimer = SCARED_DURATION;
-                    areGhostsFlashing = false;
-                    ghostFlashCounter = 0;
-                    showFlashingGhosts = true;
-
-                    break;
+            long paintNanos = System.nanoTime() - paintStart;
+
+            boolean dropped = false;
+            if (frameNanos > 0) {
+                nextFrame += frameNanos;
+                long wait = nextFrame - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                } else {
+                    dropped = true; // missed this frame's slot
+                    if (wait < -frameNanos) {
+                        nextFrame = System.nanoTime(); // fell behind, don't try to catch up
+                    }
+                }
             }
-                foodEaten = food;
-                score += 10; 
+            if (hud.enabled) {
+                hud.frame(paintNanos, dropped);
             }
         }
-
-
-    if (foodEaten != null) {
-        foods.remove(foodEaten); // Remove the food after Pac-Man eats it
     }
 
-        if (foods.isEmpty()) {
-            loadMap();
-            resetPositions();
+    void stop() {
+        if (Boolean.getBoolean("pacman.inputStats")) {
+            System.out.println("key press to turn: " + gameLoop.turnLatency.summary()
+                    + ", expired turns: " + gameLoop.expiredTurns);
+            System.out.println("key hold (old release-to-turn delay): " + keyHold.summary());
         }
-
-        if (cherryTimer > 0) {
-            cherryTimer--;
-        
-            if (cherryTimer <= CHERRY_FLASH_START) {
-                isCherryFlashing = true;
-                cherryFlashCounter++;
-                if (cherryFlashCounter % 5 == 0) { // toggle every few frames
-                    showCherry = !showCherry;
-                }
-            }
-        
-            if (cherryTimer <= 0 && activeCherry != null) {
-                foods.remove(activeCherry); // Remove cherry from food list
-                activeCherry = null;
-                isCherryFlashing = false;
-                showCherry = true;
-            }
+        rendering = false;
+        gameLoop.stop();
+        sounds.close();
+        if (telemetry != null) {
+            telemetry.close();
         }
-
-         if (cherrySpawnTimer <= 0) {
-            spawnCherry();
-          cherrySpawnTimer = CHERRY_SPAWN_INTERVAL;
-}
- 
-}
-
-private void spawnCherry() {
-    for (Block food : foods) {
-        if (food.image == null && random.nextInt(100) < 10) {
-            food.image = cherryImage;
-            activeCherry = food;
-            cherryTimer = CHERRY_FLASH_START + CHERRY_FLASH_DURATION;
-            isCherryFlashing = false;
-            showCherry = true;
-            cherryFlashCounter = 0;
-            return;
+        if (gameLoop.recorder != null) {
+            System.out.println("replay saved to " + gameLoop.recorder.path);
         }
     }
-}
-    public boolean collision(Block a, Block b) {
-        return  a.x < b.x + b.width &&
-                a.x + a.width > b.x &&
-                a.y < b.y + b.height &&
-                a.y + a.height > b.y;
-    }
 
-    public void resetPositions() {
-        pacman.reset();
-        pacman.velocityX = 0;
-        pacman.velocityY = 0;
-        for (Block ghost : ghosts) {
-            ghost.reset();
-            char newDirection = directions[random.nextInt(4)];
-            ghost.updateDirection(newDirection);
+    private static char direction(int keyCode) {
+        switch (keyCode) {
+            case KeyEvent.VK_UP: return 'U';
+            case KeyEvent.VK_DOWN: return 'D';
+            case KeyEvent.VK_LEFT: return 'L';
+            case KeyEvent.VK_RIGHT: return 'R';
+            default: return 0;
         }
     }
 
-    public void updatePacmanImage() {
-        switch (pacman.direction) {
-            case 'U': pacman.image = pacmanUpImage; break;
-            case 'D': pacman.image = pacmanDownImage; break;
-            case 'L': pacman.image = pacmanLeftImage; break;
-            case 'R': pacman.image = pacmanRightImage; break;
-        }
-    }
+    @Override
+    public void keyTyped(KeyEvent e) {}
 
-    public boolean canMove(Block block, char direction) {
-        int testX = block.x;
-        int testY = block.y;
-    
-        int speed = tileSize / 4; // Same as your current speed
-    
-        switch (direction) {
-            case 'U': testY -= speed; break;
-            case 'D': testY += speed; break;
-            case 'L': testX -= speed; break;
-            case 'R': testX += speed; break;
-        }
-    
-        // Check collision with walls
-        for (Block wall : walls) {
-            if (testX < wall.x + wall.width &&
-                testX + block.width > wall.x &&
-                testY < wall.y + wall.height &&
-                testY + block.height > wall.y) {
-                return false; // Blocked by wall
-            }
+    // turns are queued the moment the key goes down; held-key auto-repeat is ignored
+    @Override
+    public void keyPressed(KeyEvent e) {
+        if (e.getKeyCode() == KeyEvent.VK_F3) {
+            hud.toggle();
+            return;
         }
-    
-        return true; // No collision, move is valid
-    }
-
-    private void spawnNewCherry() {
-        int emptyTileAttempts = 100;
-    
-        while (emptyTileAttempts-- > 0) {
-            int r = random.nextInt(rowCount);
-            int c = random.nextInt(columnCount);
-    
-            if (tileMap[r].charAt(c) == ' ') {
-                int x = c * tileSize;
-                int y = r * tileSize;
-    
-                // Make sure no wall or cherry is already here
-                boolean isOccupied = false;
-                for (Block wall : walls) {
-                    if (wall.x == x && wall.y == y) {
-                        isOccupied = true;
-                        break;
-                    }
-                }
-                for (Block cherry : cherries) {
-                    if (cherry.x == x && cherry.y == y) {
-                        isOccupied = true;
-                        break;
-                    }
-                }
-    
-                if (!isOccupied) {
-                    Block newCherry = new Block(cherryImage, x, y, tileSize, tileSize);
-                    cherries.add(newCherry);
-                    break;
-                }
-            }
+        if (gameLoop.replay != null) {
+            replayKey(e.getKeyCode());
+            return;
         }
-    }
-    
-
-    @Override
-    public void actionPerformed(ActionEvent e) {
-        move();
-        repaint();
-        if (gameOver) {
-            gameLoop.stop();
+        if (gameLoop.rewind != null && e.getKeyCode() == KeyEvent.VK_BACK_SPACE) {
+            gameLoop.rewinding = true;
+            return;
         }
-
-        HashSet<Block> eatenCherries = new HashSet<>();
-          for (Block cherry : cherries) {
-          if (collision(pacman, cherry)) {
-            playSound("eat_cherry.wav",false);
-            playSound("ghost_scared", false);
-           eatenCherries.add(cherry);
-           isCherryActive = true;
-           areGhostsScared = true;
-           scaredTimer = SCARED_DURATION;
-           areGhostsFlashing = false;
-           ghostFlashCounter = 0;
-    }
-}
-cherries.removeAll(eatenCherries);
-
-if (!cherries.isEmpty()) {
-    cherryTimer++;
-    if (cherryTimer >= CHERRY_FLASH_START) {
-        isCherryFlashing = true;
-        cherryFlashCounter++;
-        showCherry = (cherryFlashCounter / 10) % 2 == 0;
-
-        if (cherryFlashCounter >= CHERRY_FLASH_DURATION) {
-            cherries.clear(); // Despawn cherries
-            isCherryFlashing = false;
-            cherryTimer = 0;
-            cherryFlashCounter = 0;
+        gameLoop.requestRestart(); // only acted on after game over
+        char direction = direction(e.getKeyCode());
+        int slot = "UDLR".indexOf(direction);
+        if (direction != 0 && pressedAt[slot] == 0) {
+            pressedAt[slot] = System.nanoTime();
+            gameLoop.press(direction);
         }
     }
-} else {
-    cherrySpawnTimer--;
-    if (cherrySpawnTimer <= 0) {
-        spawnNewCherry(); 
-        cherrySpawnTimer = CHERRY_SPAWN_INTERVAL;
-    }
-}
 
-   
+    private int pausedSpeed = 1;
 
-        if (areGhostsScared) {
-            scaredTimer--;
-            
-            if (scaredTimer <= 20 && !areGhostsFlashing) {  // 1s left
-                areGhostsFlashing = true;
-                ghostFlashCounter = FLASH_DURATION;
-            }
-        
-            if (areGhostsFlashing) {
-                ghostFlashCounter--;
-                if (ghostFlashCounter % 5 == 0) { // toggle every 250ms
-                    showFlashingGhosts = !showFlashingGhosts;
-                }
-                if (ghostFlashCounter <= 0) {
-                    areGhostsScared = false;
-                    areGhostsFlashing = false;
-                    showFlashingGhosts = true;
+    private void replayKey(int keyCode) {
+        int speed = gameLoop.replaySpeed;
+        switch (keyCode) {
+            case KeyEvent.VK_RIGHT: gameLoop.replaySpeed = Math.min(Math.max(speed, 1) * 2, 1024); break;
+            case KeyEvent.VK_LEFT: gameLoop.replaySpeed = Math.max(speed / 2, 1); break;
+            case KeyEvent.VK_SPACE:
+                if (speed == 0) {
+                    gameLoop.replaySpeed = pausedSpeed;
+                } else {
+                    pausedSpeed = speed;
+                    gameLoop.replaySpeed = 0;
                 }
-            }
+                break;
+            case KeyEvent.VK_PAGE_UP: gameLoop.seekRequest = Math.max(0, gameLoop.state.tick - 30 * tickRate); break;
+            case KeyEvent.VK_PAGE_DOWN: gameLoop.seekRequest = gameLoop.state.tick + 30 * tickRate; break;
+            case KeyEvent.VK_HOME: gameLoop.seekRequest = 0; break;
         }
-
     }
 
-    @Override
-    public void keyTyped(KeyEvent e) {}
-
-    @Override
-    public void keyPressed(KeyEvent e) {}
-
+    // how long keys are held: the delay the old release-to-turn handling added
     @Override
     public void keyReleased(KeyEvent e) {
-        if (gameOver) {
-            loadMap();
-            resetPositions();
-            lives = 3;
-            score = 0;
-            gameOver = false;
-            gameLoop.start();
-            cherries.clear();
-            cherryTimer = 0;
-            cherryFlashCounter = 0;
-            cherrySpawnTimer = CHERRY_SPAWN_INTERVAL;
+        if (gameLoop.replay != null) {
+            return;
+        }
+        if (e.getKeyCode() == KeyEvent.VK_BACK_SPACE) {
+            gameLoop.rewinding = false;
+            return;
         }
-        // System.out.println("KeyEvent: " + e.getKeyCode());
-        if (e.getKeyCode() == KeyEvent.VK_UP) {
-            nextDirection = 'U';
-        } else if (e.getKeyCode() == KeyEvent.VK_DOWN) {
-            nextDirection = 'D';
-        } else if (e.getKeyCode() == KeyEvent.VK_LEFT) {
-            nextDirection = 'L';
-        } else if (e.getKeyCode() == KeyEvent.VK_RIGHT) {
-            nextDirection = 'R';
+        char direction = direction(e.getKeyCode());
+        int slot = "UDLR".indexOf(direction);
+        if (direction != 0 && pressedAt[slot] != 0) {
+            keyHold.record(System.nanoTime() - pressedAt[slot]);
+            pressedAt[slot] = 0;
         }
     }
-}
\ No newline at end of file
+}
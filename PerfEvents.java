@@ -0,0 +1,64 @@
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Custom JFR events, so a flight recording shows game ticks, frames, sounds,
+// level and sprite loads next to GC and JIT activity:
+//
+//   java -XX:StartFlightRecording=filename=pacman.jfr App
+//
+// Callers check PerfEvents.<TYPE>.isEnabled() before creating an event; with
+// no recording running that check is all an instrumented site costs.
+public class PerfEvents {
+    static final EventType TICK = EventType.getEventType(Tick.class);
+    static final EventType PAINT = EventType.getEventType(Paint.class);
+    static final EventType SOUND = EventType.getEventType(SoundTrigger.class);
+    static final EventType LEVEL_LOAD = EventType.getEventType(LevelLoad.class);
+    static final EventType ASSET_LOAD = EventType.getEventType(AssetLoad.class);
+
+    @Name("pacman.Tick")
+    @Label("Game Tick")
+    @Category("Pac-Man")
+    static class Tick extends Event {
+        @Label("Tick")
+        long tick;
+        @Label("Score")
+        int score;
+    }
+
+    @Name("pacman.Paint")
+    @Label("Paint")
+    @Category("Pac-Man")
+    static class Paint extends Event {
+        @Label("Snapshot Tick")
+        long tick;
+    }
+
+    @Name("pacman.Sound")
+    @Label("Sound Trigger")
+    @Category("Pac-Man")
+    static class SoundTrigger extends Event {
+        @Label("Sound")
+        String sound;
+    }
+
+    @Name("pacman.LevelLoad")
+    @Label("Level Load")
+    @Category("Pac-Man")
+    static class LevelLoad extends Event {
+        @Label("Levels Cleared")
+        int levelsCleared;
+    }
+
+    @Name("pacman.AssetLoad")
+    @Label("Sprite Atlas Load")
+    @Category("Pac-Man")
+    static class AssetLoad extends Event {
+        @Label("Sprites")
+        int sprites;
+        @Label("Tile Size")
+        int tileSize;
+    }
+}
@@ -0,0 +1,127 @@
+import java.lang.management.ManagementFactory;
+
+// Numbers for the F3 overlay: tick and paint time percentiles, frame rate,
+// dropped frames and bytes allocated per tick.
+//
+// Each thread owns its half. The simulation thread records ticks, the render
+// thread records frames, and once a second each folds its window into volatile
+// results and starts over, so the overlay shows the last second rather than
+// the whole session. While the overlay is off nothing is measured.
+public class PerfHud {
+    static final long WINDOW_NANOS = 1_000_000_000L;
+
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    volatile boolean enabled = false;
+    private volatile long enabledAt;
+
+    // simulation thread
+    private final LatencyHistogram tickTimes = new LatencyHistogram();
+    private long tickWindowStart;
+    private long tickAllocated;
+    private long tickStartNanos;
+    private long tickStartBytes;
+    volatile long tickP50;
+    volatile long tickP99;
+    volatile long bytesPerTick = -1; // -1 if the JVM can't tell
+
+    // render thread
+    private final LatencyHistogram paintTimes = new LatencyHistogram();
+    private long frameWindowStart;
+    private int frames;
+    private int droppedInWindow;
+    long paintP50;
+    long paintP99;
+    int fps;
+    int droppedFrames; // last window
+    long totalDropped;
+    private String[] text;
+
+    private static com.sun.management.ThreadMXBean threads() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported()) {
+                threads.setThreadAllocatedMemoryEnabled(true);
+                return threads;
+            }
+        }
+        return null;
+    }
+
+    // bytes the calling thread has allocated so far, -1 if unsupported
+    static long allocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    void toggle() {
+        enabledAt = System.nanoTime();
+        enabled = !enabled;
+    }
+
+    void tickStarted() {
+        tickStartBytes = allocatedBytes();
+        tickStartNanos = System.nanoTime();
+    }
+
+    void tickEnded() {
+        long now = System.nanoTime();
+        long bytes = allocatedBytes();
+        if (tickWindowStart < enabledAt) {
+            tickTimes.reset(); // left over from the last time the overlay was on
+            tickAllocated = 0;
+            tickWindowStart = now;
+        }
+        tickTimes.record(now - tickStartNanos);
+        tickAllocated += bytes - tickStartBytes;
+        if (now - tickWindowStart >= WINDOW_NANOS) {
+            tickP50 = tickTimes.percentile(0.50);
+            tickP99 = tickTimes.percentile(0.99);
+            bytesPerTick = bytes < 0 ? -1 : tickAllocated / Math.max(1, tickTimes.count());
+            tickTimes.reset();
+            tickAllocated = 0;
+            tickWindowStart = now;
+        }
+    }
+
+    void frame(long paintNanos, boolean dropped) {
+        long now = System.nanoTime();
+        if (frameWindowStart < enabledAt) {
+            paintTimes.reset();
+            frames = 0;
+            droppedInWindow = 0;
+            frameWindowStart = now;
+        }
+        paintTimes.record(paintNanos);
+        frames++;
+        if (dropped) {
+            droppedInWindow++;
+            totalDropped++;
+        }
+        if (now - frameWindowStart >= WINDOW_NANOS) {
+            paintP50 = paintTimes.percentile(0.50);
+            paintP99 = paintTimes.percentile(0.99);
+            fps = (int) Math.round(frames * 1e9 / (now - frameWindowStart));
+            droppedFrames = droppedInWindow;
+            paintTimes.reset();
+            frames = 0;
+            droppedInWindow = 0;
+            frameWindowStart = now;
+            text = null;
+        }
+    }
+
+    // render thread; rebuilt once per window
+    String[] lines() {
+        if (text == null) {
+            long bytes = bytesPerTick;
+            text = new String[] {
+                String.format("tick  p50 %.3f  p99 %.3f ms", tickP50 / 1e6, tickP99 / 1e6),
+                String.format("paint p50 %.3f  p99 %.3f ms", paintP50 / 1e6, paintP99 / 1e6),
+                String.format("%d fps  %d dropped (%d total)", fps, droppedFrames, totalDropped),
+                bytes < 0 ? "alloc n/a" : String.format("alloc %d B/tick", bytes),
+            };
+        }
+        return text;
+    }
+}
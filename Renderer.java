@@ -0,0 +1,411 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+
+// Draws a Snapshot through a viewport that follows Pac-Man. Walls and pellets
+// live in cached chunk images of CHUNK_TILES x CHUNK_TILES tiles, patched by
+// diffing pellet bits against what each chunk shows, so a frame is a few blits
+// plus the sprites. Only chunks, cherries and ghosts inside the view are looked
+// at: a frame costs the same on a 1000x1000 maze as on the classic one. Sprite
+// positions (and with them the camera) are interpolated between the snapshot's
+// previous and current tick.
+//
+// The chunk images are a fixed pool: chunk (row, column) lives in slot
+// (row % slotRows, column % slotColumns). The pool is one chunk wider and taller
+// than the view, so the chunks on screen never share a slot, and a chunk that
+// scrolls into view is redrawn over one that has left it.
+//
+// Sprites come from a SpriteAtlas that is still loading in the background
+// when the renderer is made; until it is in, draw() shows a loading screen.
+//
+// The game is in logical pixels, tileSize to a tile; the renderer draws in
+// device pixels, undoing the HiDPI scale Java2D puts on the graphics. Each
+// view size and scale gets a whole number of device pixels per tile: enough
+// to fill the view when the board fits in it, otherwise tileSize times the
+// scale, with the camera scrolling. Sprites, fonts and chunks are rasterized
+// for that size when it changes, so every blit stays an unscaled copy however
+// big the window or dense the screen.
+//
+// Nothing in draw() allocates once the chunk pool exists: the atlas holds the
+// sprites at the tile size (a scaled drawImage builds transforms every call)
+// and text goes through BitmapFont instead of drawString.
+public class Renderer {
+
+    static final int CHUNK_TILES = 16; // at most 32, a chunk row's pellets are an int
+
+    private final CompletableFuture<SpriteAtlas> loading;
+    private SpriteAtlas sprites; // null while loading
+    private BufferedImage[] chunks;
+    private Graphics2D[] chunkGraphics;
+    private int[] chunkHeld;    // per slot, the chunk its image shows, -1 for none
+    private int[] drawnPellets; // per slot and chunk row, the pellet bits its image shows
+    private int slotRows;
+    private int slotColumns;
+
+    // view size in logical pixels, 0 for the whole board, and the device pixels
+    // to a logical one
+    private int viewWidth = 0;
+    private int viewHeight = 0;
+    private double scale = 1;
+
+    // worked out from those by layout(), in device pixels: the view, a tile,
+    // and where the last frame's view started on the board (negative when the
+    // board is centred in a bigger view)
+    private boolean laidOut = false;
+    private int width;
+    private int height;
+    private int tile;
+    int cameraX;
+    int cameraY;
+    private final AffineTransform deviceTransform = new AffineTransform();
+
+    private final HashMap<Integer, SpriteAtlas> atlases = new HashMap<>(); // by tile
+    private double fontScale = 0;
+    private BitmapFont scoreFont;
+
+    PerfHud hud; // drawn under the score while enabled
+    private BitmapFont hudFont;
+    private final Color hudBackground = new Color(0, 0, 0, 160);
+
+    // starts loading the sprites at tileSize; draw() shows a loading screen until they're in
+    Renderer(int tileSize) {
+        loading = SpriteAtlas.load(tileSize);
+    }
+
+    // true once the sprites are in; throws if they couldn't be loaded
+    boolean ready() {
+        if (sprites == null) {
+            sprites = loading.getNow(null);
+        }
+        return sprites != null;
+    }
+
+    long spriteLoadNanos() {
+        return sprites != null ? sprites.loadNanos : -1;
+    }
+
+    // blocks until the sprites are in, for callers that have nothing to show meanwhile
+    Renderer awaitSprites() {
+        sprites = loading.join();
+        return this;
+    }
+
+    static BufferedImage createImage(int width, int height, int transparency) {
+        if (GraphicsEnvironment.isHeadless()) {
+            int type = transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+            return new BufferedImage(width, height, type);
+        }
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDefaultConfiguration().createCompatibleImage(width, height, transparency);
+    }
+
+    void setViewport(int width, int height) {
+        setViewport(width, height, 1);
+    }
+
+    // the canvas size in logical pixels and the graphics' scale to device pixels
+    // (2 on a 200% screen); everything sized by them is redone on the next draw
+    // when they change
+    void setViewport(int width, int height, double scale) {
+        if (width != viewWidth || height != viewHeight || scale != this.scale) {
+            viewWidth = width;
+            viewHeight = height;
+            this.scale = scale;
+            laidOut = false;
+        }
+    }
+
+    private void layout(Snapshot s) {
+        width = (int) Math.round((viewWidth > 0 ? viewWidth : s.boardWidth) * scale);
+        height = (int) Math.round((viewHeight > 0 ? viewHeight : s.boardHeight) * scale);
+        int scaled = Math.max(1, (int) Math.round(s.tileSize * scale));
+        if (s.columnCount * scaled <= width && s.rowCount * scaled <= height) {
+            tile = Math.min(width / s.columnCount, height / s.rowCount); // grow the board to the view
+        } else {
+            tile = scaled;
+        }
+        buildFonts();
+        SpriteAtlas atlas = atlases.get(tile);
+        if (atlas == null) {
+            if (atlases.size() >= 8) {
+                atlases.clear(); // dragging a window edge goes through a lot of sizes
+            }
+            atlas = sprites.at(tile);
+            atlases.put(tile, atlas);
+        }
+        sprites = atlas;
+        buildChunks(s);
+        laidOut = true;
+    }
+
+    private void buildChunks(Snapshot s) {
+        if (chunkGraphics != null) {
+            for (Graphics2D g : chunkGraphics) {
+                g.dispose();
+            }
+        }
+        int chunkSize = CHUNK_TILES * tile;
+        slotRows = Math.min(chunks(s.rowCount), (Math.min(height, s.rowCount * tile) - 1) / chunkSize + 2);
+        slotColumns = Math.min(chunks(s.columnCount), (Math.min(width, s.columnCount * tile) - 1) / chunkSize + 2);
+        int slots = slotRows * slotColumns;
+        chunks = new BufferedImage[slots];
+        chunkGraphics = new Graphics2D[slots];
+        chunkHeld = new int[slots];
+        drawnPellets = new int[slots * CHUNK_TILES];
+        for (int i = 0; i < slots; i++) {
+            chunks[i] = createImage(chunkSize, chunkSize, Transparency.OPAQUE);
+            chunkGraphics[i] = chunks[i].createGraphics();
+            chunkHeld[i] = -1;
+        }
+    }
+
+    private static int chunks(int tiles) {
+        return (tiles + CHUNK_TILES - 1) / CHUNK_TILES;
+    }
+
+    // walls of one chunk into its slot; pellets follow in syncChunk
+    private void drawChunk(Snapshot s, int slot, int chunkRow, int chunkColumn) {
+        Graphics2D cg = chunkGraphics[slot];
+        int ts = tile;
+        cg.setColor(Color.BLACK);
+        cg.fillRect(0, 0, CHUNK_TILES * ts, CHUNK_TILES * ts);
+        int firstRow = chunkRow * CHUNK_TILES;
+        int firstColumn = chunkColumn * CHUNK_TILES;
+        int rows = Math.min(CHUNK_TILES, s.rowCount - firstRow);
+        int columns = Math.min(CHUNK_TILES, s.columnCount - firstColumn);
+        for (int r = 0; r < rows; r++) {
+            int rowStart = (firstRow + r) * s.columnCount + firstColumn;
+            for (int c = 0; c < columns; c++) {
+                if (s.walls.get(rowStart + c)) {
+                    sprites.draw(cg, SpriteAtlas.WALL, c * ts, r * ts);
+                }
+            }
+            drawnPellets[slot * CHUNK_TILES + r] = 0;
+        }
+        chunkHeld[slot] = chunkRow * chunks(s.columnCount) + chunkColumn;
+    }
+
+    // redraw only the pellets whose bit differs from what the chunk shows
+    private void syncChunk(Snapshot s, int slot, int chunkRow, int chunkColumn) {
+        Graphics2D cg = chunkGraphics[slot];
+        int ts = tile;
+        int offset = GameState.PELLET_OFFSET * ts / s.tileSize;
+        int size = Math.max(1, GameState.PELLET_SIZE * ts / s.tileSize);
+        int firstRow = chunkRow * CHUNK_TILES;
+        int firstColumn = chunkColumn * CHUNK_TILES;
+        int rows = Math.min(CHUNK_TILES, s.rowCount - firstRow);
+        int columns = Math.min(CHUNK_TILES, s.columnCount - firstColumn);
+        for (int r = 0; r < rows; r++) {
+            int wanted = s.pellets.bits((firstRow + r) * s.columnCount + firstColumn, columns);
+            int diff = wanted ^ drawnPellets[slot * CHUNK_TILES + r];
+            while (diff != 0) {
+                int c = Integer.numberOfTrailingZeros(diff);
+                diff &= diff - 1;
+                cg.setColor((wanted & (1 << c)) != 0 ? Color.WHITE : Color.BLACK);
+                cg.fillRect(c * ts + offset, r * ts + offset, size, size);
+            }
+            drawnPellets[slot * CHUNK_TILES + r] = wanted;
+        }
+    }
+
+    private static int ghostSprite(char type) {
+        switch (type) {
+            case 'b': return SpriteAtlas.BLUE_GHOST;
+            case 'o': return SpriteAtlas.ORANGE_GHOST;
+            case 'p': return SpriteAtlas.PINK_GHOST;
+            default: return SpriteAtlas.RED_GHOST;
+        }
+    }
+
+    private static int pacmanSprite(char facing) {
+        switch (facing) {
+            case 'U': return SpriteAtlas.PACMAN_UP;
+            case 'D': return SpriteAtlas.PACMAN_DOWN;
+            case 'L': return SpriteAtlas.PACMAN_LEFT;
+            default: return SpriteAtlas.PACMAN_RIGHT;
+        }
+    }
+
+    // alpha in [0, 1]: how far we are from the previous tick towards this one.
+    // Jumps longer than a step (portal, respawn) are not interpolated.
+    private static int lerp(int prev, int cur, double alpha, int maxStep) {
+        if (Math.abs(cur - prev) > maxStep) {
+            return cur;
+        }
+        return (int) Math.round(prev + (cur - prev) * alpha);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    // a logical position on the board in device pixels
+    private int device(int logical, Snapshot s) {
+        return Math.floorDiv(logical * tile, s.tileSize);
+    }
+
+    // where the view starts on a board boardSize long, following focus; the
+    // board is centred when it is the smaller
+    private static int camera(int focus, int view, int boardSize) {
+        if (boardSize <= view) {
+            return -(view - boardSize) / 2;
+        }
+        return clamp(focus - view / 2, 0, boardSize - view);
+    }
+
+    private void buildFonts() {
+        if (fontScale != scale) {
+            fontScale = scale;
+            scoreFont = new BitmapFont(new Font("Arial", Font.PLAIN, (int) Math.round(18 * scale)), Color.WHITE);
+            hudFont = new BitmapFont(new Font(Font.MONOSPACED, Font.PLAIN, (int) Math.round(12 * scale)), Color.GREEN);
+        }
+    }
+
+    private void drawLoading(Graphics g, Snapshot s) {
+        int width = (int) Math.round((viewWidth > 0 ? viewWidth : s.boardWidth) * scale);
+        int height = (int) Math.round((viewHeight > 0 ? viewHeight : s.boardHeight) * scale);
+        buildFonts();
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, width, height);
+        int x = (width - scoreFont.width("Loading...")) / 2;
+        scoreFont.drawString(g, "Loading...", x, (height + scoreFont.ascent) / 2);
+    }
+
+    public void draw(Graphics g, Snapshot s, double alpha) {
+        Graphics2D g2 = (Graphics2D) g;
+        AffineTransform callers = null;
+        if (scale != 1) {
+            // device pixels from here on: the caller's translation without its
+            // scale, and the caller's transform exactly as it was afterwards
+            callers = g2.getTransform(); // a copy; only on scaled screens
+            deviceTransform.setToTranslation(callers.getTranslateX(), callers.getTranslateY());
+            g2.setTransform(deviceTransform);
+        }
+        try {
+            if (!ready()) {
+                drawLoading(g, s);
+                return;
+            }
+            if (!laidOut) {
+                layout(s);
+            }
+            drawBoard(g, s, alpha);
+        } finally {
+            if (callers != null) {
+                g2.setTransform(callers);
+            }
+        }
+    }
+
+    private void drawBoard(Graphics g, Snapshot s, double alpha) {
+        int ts = tile;
+        int step = s.tileSize / 4;
+        int boardWidth = s.columnCount * ts;
+        int boardHeight = s.rowCount * ts;
+        int pacmanX = device(lerp(s.pacmanPrevX, s.pacmanX, alpha, step), s);
+        int pacmanY = device(lerp(s.pacmanPrevY, s.pacmanY, alpha, step), s);
+        cameraX = camera(pacmanX + ts / 2, width, boardWidth);
+        cameraY = camera(pacmanY + ts / 2, height, boardHeight);
+        if (width > boardWidth || height > boardHeight) {
+            g.setColor(Color.BLACK);
+            g.fillRect(0, 0, width, height);
+        }
+        g.translate(-cameraX, -cameraY);
+
+        // the part of the board in view
+        int left = Math.max(0, cameraX);
+        int top = Math.max(0, cameraY);
+        int right = Math.min(boardWidth, cameraX + width);
+        int bottom = Math.min(boardHeight, cameraY + height);
+
+        int chunkSize = CHUNK_TILES * ts;
+        int lastChunkRow = (bottom - 1) / chunkSize;
+        int lastChunkColumn = (right - 1) / chunkSize;
+        for (int cr = top / chunkSize; cr <= lastChunkRow; cr++) {
+            for (int cc = left / chunkSize; cc <= lastChunkColumn; cc++) {
+                int slot = (cr % slotRows) * slotColumns + cc % slotColumns;
+                if (chunkHeld[slot] != cr * chunks(s.columnCount) + cc) {
+                    drawChunk(s, slot, cr, cc);
+                }
+                syncChunk(s, slot, cr, cc);
+                g.drawImage(chunks[slot], cc * chunkSize, cr * chunkSize, null);
+            }
+        }
+
+        if (s.isPacmanVisible) {
+            sprites.draw(g, pacmanSprite(s.pacmanFacing), pacmanX, pacmanY);
+        }
+        for (int i = 0; i < s.ghostCount; i++) {
+            int x = device(lerp(s.ghostPrevX[i], s.ghostX[i], alpha, step), s);
+            int y = device(lerp(s.ghostPrevY[i], s.ghostY[i], alpha, step), s);
+            if (x + ts <= cameraX || x >= cameraX + width || y + ts <= cameraY || y >= cameraY + height) {
+                continue;
+            }
+            int sprite;
+            if (s.ghostLook[i] == GameState.LOOK_HIDDEN) {
+                sprite = -1;
+            } else if (s.ghostLook[i] == GameState.LOOK_SCARED) {
+                sprite = SpriteAtlas.SCARED_GHOST;
+            } else {
+                sprite = ghostSprite(s.ghostType[i]);
+            }
+
+            int ghostSprite;
+            if (s.areGhostsScared) {
+                if (s.areGhostsFlashing) {
+                    ghostSprite = s.showFlashingGhosts ? SpriteAtlas.SCARED_GHOST : sprite;
+                } else {
+                    ghostSprite = SpriteAtlas.SCARED_GHOST;
+                }
+            } else {
+                ghostSprite = sprite;
+            }
+
+            if (ghostSprite >= 0) {
+                sprites.draw(g, ghostSprite, x, y);
+            }
+        }
+
+        if (!s.isCherryFlashing || s.showCherry) {
+            TileBits cherries = s.cherries;
+            int lastRow = (bottom - 1) / ts;
+            int firstColumn = left / ts;
+            int lastColumn = (right - 1) / ts;
+            for (int r = top / ts; r <= lastRow; r++) {
+                int end = r * s.columnCount + lastColumn + 1;
+                for (int i = cherries.nextSetBit(r * s.columnCount + firstColumn, end); i >= 0;
+                        i = cherries.nextSetBit(i + 1, end)) {
+                    sprites.draw(g, SpriteAtlas.CHERRY, (i % s.columnCount) * ts, r * ts);
+                }
+            }
+        }
+
+        g.translate(cameraX, cameraY);
+
+        //score
+        int margin = (int) Math.round(s.tileSize / 2 * scale);
+        if (s.gameOver) {
+            int x = scoreFont.drawString(g, "Game Over: ", margin, margin);
+            scoreFont.drawNumber(g, s.score, x, margin);
+        }
+        else {
+            int x = scoreFont.drawString(g, "x", margin, margin);
+            x = scoreFont.drawNumber(g, s.lives, x, margin);
+            x = scoreFont.drawString(g, " Score: ", x, margin);
+            scoreFont.drawNumber(g, s.score, x, margin);
+        }
+
+        PerfHud h = hud;
+        if (h != null && h.enabled) {
+            String[] lines = h.lines();
+            int line = hudFont.height;
+            g.setColor(hudBackground);
+            g.fillRect(margin - line / 3, margin + line / 2, 20 * line, lines.length * line + line / 2);
+            for (int i = 0; i < lines.length; i++) {
+                hudFont.drawString(g, lines[i], margin, margin + line * 3 / 2 + i * line);
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// A recorded session: the seed and config the GameState was built with, then a
+// stream of events, each a varint of (ticks since the previous event << 3 | code).
+// Everything else follows from GameState being deterministic.
+//
+//   header:  "PMRP" version seed(8 bytes) hashInterval spawn cherry scared flash (varints)
+//            level name (varint length, UTF-8)
+//   events:  U D L R or none  the input passed to step() from this tick on, only when it changes
+//            RESTART          restart() after game over
+//            CHECKPOINT       followed by the 8 byte stateHash() at this tick
+//            END              the session closed cleanly
+//
+// An hour of play is a few kilobytes. A file cut short by a crash just ends early.
+// Versions before 3 were recorded under the old countdown timers, and 3 under
+// timers that ran on through the death freeze; neither plays back under these
+// rules.
+public class Replay {
+    static final byte[] MAGIC = {'P', 'M', 'R', 'P'};
+    static final int VERSION = 4;
+
+    static final int CODE_NONE = 4; // codes 0-3 are the directions in DIRECTIONS order
+    static final int CODE_RESTART = 5;
+    static final int CODE_CHECKPOINT = 6;
+    static final int CODE_END = 7;
+    static final String DIRECTIONS = "UDLR";
+
+    final long seed;
+    final GameConfig config;
+    final int hashInterval;
+    final String level;
+    final ByteBuffer data; // read with absolute gets only, so one buffer can serve several players
+    final int eventsStart;
+
+    Replay(ByteBuffer data) throws IOException {
+        this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data.limit() <= i || data.get(i) != MAGIC[i]) {
+                throw new IOException("not a replay file");
+            }
+        }
+        int version = data.get(4);
+        if (version >= 1 && version < VERSION) {
+            throw new IOException("replay version " + version + " was recorded by an older game");
+        }
+        if (version != VERSION) {
+            throw new IOException("unsupported replay version " + version);
+        }
+        seed = data.getLong(5);
+        int[] position = {13};
+        hashInterval = (int) readVarLong(data, position);
+        config = new GameConfig();
+        config.cherrySpawnInterval = (int) readVarLong(data, position);
+        config.cherryDuration = (int) readVarLong(data, position);
+        config.scaredDuration = (int) readVarLong(data, position);
+        config.flashDuration = (int) readVarLong(data, position);
+        int length = (int) readVarLong(data, position);
+        if (length < 0 || position[0] + length > data.limit()) {
+            throw new IOException("replay header is truncated");
+        }
+        byte[] name = new byte[length];
+        data.get(position[0], name);
+        position[0] += length;
+        level = new String(name, StandardCharsets.UTF_8);
+        eventsStart = position[0];
+    }
+
+    // maps the file instead of reading it; the mapping lives as long as the Replay
+    static Replay load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Replay(map);
+        }
+    }
+
+    static int code(char direction) {
+        int code = DIRECTIONS.indexOf(direction);
+        return code >= 0 ? code : CODE_NONE;
+    }
+
+    static char direction(int code) {
+        return code < CODE_NONE ? DIRECTIONS.charAt(code) : ' ';
+    }
+
+    // reads the varint at position[0] and advances it; -1 if the file ends inside it
+    static long readVarLong(ByteBuffer data, int[] position) {
+        long value = 0;
+        int p = position[0];
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (p >= data.limit()) {
+                return -1;
+            }
+            byte b = data.get(p++);
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                position[0] = p;
+                return value;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,153 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+
+// Plays a Replay back into a fresh GameState: before each step() the events due
+// at that tick are applied, and every recorded checkpoint is compared with the
+// replayed stateHash(). The first mismatch is kept in divergedAt.
+//
+// Seeking forward just steps; seeking back rebuilds the state from the seed and
+// steps forward again, which takes well under a second for an hour of play.
+//
+//   java ReplayPlayer <file> [tick]   verify a whole replay, or up to tick, as fast as possible
+public class ReplayPlayer {
+    final Replay replay;
+    final Level level;
+    GameState state;
+    GameState.Listener listener; // given to every state this player builds
+
+    private final int[] position = new int[1];
+    private long nextTick;  // tick of the next unread event
+    private int nextCode;   // -1 once the events run out
+    private char direction = ' ';
+    long endTick = -1;      // known once the END event (or the end of the file) is read
+    long checkpoints = 0;
+    long divergedAt = -1;
+    private boolean cleanEnd = false;
+
+    ReplayPlayer(Replay replay) throws IOException {
+        this.replay = replay;
+        this.level = Level.named(replay.level);
+        rewind();
+    }
+
+    private void rewind() {
+        state = new GameState(replay.seed, replay.config.copy(), level);
+        state.listener = listener;
+        position[0] = replay.eventsStart;
+        nextTick = 0;
+        direction = ' ';
+        checkpoints = 0;
+        divergedAt = -1;
+        cleanEnd = false;
+        endTick = -1;
+        readEvent();
+    }
+
+    private void readEvent() {
+        long event = Replay.readVarLong(replay.data, position);
+        if (event < 0) {
+            nextCode = -1;
+            endTick = Math.max(endTick, nextTick);
+            return;
+        }
+        nextTick += event >>> 3;
+        nextCode = (int) (event & 7);
+    }
+
+    // applies the events due before the next step(), like GameLoop does live
+    private void applyEvents() {
+        while (nextCode >= 0 && nextTick <= state.tick) {
+            int code = nextCode;
+            if (code == Replay.CODE_END) {
+                endTick = nextTick;
+                cleanEnd = true;
+                nextCode = -1;
+                return;
+            }
+            if (code == Replay.CODE_CHECKPOINT) {
+                int p = position[0];
+                if (p + 8 > replay.data.limit()) {
+                    nextCode = -1;
+                    endTick = nextTick;
+                    return;
+                }
+                long hash = replay.data.getLong(p);
+                position[0] = p + 8;
+                checkpoints++;
+                if (divergedAt < 0 && hash != state.stateHash()) {
+                    divergedAt = nextTick;
+                }
+            } else if (code == Replay.CODE_RESTART) {
+                state.restart();
+            } else {
+                direction = Replay.direction(code);
+            }
+            readEvent();
+        }
+    }
+
+    // also true when the game is over and nothing restarts it before the next event,
+    // which only happens with a damaged file: the tick could never reach that event
+    boolean finished() {
+        return nextCode < 0 ? state.tick >= endTick : state.gameOver && nextTick > state.tick;
+    }
+
+    boolean endedCleanly() {
+        return nextCode < 0 && cleanEnd;
+    }
+
+    void step() {
+        applyEvents();
+        if (!finished()) {
+            state.step(direction);
+        }
+        applyEvents(); // a checkpoint on the last tick
+    }
+
+    // silent while skipping
+    void seek(long tick) {
+        GameState.Listener sound = listener;
+        listener = null;
+        if (tick < state.tick) {
+            rewind();
+        }
+        state.listener = null;
+        while (state.tick < tick && !finished()) {
+            step();
+        }
+        listener = sound;
+        state.listener = sound;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("usage: java ReplayPlayer <file> [tick]");
+            System.exit(2);
+        }
+        Replay replay = Replay.load(Paths.get(args[0]));
+        ReplayPlayer player = new ReplayPlayer(replay);
+        long target = args.length > 1 ? Long.parseLong(args[1]) : Long.MAX_VALUE;
+
+        // stop at the first mismatch, the rest of the run means nothing
+        long start = System.nanoTime();
+        while (player.state.tick < target && !player.finished() && player.divergedAt < 0) {
+            player.step();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        GameState state = player.state;
+        System.out.printf("%s: %d bytes, level %s, seed %d, %s%n", args[0], replay.data.limit(), replay.level,
+                replay.seed, replay.config);
+        System.out.printf("replayed %d ticks in %.1f ms (%.0f ticks/s), score %d, lives %d%s%n",
+                state.tick, elapsed / 1e6, state.tick / Math.max(elapsed / 1e9, 1e-9), state.score, state.lives,
+                state.gameOver ? ", game over" : "");
+        if (player.divergedAt >= 0) {
+            System.out.println("diverged at tick " + player.divergedAt + " (" + player.checkpoints + " checkpoints read)");
+            System.exit(1);
+        }
+        System.out.println(player.checkpoints + " checkpoints match");
+        if (target == Long.MAX_VALUE && !player.endedCleanly()) {
+            System.out.println("no end marker: the session was cut short or the file is damaged");
+        }
+    }
+}
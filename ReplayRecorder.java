@@ -0,0 +1,198 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Writes a Replay while the game runs. The simulation thread only encodes events
+// into a ring of preallocated chunks; a writer thread writes each chunk once it
+// is handed over and hands it back (single producer, single consumer, like
+// InputQueue), so recording doesn't wait for the disk, take locks or allocate.
+// A chunk is handed over when it is full or, partly filled, after every
+// checkpoint, since a session takes minutes to fill one: a crash loses at most
+// the play since the last checkpoint.
+public class ReplayRecorder {
+    static final int CHUNK_SIZE = 4096;
+    static final int CHUNKS = 16; // power of two; checkpoints the writer can fall behind before a tick waits
+    static final int HASH_INTERVAL = 200; // a checkpoint every 10s of play
+
+    private static final class Chunk {
+        final byte[] data = new byte[CHUNK_SIZE];
+        int length;
+    }
+
+    private final Chunk[] chunks = new Chunk[CHUNKS];
+    private final AtomicLong filled = new AtomicLong();  // chunks handed to the writer
+    private final AtomicLong written = new AtomicLong(); // chunks it has written
+    private volatile boolean closing = false;
+    private final OutputStream out;
+    private final Thread writer;
+    final Path path;
+
+    // simulation thread only
+    private Chunk chunk;
+    private long lastTick = 0;
+    private int lastCode = Replay.CODE_NONE;
+    private long lastCheckpoint = -1;
+    long bytes = 0;
+    long stalls = 0; // times every chunk was waiting for the writer and a tick had to wait too
+    private boolean closed = false;
+
+    ReplayRecorder(Path path, GameState state) throws IOException {
+        this.path = path;
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        out = new FileOutputStream(path.toFile());
+        for (int i = 0; i < CHUNKS; i++) {
+            chunks[i] = new Chunk();
+        }
+        chunk = chunks[0];
+
+        for (byte b : Replay.MAGIC) {
+            put(b);
+        }
+        put((byte) Replay.VERSION);
+        long seed = state.seed;
+        for (int i = 0; i < 8; i++) {
+            put((byte) (seed >>> (8 * i)));
+        }
+        putVarLong(HASH_INTERVAL);
+        putVarLong(state.CHERRY_SPAWN_INTERVAL);
+        putVarLong(state.CHERRY_DURATION);
+        putVarLong(state.SCARED_DURATION);
+        putVarLong(state.FLASH_DURATION);
+        byte[] level = state.level.name.getBytes(StandardCharsets.UTF_8);
+        putVarLong(level.length);
+        for (byte b : level) {
+            put(b);
+        }
+        lastTick = state.tick;
+
+        writer = new Thread(this::writeLoop, "replay-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // replays/replay-<date>.pmr under the working directory
+    static ReplayRecorder open(GameState state) throws IOException {
+        String name = "replay-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".pmr";
+        return new ReplayRecorder(Paths.get("replays", name), state);
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                long w = written.get();
+                if (w < filled.get()) {
+                    Chunk c = chunks[(int) (w & (CHUNKS - 1))];
+                    out.write(c.data, 0, c.length);
+                    out.flush();
+                    written.lazySet(w + 1);
+                } else if (closing) {
+                    if (w == filled.get()) {
+                        break; // filled can only have moved before closing was set
+                    }
+                } else {
+                    LockSupport.parkNanos(this, 100_000_000L);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("replay: " + e.getMessage());
+        } finally {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void handOver() {
+        long f = filled.get() + 1;
+        filled.lazySet(f);
+        if (writer != null) {
+            LockSupport.unpark(writer);
+        }
+        if (f - written.get() >= CHUNKS) {
+            stalls++;
+            while (f - written.get() >= CHUNKS) {
+                LockSupport.parkNanos(100_000L);
+            }
+        }
+        chunk = chunks[(int) (f & (CHUNKS - 1))];
+        chunk.length = 0;
+    }
+
+    private void put(byte b) {
+        if (chunk.length == CHUNK_SIZE) {
+            handOver();
+        }
+        chunk.data[chunk.length++] = b;
+        bytes++;
+    }
+
+    private void putVarLong(long value) {
+        while ((value & ~0x7fL) != 0) {
+            put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        put((byte) value);
+    }
+
+    private void event(long tick, int code) {
+        putVarLong((tick - lastTick) << 3 | code);
+        lastTick = tick;
+    }
+
+    // the input about to be passed to step() at this tick; only changes are written
+    void input(long tick, char direction) {
+        int code = Replay.code(direction);
+        if (code != lastCode) {
+            event(tick, code);
+            lastCode = code;
+        }
+    }
+
+    void restart(long tick) {
+        event(tick, Replay.CODE_RESTART);
+    }
+
+    // call after every step(); writes the state hash every HASH_INTERVAL ticks
+    void stepped(GameState state) {
+        long tick = state.tick;
+        if (tick % HASH_INTERVAL != 0 || tick == lastCheckpoint) {
+            return; // the tick doesn't advance while the game is over
+        }
+        lastCheckpoint = tick;
+        event(tick, Replay.CODE_CHECKPOINT);
+        long hash = state.stateHash();
+        for (int i = 0; i < 8; i++) {
+            put((byte) (hash >>> (8 * i)));
+        }
+        handOver(); // on disk up to this checkpoint
+    }
+
+    // simulation thread, or any thread once the simulation has stopped
+    void close(long tick) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        event(tick, Replay.CODE_END);
+        filled.lazySet(filled.get() + 1);
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+import java.util.Arrays;
+
+// The last seconds of a game, one frame per tick, for rewinding in practice
+// mode. A frame is the whole GameState flattened into longs: everything
+// loadMap() and resetPositions() touch, the rng, the timers and the handles
+// into them, so putting one back leaves the game exactly as it was on that
+// tick (same stateHash(), same game from there on with the same keys).
+//
+// Every KEY_INTERVAL ticks a frame is stored whole as a keyframe; the frames
+// in between keep only the longs that differ from their keyframe, as (index,
+// value) pairs, so restoring any frame is one keyframe copy and one short
+// patch. A frame that differs from its keyframe in more than half its longs
+// (a level reset) starts a new keyframe instead.
+//
+// Keyframes and patches share one ring of preallocated primitive arrays. When
+// the window or the ring is full the oldest keyframe goes with its patches,
+// so the window is between seconds and seconds + 1s long. The ring only grows
+// if a single keyframe group doesn't fit in it.
+//
+//   frame layout  scalars (see the F_ constants), then per block pac man
+//                 first: x y, direction velocity look flashing, flash timer;
+//                 then pellet words, cherry words, TickScheduler.save()
+public class RewindBuffer {
+    static final int KEY_INTERVAL = 20;
+
+    private static final int F_RNG = 0;
+    private static final int F_TICK = 1;
+    private static final int F_SCORE = 2;
+    private static final int F_LIVES = 3;
+    private static final int F_FLAGS = 4;
+    private static final int F_GHOST_MODE_TICKS = 5;
+    private static final int F_CHERRY_TIMER = 6;
+    private static final int F_SCARED_TIMER = 7;
+    private static final int F_FACING = 8;
+    private static final int F_TOTALS = 9;      // pellets eaten << 32 | ghosts eaten
+    private static final int F_LEVELS = 10;
+    private static final int F_FLOW_TARGET = 11;
+    private static final int SCALARS = 12;
+    private static final int BLOCK = 3;
+
+    private final int blocks;
+    private final int pelletsAt;
+    private final int cherriesAt;
+    private final int timersAt;
+
+    // frames, by absolute number modulo maxFrames
+    private final int maxFrames;
+    private final long[] frameStart; // absolute position in the ring
+    private final int[] frameCount;  // longs (keyframe) or pairs (patch) there
+    private final long[] frameKey;   // the keyframe's frame number; itself for a keyframe
+    private long first = 0;          // oldest frame kept
+    private long end = 0;            // one past the newest
+
+    // the ring; values of a keyframe, (indices[i], values[i]) pairs of a patch
+    private long[] values;
+    private int[] indices;
+    private long ringTail = 0; // absolute position of the next write
+
+    private long[] frame;           // scratch: the frame being recorded or restored
+    private long[] key;             // the newest keyframe, to diff against
+    private int keyLength = 0;
+    private long keyNumber = -1;    // which frame key holds
+
+    RewindBuffer(GameState state, int seconds, int tickRate) {
+        blocks = state.ghosts.size() + 1;
+        pelletsAt = SCALARS + BLOCK * blocks;
+        cherriesAt = pelletsAt + state.grid.pellets.words.length;
+        timersAt = cherriesAt + state.grid.cherries.words.length;
+        maxFrames = seconds * tickRate + KEY_INTERVAL;
+        frameStart = new long[maxFrames];
+        frameCount = new int[maxFrames];
+        frameKey = new long[maxFrames];
+        frame = new long[timersAt + state.timers.savedLength()];
+        key = new long[frame.length];
+        // room for every keyframe plus patches a quarter the size of a frame
+        int length = save(state, frame);
+        int ring = (maxFrames / KEY_INTERVAL + 2) * length + maxFrames * Math.max(16, length / 4);
+        values = new long[ring];
+        indices = new int[ring];
+    }
+
+    int frames() {
+        return (int) (end - first);
+    }
+
+    // bytes held by the ring and the frame table
+    long bytes() {
+        return 12L * values.length + 20L * maxFrames + 16L * frame.length;
+    }
+
+    // call after every step() with the state it left
+    void record(GameState state) {
+        if (timersAt + state.timers.savedLength() > frame.length) {
+            frame = Arrays.copyOf(frame, timersAt + state.timers.savedLength());
+            key = Arrays.copyOf(key, frame.length);
+        }
+        int length = save(state, frame);
+
+        if (end > first && keyNumber != frameKey[slot(end - 1)]) {
+            loadKey(frameKey[slot(end - 1)]); // rewound past the cached one
+        }
+        int changed = 0;
+        if (end > first && end - keyNumber < KEY_INTERVAL) {
+            for (int i = 0; i < length; i++) {
+                if (i >= keyLength || frame[i] != key[i]) {
+                    changed++;
+                }
+            }
+        }
+        boolean keyframe = end == first || end - keyNumber >= KEY_INTERVAL || changed > length / 2;
+        int count = keyframe ? length : changed;
+
+        if (end - first == maxFrames) {
+            dropOldestGroup();
+        }
+        while (ringTail + count - ringHead() > values.length) {
+            if (!dropOldestGroup()) {
+                growRing(count);
+            }
+        }
+
+        int s = slot(end);
+        frameStart[s] = ringTail;
+        frameCount[s] = count;
+        frameKey[s] = keyframe ? end : keyNumber;
+        if (keyframe) {
+            for (int i = 0; i < length; i++) {
+                put(i, frame[i]);
+            }
+            System.arraycopy(frame, 0, key, 0, length);
+            keyLength = length;
+            keyNumber = end;
+        } else {
+            for (int i = 0; i < length; i++) {
+                if (i >= keyLength || frame[i] != key[i]) {
+                    put(i, frame[i]);
+                }
+            }
+        }
+        end++;
+    }
+
+    // goes back one tick: forgets the newest frame and puts state back to the
+    // one before it. False, and state untouched, when there is nothing older
+    boolean stepBack(GameState state) {
+        if (end - first < 2) {
+            return false;
+        }
+        end--;
+        ringTail = frameStart[slot(end)];
+        restore(state, end - 1);
+        return true;
+    }
+
+    private void restore(GameState state, long number) {
+        long keyAt = frameKey[slot(number)];
+        if (keyNumber != keyAt) {
+            loadKey(keyAt);
+        }
+        System.arraycopy(key, 0, frame, 0, keyLength);
+        if (number != keyAt) {
+            int s = slot(number);
+            long at = frameStart[s];
+            for (int i = 0; i < frameCount[s]; i++) {
+                int p = ring(at + i);
+                frame[indices[p]] = values[p];
+            }
+        }
+        load(state, frame);
+    }
+
+    private void loadKey(long number) {
+        int s = slot(number);
+        long at = frameStart[s];
+        for (int i = 0; i < frameCount[s]; i++) {
+            key[i] = values[ring(at + i)];
+        }
+        keyLength = frameCount[s];
+        keyNumber = number;
+    }
+
+    private int slot(long number) {
+        return (int) (number % maxFrames);
+    }
+
+    private int ring(long position) {
+        return (int) (position % values.length);
+    }
+
+    private long ringHead() {
+        return end > first ? frameStart[slot(first)] : ringTail;
+    }
+
+    private void put(int index, long value) {
+        int p = ring(ringTail++);
+        indices[p] = index;
+        values[p] = value;
+    }
+
+    // false if the oldest group is the one still being recorded
+    private boolean dropOldestGroup() {
+        long next = first + 1;
+        while (next < end && frameKey[slot(next)] != next) {
+            next++;
+        }
+        if (next >= end) {
+            return false;
+        }
+        first = next;
+        return true;
+    }
+
+    private void growRing(int needed) {
+        int size = Math.max(2 * values.length, values.length + needed);
+        long[] biggerValues = new long[size];
+        int[] biggerIndices = new int[size];
+        for (long p = ringHead(); p < ringTail; p++) {
+            biggerValues[(int) (p % size)] = values[ring(p)];
+            biggerIndices[(int) (p % size)] = indices[ring(p)];
+        }
+        values = biggerValues;
+        indices = biggerIndices;
+    }
+
+    // the state as a frame; returns its length
+    private int save(GameState state, long[] into) {
+        into[F_RNG] = state.random.getState();
+        into[F_TICK] = state.tick;
+        into[F_SCORE] = state.score;
+        into[F_LIVES] = state.lives;
+        into[F_FLAGS] = (state.gameOver ? 1 : 0) | (state.isPacmanVisible ? 2 : 0) | (state.isCherryActive ? 4 : 0)
+                | (state.isCherryFlashing ? 8 : 0) | (state.showCherry ? 16 : 0) | (state.areGhostsScared ? 32 : 0)
+                | (state.areGhostsFlashing ? 64 : 0) | (state.showFlashingGhosts ? 128 : 0) | (state.isDying ? 256 : 0);
+        into[F_GHOST_MODE_TICKS] = state.ghostModeTicks;
+        into[F_CHERRY_TIMER] = state.cherryTimer;
+        into[F_SCARED_TIMER] = state.scaredTimer;
+        into[F_FACING] = state.pacmanFacing;
+        into[F_TOTALS] = (long) state.pelletsEaten << 32 | (state.ghostsEaten & 0xffffffffL);
+        into[F_LEVELS] = state.levelsCleared;
+        into[F_FLOW_TARGET] = state.ghostAI.flowTarget();
+        saveBlock(state.pacman, into, SCALARS);
+        for (int i = 1; i < blocks; i++) {
+            saveBlock(state.ghosts.get(i - 1), into, SCALARS + BLOCK * i);
+        }
+        System.arraycopy(state.grid.pellets.words, 0, into, pelletsAt, cherriesAt - pelletsAt);
+        System.arraycopy(state.grid.cherries.words, 0, into, cherriesAt, timersAt - cherriesAt);
+        return state.timers.save(into, timersAt);
+    }
+
+    private static void saveBlock(GameState.Block block, long[] into, int at) {
+        into[at] = (long) block.x << 32 | (block.y & 0xffffffffL);
+        into[at + 1] = block.direction | (block.velocityX & 0xffffL) << 16 | (block.velocityY & 0xffffL) << 32
+                | (long) block.look << 48 | (block.isFlashing ? 1L << 52 : 0) | (long) block.flashCount << 56;
+        into[at + 2] = block.flashTimer;
+    }
+
+    private void load(GameState state, long[] from) {
+        state.random.setState(from[F_RNG]);
+        state.tick = from[F_TICK];
+        state.score = (int) from[F_SCORE];
+        state.lives = (int) from[F_LIVES];
+        int flags = (int) from[F_FLAGS];
+        state.gameOver = (flags & 1) != 0;
+        state.isPacmanVisible = (flags & 2) != 0;
+        state.isCherryActive = (flags & 4) != 0;
+        state.isCherryFlashing = (flags & 8) != 0;
+        state.showCherry = (flags & 16) != 0;
+        state.areGhostsScared = (flags & 32) != 0;
+        state.areGhostsFlashing = (flags & 64) != 0;
+        state.showFlashingGhosts = (flags & 128) != 0;
+        state.isDying = (flags & 256) != 0;
+        state.ghostModeTicks = (int) from[F_GHOST_MODE_TICKS];
+        state.cherryTimer = from[F_CHERRY_TIMER];
+        state.scaredTimer = from[F_SCARED_TIMER];
+        state.pacmanFacing = (char) from[F_FACING];
+        state.pelletsEaten = (int) (from[F_TOTALS] >>> 32);
+        state.ghostsEaten = (int) from[F_TOTALS];
+        state.levelsCleared = (int) from[F_LEVELS];
+        state.ghostAI.restoreFlowTarget((int) from[F_FLOW_TARGET]);
+        loadBlock(state.pacman, from, SCALARS);
+        for (int i = 1; i < blocks; i++) {
+            loadBlock(state.ghosts.get(i - 1), from, SCALARS + BLOCK * i);
+        }
+        loadWords(state.grid.pellets, from, pelletsAt);
+        loadWords(state.grid.cherries, from, cherriesAt);
+        state.timers.restore(from, timersAt);
+        state.ghostGridStale = true;
+    }
+
+    private static void loadBlock(GameState.Block block, long[] from, int at) {
+        block.x = (int) (from[at] >> 32);
+        block.y = (int) from[at];
+        long motion = from[at + 1];
+        block.direction = (char) (motion & 0xffff);
+        block.velocityX = (short) (motion >>> 16);
+        block.velocityY = (short) (motion >>> 32);
+        block.look = (int) (motion >>> 48) & 0xf;
+        block.isFlashing = (motion & 1L << 52) != 0;
+        block.flashCount = (int) (motion >>> 56);
+        block.flashTimer = from[at + 2];
+        block.eaten = false;
+    }
+
+    // only the words that differ, so TileBits keeps its count and version right
+    private static void loadWords(TileBits bits, long[] from, int at) {
+        for (int w = 0; w < bits.words.length; w++) {
+            long diff = bits.words[w] ^ from[at + w];
+            if (diff != 0) {
+                bits.xorWord(w, diff);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+// Checks the practice-mode rewind. Plays a scripted game into a 30 second
+// RewindBuffer, then steps back through the whole window checking every
+// restored state against the stateHash() it had on that tick, and finally
+// plays forward again from the oldest frame with the same keys, which must
+// give the same game. Prints the memory the window takes and how long a step
+// back takes; exits with 1 on any mismatch.
+//
+//   java -Djava.awt.headless=true [-Dpacman.level=name] RewindCheck [ticks]
+public class RewindCheck {
+
+    public static void main(String[] args) throws java.io.IOException {
+        int ticks = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        Level level = Level.named(System.getProperty("pacman.level", Level.CLASSIC));
+        GameState state = new GameState(1, new GameConfig(), level);
+        RewindBuffer rewind = new RewindBuffer(state, PacMan.REWIND_SECONDS, 20);
+
+        // random joystick as in HeadlessRunner; what each step got and left
+        Rng input = new Rng(7);
+        char[] directions = new char[ticks];
+        boolean[] restarts = new boolean[ticks];
+        long[] hashes = new long[ticks];
+        char direction = ' ';
+        LatencyHistogram recordTime = new LatencyHistogram();
+        for (int i = 0; i < ticks; i++) {
+            if (i % 8 == 0) {
+                direction = "UDLR".charAt(input.nextInt(4));
+            }
+            directions[i] = direction;
+            restarts[i] = state.gameOver;
+            if (restarts[i]) {
+                state.restart();
+            }
+            state.step(direction);
+            long start = System.nanoTime();
+            rewind.record(state);
+            recordTime.record(System.nanoTime() - start);
+            hashes[i] = state.stateHash();
+        }
+
+        int mismatches = 0;
+        int step = ticks - 1;
+        LatencyHistogram restoreTime = new LatencyHistogram();
+        while (true) {
+            long start = System.nanoTime();
+            boolean back = rewind.stepBack(state);
+            restoreTime.record(System.nanoTime() - start);
+            if (!back) {
+                break;
+            }
+            step--;
+            if (state.stateHash() != hashes[step]) {
+                mismatches++;
+            }
+        }
+        int window = ticks - 1 - step;
+
+        int oldest = step;
+        for (int i = oldest + 1; i < ticks; i++) {
+            if (restarts[i]) {
+                state.restart();
+            }
+            state.step(directions[i]);
+            if (state.stateHash() != hashes[i]) {
+                mismatches++;
+                break;
+            }
+        }
+
+        System.out.printf("%d ticks on %s, stepped back %d (%.1fs), %d KB held%n",
+                ticks, level.name, window, window / 20.0, rewind.bytes() / 1024);
+        System.out.println("record: " + recordTime.summary());
+        System.out.println("step back: " + restoreTime.summary());
+        if (mismatches > 0) {
+            System.out.println("FAIL: " + mismatches + " states didn't match");
+            System.exit(1);
+        }
+        System.out.println("OK: every rewound state matched, and the game replays from the oldest one");
+    }
+}
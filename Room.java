@@ -0,0 +1,136 @@
+import java.nio.ByteBuffer;
+
+// One game on a GameServer: an authoritative GameState and the players seated
+// at it. Seat 0 steers pac man, seat i+1 steers ghost i; ghosts nobody sits at
+// are left to GhostAI, and pac man without a player stands still.
+//
+// Every tick each player's oldest queued input is applied, the rules step, and
+// the new state is delta-encoded once against the previous tick's and the same
+// bytes go to every player that has that one. Players that just joined, asked
+// for a resync or fell behind get a full snapshot instead, again encoded once.
+public class Room {
+    static final int CHECK_INTERVAL = 20; // ticks between the hashes clients verify
+
+    final String name;
+    final GameState state;
+    final GameServer.Connection[] seats;
+    int players = 0;
+    private char pacmanDirection = ' ';
+    private boolean restartRequested = false;
+
+    private NetSnapshot previous;
+    private NetSnapshot current;
+    private final NetSnapshot blank;
+    private final ByteBuffer delta;
+    private final ByteBuffer full;
+    private int sounds;
+
+    Room(String name, Level level, long seed) {
+        this.name = name;
+        state = new GameState(seed, new GameConfig(), level);
+        state.listener = sound -> sounds |= 1 << sound.ordinal();
+        seats = new GameServer.Connection[state.ghosts.size() + 1];
+        previous = new NetSnapshot(state);
+        current = new NetSnapshot(state);
+        blank = new NetSnapshot(state);
+        previous.capture(state);
+        delta = ByteBuffer.allocate(current.maxBytes()).order(GameServer.ORDER);
+        full = ByteBuffer.allocate(current.maxBytes()).order(GameServer.ORDER);
+    }
+
+    // the seat wanted if it's free, else any free one; -1 if the room is full
+    int join(GameServer.Connection connection, int wanted) {
+        int seat = -1;
+        if (wanted == NetProtocol.SEAT_PACMAN && seats[0] == null) {
+            seat = 0;
+        } else {
+            for (int s = 1; s < seats.length && seat < 0; s++) {
+                if (seats[s] == null) {
+                    seat = s;
+                }
+            }
+            if (seat < 0 && seats[0] == null) {
+                seat = 0;
+            }
+        }
+        if (seat < 0) {
+            return -1;
+        }
+        seats[seat] = connection;
+        players++;
+        if (seat > 0) {
+            state.steerGhost(seat - 1, ' ');
+        }
+        return seat;
+    }
+
+    void leave(GameServer.Connection connection) {
+        int seat = connection.seat;
+        if (seat < 0 || seats[seat] != connection) {
+            return;
+        }
+        seats[seat] = null;
+        players--;
+        if (seat == 0) {
+            pacmanDirection = ' ';
+        } else {
+            state.steerGhost(seat - 1, (char) 0);
+        }
+    }
+
+    // a key after game over starts a new game, applied between ticks
+    void requestRestart() {
+        restartRequested = true;
+    }
+
+    void tick() {
+        if (restartRequested) {
+            restartRequested = false;
+            if (state.gameOver) {
+                state.restart();
+            }
+        }
+        for (int seat = 0; seat < seats.length; seat++) {
+            GameServer.Connection player = seats[seat];
+            if (player == null) {
+                continue;
+            }
+            char direction = player.takeInput();
+            if (seat == 0) {
+                pacmanDirection = direction;
+            } else {
+                state.steerGhost(seat - 1, direction);
+            }
+        }
+        sounds = 0;
+        state.step(pacmanDirection);
+
+        current.capture(state);
+        current.sounds = sounds;
+        boolean check = state.tick % CHECK_INTERVAL == 0;
+        delta.clear();
+        current.write(previous, delta, false, check);
+        delta.flip();
+        boolean fullWritten = false;
+        for (GameServer.Connection player : seats) {
+            if (player == null) {
+                continue;
+            }
+            if (!player.keepingUp()) {
+                player.needsFull = true; // its deltas would pile up; it gets the state when it catches up
+                continue;
+            }
+            if (player.needsFull && !fullWritten) {
+                full.clear();
+                current.write(blank, full, true, true);
+                full.flip();
+                fullWritten = true;
+            }
+            player.sendSnapshot(player.needsFull ? full : delta);
+            player.needsFull = false;
+        }
+        NetSnapshot swap = previous;
+        previous = current;
+        current = swap;
+    }
+}
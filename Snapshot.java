@@ -0,0 +1,114 @@
+// Everything the renderer needs from one simulation tick, copied into
+// preallocated primitive arrays. The simulation thread fills one, publishes it
+// through a SnapshotBuffer, and the render thread draws from it without ever
+// touching the live GameState.
+public class Snapshot {
+    final int rowCount;
+    final int columnCount;
+    final int tileSize;
+    final int boardWidth;
+    final int boardHeight;
+
+    long tick = -1;
+    long tickNanos; // System.nanoTime() when this tick was due
+
+    // positions before and after the tick, for interpolation
+    int pacmanX, pacmanY, pacmanPrevX, pacmanPrevY;
+    char pacmanFacing;
+    boolean isPacmanVisible;
+
+    int ghostCount;
+    int[] ghostX, ghostY, ghostPrevX, ghostPrevY, ghostLook;
+    char[] ghostType;
+
+    boolean areGhostsScared, areGhostsFlashing, showFlashingGhosts;
+    boolean isCherryFlashing, showCherry;
+
+    final TileBits walls;
+    final TileBits pellets;
+    final TileBits cherries;
+    // what pellets and cherries were last copied from, and at which version
+    private TileBits pelletsSource;
+    private int pelletsVersion;
+    private TileBits cherriesSource;
+    private int cherriesVersion;
+
+    int score;
+    int lives;
+    boolean gameOver;
+
+    Snapshot(GameState state) {
+        rowCount = state.rowCount;
+        columnCount = state.columnCount;
+        tileSize = state.tileSize;
+        boardWidth = state.boardWidth;
+        boardHeight = state.boardHeight;
+        int tiles = rowCount * columnCount;
+        walls = new TileBits(tiles);
+        pellets = new TileBits(tiles);
+        cherries = new TileBits(tiles);
+        walls.copyFrom(state.grid.walls);
+        int n = state.ghosts.size();
+        ghostX = new int[n];
+        ghostY = new int[n];
+        ghostPrevX = new int[n];
+        ghostPrevY = new int[n];
+        ghostLook = new int[n];
+        ghostType = new char[n];
+    }
+
+    // copy the state after a tick; prev holds the positions published for the tick before
+    void capture(GameState state, Snapshot prev, long tickNanos) {
+        this.tick = state.tick;
+        this.tickNanos = tickNanos;
+
+        GameState.Block pacman = state.pacman;
+        pacmanX = pacman.x;
+        pacmanY = pacman.y;
+        pacmanPrevX = prev.tick < 0 ? pacman.x : prev.pacmanX;
+        pacmanPrevY = prev.tick < 0 ? pacman.y : prev.pacmanY;
+        pacmanFacing = state.pacmanFacing;
+        isPacmanVisible = state.isPacmanVisible;
+
+        ghostCount = state.ghosts.size();
+        for (int i = 0; i < ghostCount; i++) {
+            GameState.Block ghost = state.ghosts.get(i);
+            ghostX[i] = ghost.x;
+            ghostY[i] = ghost.y;
+            ghostPrevX[i] = prev.tick < 0 ? ghost.x : prev.ghostX[i];
+            ghostPrevY[i] = prev.tick < 0 ? ghost.y : prev.ghostY[i];
+            ghostLook[i] = ghost.look;
+            ghostType[i] = ghost.type;
+        }
+
+        areGhostsScared = state.areGhostsScared;
+        areGhostsFlashing = state.areGhostsFlashing;
+        showFlashingGhosts = state.showFlashingGhosts;
+        isCherryFlashing = state.isCherryFlashing;
+        showCherry = state.showCherry;
+        // whole boards only when they changed, big mazes are megabits
+        if (pelletsSource != state.grid.pellets || pelletsVersion != state.grid.pellets.version) {
+            pellets.copyFrom(state.grid.pellets);
+            pelletsSource = state.grid.pellets;
+            pelletsVersion = state.grid.pellets.version;
+        }
+        if (cherriesSource != state.grid.cherries || cherriesVersion != state.grid.cherries.version) {
+            cherries.copyFrom(state.grid.cherries);
+            cherriesSource = state.grid.cherries;
+            cherriesVersion = state.grid.cherries.version;
+        }
+
+        score = state.score;
+        lives = state.lives;
+        gameOver = state.gameOver;
+    }
+
+    // the last published positions, kept by the simulation for the next capture
+    void copyPositionsFrom(Snapshot other) {
+        tick = other.tick;
+        pacmanX = other.pacmanX;
+        pacmanY = other.pacmanY;
+        System.arraycopy(other.ghostX, 0, ghostX, 0, other.ghostCount);
+        System.arraycopy(other.ghostY, 0, ghostY, 0, other.ghostCount);
+    }
+}
@@ -0,0 +1,35 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Lock-free triple buffer between the simulation (one writer) and the renderer
+// (one reader). The writer fills back() and publish()es it; the reader's latest()
+// swaps in the newest published snapshot if there is one. Neither side ever waits
+// for the other and no snapshot is allocated after construction.
+public class SnapshotBuffer {
+    private static final int FRESH = 4;
+
+    private final Snapshot[] buffers = new Snapshot[3];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;  // writer only
+    private int front = 2; // reader only
+
+    SnapshotBuffer(GameState state) {
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new Snapshot(state);
+        }
+    }
+
+    Snapshot back() {
+        return buffers[back];
+    }
+
+    void publish() {
+        back = middle.getAndSet(back | FRESH) & 3;
+    }
+
+    Snapshot latest() {
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & 3;
+        }
+        return buffers[front];
+    }
+}
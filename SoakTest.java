@@ -0,0 +1,226 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Mixer;
+
+// Plays hours of simulated time through everything a long session keeps
+// running (GameLoop with a replay recorder and a rewind buffer, sounds,
+// telemetry, the renderer) with a random joystick that restarts after every
+// game over, as fast as it can. Every simulated minute it samples the live
+// heap (after a GC), the JVM's threads, the audio lines open on every mixer and
+// the tick and paint times since the last sample, and appends them to a CSV
+// report.
+//
+// At the end the first and last thirds of the samples (after the first tenth,
+// for warm-up) are compared, and the run fails if any of them went up: more
+// live heap beyond noise, more threads, more open audio lines, or ticks that
+// take longer. Sounds are silent under java.awt.headless; run without it to
+// include the real audio line.
+//
+//   java [-Dpacman.level=name] SoakTest [simulated hours] [--draw-every N] [--csv file]
+public class SoakTest {
+    static final int SAMPLE_TICKS = 60 * 20; // a simulated minute at the default rate
+
+    // one row of the report
+    static final class Sample {
+        long tick;
+        double wallSeconds;
+        long heapBytes;
+        int threads;
+        int audioLines;
+        long games;
+        double tickMeanMicros;
+        double tickP99Micros;
+        double tickMaxMicros;
+        double paintMeanMicros;
+
+        String csv() {
+            return String.format("%d,%.1f,%.1f,%d,%d,%d,%d,%.2f,%.2f,%.2f,%.2f", tick, tick / 20.0, wallSeconds,
+                    heapBytes, threads, audioLines, games, tickMeanMicros, tickP99Micros, tickMaxMicros, paintMeanMicros);
+        }
+    }
+
+    static final String HEADER = "tick,simulated_s,wall_s,heap_bytes,threads,audio_lines,games,"
+            + "tick_mean_us,tick_p99_us,tick_max_us,paint_mean_us";
+
+    public static void main(String[] args) throws IOException {
+        double hours = 2;
+        int drawEvery = 4;
+        String csv = "soak-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".csv";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--draw-every": drawEvery = Integer.parseInt(args[++i]); break;
+                case "--csv": csv = args[++i]; break;
+                default: hours = Double.parseDouble(args[i]);
+            }
+        }
+        long ticks = (long) (hours * 3600 * 20);
+
+        Level level = Level.named(System.getProperty("pacman.level", Level.CLASSIC));
+        GameState state = new GameState(1, new GameConfig(), level);
+        SoundEngine sounds = SoundEngine.open();
+        state.listener = sounds::play;
+        Path scratch = Files.createTempDirectory("soak");
+        Telemetry telemetry = new Telemetry(scratch.resolve("telemetry"), Telemetry.DEFAULT_SEGMENT_BYTES);
+        state.telemetry = telemetry.source(state);
+        GameLoop loop = new GameLoop(state, 20);
+        loop.recorder = new ReplayRecorder(scratch.resolve("soak.pmr"), state);
+        loop.rewind = new RewindBuffer(state, PacMan.REWIND_SECONDS, 20);
+
+        Renderer renderer = new Renderer(state.tileSize).awaitSprites();
+        BufferedImage frame = new BufferedImage(state.boardWidth, state.boardHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = frame.createGraphics();
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        LatencyHistogram tickTimes = new LatencyHistogram();
+        long tickSum = 0;
+        long paintNanos = 0;
+        long paints = 0;
+        long games = 0;
+        Rng input = new Rng(7);
+        List<Sample> samples = new ArrayList<>();
+        long start = System.nanoTime();
+
+        System.out.printf("soaking %.1f simulated hours (%d ticks) of %s, report in %s%n", hours, ticks, level.name, csv);
+        try (PrintWriter report = new PrintWriter(Files.newBufferedWriter(Paths.get(csv)))) {
+            report.println(HEADER);
+            for (long i = 1; i <= ticks; i++) {
+                if (i % 8 == 0) {
+                    loop.press("UDLR".charAt(input.nextInt(4)));
+                }
+                if (state.gameOver) {
+                    loop.requestRestart();
+                    games++;
+                }
+                long before = System.nanoTime();
+                loop.tick(before);
+                long between = System.nanoTime();
+                tickTimes.record(between - before);
+                tickSum += between - before;
+                if (i % drawEvery == 0) {
+                    renderer.draw(g, loop.snapshots.latest(), 0.5);
+                    paintNanos += System.nanoTime() - between;
+                    paints++;
+                }
+
+                if (i % SAMPLE_TICKS == 0) {
+                    System.gc(); // what is still reachable, not what the collector hasn't got to yet
+                    Sample s = new Sample();
+                    s.tick = state.tick;
+                    s.wallSeconds = (System.nanoTime() - start) / 1e9;
+                    s.heapBytes = memory.getHeapMemoryUsage().getUsed();
+                    s.threads = threads.getThreadCount();
+                    s.audioLines = openAudioLines();
+                    s.games = games;
+                    s.tickMeanMicros = tickSum / 1e3 / SAMPLE_TICKS;
+                    s.tickP99Micros = tickTimes.percentile(0.99) / 1e3;
+                    s.tickMaxMicros = tickTimes.maxNanos() / 1e3;
+                    s.paintMeanMicros = paints > 0 ? paintNanos / 1e3 / paints : 0;
+                    tickTimes.reset();
+                    tickSum = 0;
+                    paintNanos = 0;
+                    paints = 0;
+                    samples.add(s);
+                    report.println(s.csv());
+                    report.flush(); // a run that is killed still leaves its report
+                    if (samples.size() % 30 == 0) {
+                        System.out.printf("  %.1f h simulated in %.0fs: heap %.1f MB, %d threads, %d audio lines%n",
+                                s.tick / 72000.0, s.wallSeconds, s.heapBytes / 1e6, s.threads, s.audioLines);
+                    }
+                }
+            }
+        }
+
+        loop.recorder.close(state.tick);
+        telemetry.close();
+        try (Stream<Path> files = Files.walk(scratch)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(f -> f.toFile().delete());
+        }
+
+        System.out.printf("%d ticks, %d games in %.0fs (%.0f ticks/s)%n", state.tick, games,
+                (System.nanoTime() - start) / 1e9, state.tick / ((System.nanoTime() - start) / 1e9));
+        int warmUp = Math.max(1, samples.size() / 10);
+        List<Sample> judged = samples.subList(Math.min(warmUp, samples.size()), samples.size());
+        if (judged.size() < 6) {
+            System.out.println("too short to judge a trend: run at least " + (warmUp + 6) + " simulated minutes");
+            System.exit(2);
+        }
+        int failures = 0;
+        // noise floors: a MB of heap, a few microseconds of tick
+        failures += trend("live heap (MB)", judged, s -> s.heapBytes / 1e6, 1.05, 1);
+        failures += trend("threads", judged, s -> s.threads, 1, 0);
+        failures += trend("open audio lines", judged, s -> s.audioLines, 1, 0);
+        failures += trend("mean tick (us)", judged, s -> s.tickMeanMicros, 1.5, 5);
+        failures += trend("p99 tick (us)", judged, s -> s.tickP99Micros, 1.5, 20);
+        if (failures > 0) {
+            System.out.println("FAIL: " + failures + " of them went up; see " + csv);
+            System.exit(1);
+        }
+        System.out.println("OK: nothing grew over the run");
+    }
+
+    interface Metric {
+        double of(Sample s);
+    }
+
+    // compares the medians of the first and last thirds; it went up if the last
+    // is more than ratio times the first and more than floor above it
+    static int trend(String name, List<Sample> samples, Metric metric, double ratio, double floor) {
+        int third = samples.size() / 3;
+        double first = median(samples.subList(0, third), metric);
+        double last = median(samples.subList(samples.size() - third, samples.size()), metric);
+        // least-squares slope over all of them, for the report
+        double n = samples.size();
+        double sx = 0, sy = 0, sxx = 0, sxy = 0;
+        for (Sample s : samples) {
+            double x = s.tick / 72000.0; // hours
+            double y = metric.of(s);
+            sx += x;
+            sy += y;
+            sxx += x * x;
+            sxy += x * y;
+        }
+        double slope = (n * sxy - sx * sy) / Math.max(1e-12, n * sxx - sx * sx);
+        boolean grew = last > first * ratio && last - first > floor;
+        System.out.printf("  %-18s first third %10.2f, last third %10.2f, %+10.3f an hour  %s%n",
+                name, first, last, slope, grew ? "WENT UP" : "ok");
+        return grew ? 1 : 0;
+    }
+
+    private static double median(List<Sample> samples, Metric metric) {
+        double[] values = new double[samples.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = metric.of(samples.get(i));
+        }
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+
+    // lines (clips included) open on every mixer in the JVM, not just ours
+    static int openAudioLines() {
+        int open = 0;
+        try {
+            for (Mixer.Info info : AudioSystem.getMixerInfo()) {
+                open += AudioSystem.getMixer(info).getSourceLines().length;
+            }
+        } catch (RuntimeException e) {
+            // no audio system at all
+        }
+        return open;
+    }
+}
@@ -0,0 +1,16 @@
+// Sound effects the game rules can trigger. GameState only names them; the
+// front end decides how (or whether) they are played.
+public enum Sound {
+    START_MUSIC("start_music.wav"),
+    EAT_DOT("eat_dot.wav"),
+    EAT_CHERRY("eat_cherry.wav"),
+    EAT_GHOST("eat_ghost.wav"),
+    GHOST_SCARED("ghost_scared.wav"),
+    DEATH("death.wav");
+
+    final String fileName;
+
+    Sound(String fileName) {
+        this.fileName = fileName;
+    }
+}
@@ -0,0 +1,218 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.sound.sampled.*;
+
+// Software mixer for the game's sound effects.
+//
+// Every .wav is decoded once at startup into 16-bit stereo PCM. play() only
+// drops the sound's id into a bounded lock-free queue, so the game loop never
+// touches the audio system; a mixer thread drains the queue, mixes up to
+// MAX_VOICES sounds into one SourceDataLine and steals the oldest voice when
+// more than that are playing. When no line can be opened (no sound card,
+// java.awt.headless, tests) the engine runs silent and just counts events.
+public class SoundEngine {
+
+    static final AudioFormat FORMAT = new AudioFormat(44100f, 16, 2, true, false);
+    static final int MAX_VOICES = 8;
+    static final int QUEUE_SIZE = 64; // power of two
+    static final int MIX_FRAMES = 512; // ~12ms per write
+
+    private final short[][] samples = new short[Sound.values().length][];
+
+    // bounded multi-producer queue of Sound ordinals (Vyukov), one consumer
+    private final int[] queue = new int[QUEUE_SIZE];
+    private final AtomicLongArray sequence = new AtomicLongArray(QUEUE_SIZE);
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0;
+
+    // voices are only touched by the mixer thread
+    private final short[][] voiceSamples = new short[MAX_VOICES][];
+    private final int[] voicePosition = new int[MAX_VOICES];
+    private final long[] voiceStarted = new long[MAX_VOICES];
+    private long voiceClock = 0;
+
+    private final SourceDataLine line;
+    private final Thread mixer;
+    private volatile boolean running = true;
+
+    final AtomicLong played = new AtomicLong();
+    final AtomicLong dropped = new AtomicLong();
+    volatile long stolen = 0;
+
+    private SoundEngine(SourceDataLine line) {
+        this.line = line;
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            sequence.set(i, i);
+        }
+        if (line != null) {
+            for (Sound sound : Sound.values()) {
+                samples[sound.ordinal()] = decode(sound.fileName);
+            }
+            mixer = new Thread(this::mixLoop, "sound-mixer");
+            mixer.setDaemon(true);
+            mixer.setPriority(Thread.MAX_PRIORITY);
+            mixer.start();
+        } else {
+            mixer = null;
+        }
+    }
+
+    // real output if the platform has a usable line, silent otherwise
+    static SoundEngine open() {
+        if (!Boolean.getBoolean("java.awt.headless") && !Boolean.getBoolean("pacman.mute")) {
+            try {
+                SourceDataLine line = AudioSystem.getSourceDataLine(FORMAT);
+                line.open(FORMAT, MIX_FRAMES * 4 * 4);
+                line.start();
+                return new SoundEngine(line);
+            } catch (LineUnavailableException | IllegalArgumentException | SecurityException e) {
+                System.err.println("sound disabled: " + e.getMessage());
+            }
+        }
+        return silent();
+    }
+
+    static SoundEngine silent() {
+        return new SoundEngine(null);
+    }
+
+    boolean isSilent() {
+        return line == null;
+    }
+
+    int openLines() {
+        return line != null && line.isOpen() ? 1 : 0;
+    }
+
+    private static short[] decode(String fileName) {
+        File file = new File(fileName);
+        if (!file.exists()) {
+            return new short[0];
+        }
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(file);
+             AudioInputStream pcm = AudioSystem.getAudioInputStream(FORMAT, in)) {
+            byte[] bytes = pcm.readAllBytes();
+            short[] out = new short[bytes.length / 2];
+            for (int i = 0; i < out.length; i++) {
+                out[i] = (short) ((bytes[2 * i] & 0xff) | (bytes[2 * i + 1] << 8));
+            }
+            return out;
+        } catch (UnsupportedAudioFileException | IOException | IllegalArgumentException e) {
+            System.err.println("can't load " + fileName + ": " + e.getMessage());
+            return new short[0];
+        }
+    }
+
+    // never blocks; drops the event if the mixer is QUEUE_SIZE events behind
+    void play(Sound sound) {
+        played.incrementAndGet();
+        if (line == null) {
+            return;
+        }
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & (QUEUE_SIZE - 1));
+            long diff = sequence.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    queue[index] = sound.ordinal();
+                    sequence.lazySet(index, pos + 1);
+                    return;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                dropped.incrementAndGet();
+                return;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    private int poll() {
+        int index = (int) (head & (QUEUE_SIZE - 1));
+        if (sequence.get(index) != head + 1) {
+            return -1;
+        }
+        int value = queue[index];
+        sequence.lazySet(index, head + QUEUE_SIZE);
+        head++;
+        return value;
+    }
+
+    private void startVoice(short[] pcm) {
+        if (pcm.length == 0) {
+            return;
+        }
+        int voice = -1;
+        long oldest = Long.MAX_VALUE;
+        for (int i = 0; i < MAX_VOICES; i++) {
+            if (voiceSamples[i] == null) {
+                voice = i;
+                break;
+            }
+            if (voiceStarted[i] < oldest) {
+                oldest = voiceStarted[i];
+                voice = i;
+            }
+        }
+        if (voiceSamples[voice] != null) {
+            stolen++;
+        }
+        voiceSamples[voice] = pcm;
+        voicePosition[voice] = 0;
+        voiceStarted[voice] = voiceClock++;
+    }
+
+    private void mixLoop() {
+        int[] mix = new int[MIX_FRAMES * 2];
+        byte[] out = new byte[MIX_FRAMES * 4];
+        while (running) {
+            for (int id = poll(); id >= 0; id = poll()) {
+                startVoice(samples[id]);
+            }
+
+            Arrays.fill(mix, 0);
+            for (int v = 0; v < MAX_VOICES; v++) {
+                short[] pcm = voiceSamples[v];
+                if (pcm == null) {
+                    continue;
+                }
+                int pos = voicePosition[v];
+                int n = Math.min(mix.length, pcm.length - pos);
+                for (int i = 0; i < n; i++) {
+                    mix[i] += pcm[pos + i];
+                }
+                pos += n;
+                if (pos >= pcm.length) {
+                    voiceSamples[v] = null;
+                } else {
+                    voicePosition[v] = pos;
+                }
+            }
+
+            for (int i = 0; i < mix.length; i++) {
+                int s = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+                out[2 * i] = (byte) s;
+                out[2 * i + 1] = (byte) (s >> 8);
+            }
+            line.write(out, 0, out.length); // blocks until the line has room, which paces the loop
+        }
+        line.drain();
+        line.close();
+    }
+
+    void close() {
+        running = false;
+        if (mixer != null) {
+            try {
+                mixer.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
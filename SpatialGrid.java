@@ -0,0 +1,104 @@
+import java.util.Arrays;
+
+// Uniform grid broadphase for moving entities. The board is cut into square
+// cells of CELL_TILES tiles (a power of two, so finding a cell is two shifts)
+// and every entity is bucketed by the cell of its top left corner, so "who
+// overlaps this box" only looks at the few cells around it instead of every
+// entity on the board.
+//
+// Buckets are doubly linked lists through next[] and previous[]. An entity
+// moving a few pixels a tick changes cell once in many ticks, so keeping the
+// grid up to date costs a comparison per move rather than a rebuild per tick.
+public class SpatialGrid {
+    static final int CELL_TILES = 4;
+
+    private final int cellShift; // log2 of the cell size in pixels
+    private final int cellRows;
+    private final int cellColumns;
+    private final int[] head;
+    private int[] cellOf = new int[0];
+    private int[] next = new int[0];
+    private int[] previous = new int[0];
+
+    SpatialGrid(int rowCount, int columnCount, int tileSize) {
+        cellShift = Integer.numberOfTrailingZeros(Integer.highestOneBit(CELL_TILES * tileSize));
+        int cellSize = 1 << cellShift;
+        cellRows = (rowCount * tileSize + cellSize - 1) / cellSize;
+        cellColumns = (columnCount * tileSize + cellSize - 1) / cellSize;
+        head = new int[cellRows * cellColumns];
+        Arrays.fill(head, -1);
+    }
+
+    // positions outside the board (the portal tunnel) belong to the edge cells
+    int cell(int x, int y) {
+        int r = Math.max(0, Math.min(cellRows - 1, y >> cellShift));
+        int c = Math.max(0, Math.min(cellColumns - 1, x >> cellShift));
+        return r * cellColumns + c;
+    }
+
+    int cellOf(int index) {
+        return cellOf[index];
+    }
+
+    // forgets everything; entities 0 .. count-1 must then all be add()ed
+    void clear(int count) {
+        if (cellOf.length < count) {
+            cellOf = new int[count];
+            next = new int[count];
+            previous = new int[count];
+        }
+        Arrays.fill(head, -1);
+    }
+
+    void add(int index, int x, int y) {
+        link(index, cell(x, y));
+    }
+
+    // index now has its corner at x, y; nothing to do unless that's a new cell
+    void move(int index, int x, int y) {
+        int cell = cell(x, y);
+        if (cell == cellOf[index]) {
+            return;
+        }
+        int before = previous[index];
+        int after = next[index];
+        if (before >= 0) {
+            next[before] = after;
+        } else {
+            head[cellOf[index]] = after;
+        }
+        if (after >= 0) {
+            previous[after] = before;
+        }
+        link(index, cell);
+    }
+
+    private void link(int index, int cell) {
+        int first = head[cell];
+        cellOf[index] = cell;
+        previous[index] = -1;
+        next[index] = first;
+        if (first >= 0) {
+            previous[first] = index;
+        }
+        head[cell] = index;
+    }
+
+    // every entity in a cell the box [x0, x1] x [y0, y1] touches, so at least
+    // those with their corner inside it, goes into into in no particular order;
+    // returns how many
+    int query(int x0, int y0, int x1, int y1, int[] into) {
+        int n = 0;
+        int r1 = Math.max(0, Math.min(cellRows - 1, y1 >> cellShift));
+        int c1 = Math.max(0, Math.min(cellColumns - 1, x1 >> cellShift));
+        int c0 = Math.max(0, Math.min(cellColumns - 1, x0 >> cellShift));
+        for (int r = Math.max(0, Math.min(cellRows - 1, y0 >> cellShift)); r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                for (int i = head[r * cellColumns + c]; i >= 0; i = next[i]) {
+                    into[n++] = i;
+                }
+            }
+        }
+        return n;
+    }
+}
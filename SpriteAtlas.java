@@ -0,0 +1,120 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.ImageIcon;
+
+// Every sprite in one image, each scaled once to the tile size, so drawing one
+// is an unscaled copy of a tile-sized region of an image the screen can take
+// as it is (one surface for the pipeline to cache instead of eleven). at()
+// makes the same atlas at another size from the decoded PNGs, for a window
+// that has been resized or moved to a screen with another scale.
+//
+// load() decodes the PNGs in parallel on a few short-lived daemon threads and
+// packs them when the last one is in; nothing waits for it unless it asks.
+// They go through the toolkit's decoder (ImageIcon waits for it) rather than
+// ImageIO, whose plugin registry costs more to start than the sprites do to
+// decode. Reading them one after another, out of a jar, on the thread that
+// builds the window kept all of it ahead of the first frame.
+//
+//   atlas layout  one row of tiles in SPRITE_FILES order
+public class SpriteAtlas {
+    static final int WALL = 0;
+    static final int CHERRY = 1;
+    static final int BLUE_GHOST = 2;
+    static final int ORANGE_GHOST = 3;
+    static final int PINK_GHOST = 4;
+    static final int RED_GHOST = 5;
+    static final int SCARED_GHOST = 6;
+    static final int PACMAN_UP = 7;
+    static final int PACMAN_DOWN = 8;
+    static final int PACMAN_LEFT = 9;
+    static final int PACMAN_RIGHT = 10;
+
+    static final String[] SPRITE_FILES = {
+        "wall.png", "cherry.png", "blueGhost.png", "orangeGhost.png", "pinkGhost.png", "redGhost.png",
+        "scaredGhost.png", "pacmanUp.png", "pacmanDown.png", "pacmanLeft.png", "pacmanRight.png",
+    };
+
+    final BufferedImage image;
+    final int tileSize;
+    final long loadNanos; // from load() to packed
+    private final Image[] sources;
+
+    private SpriteAtlas(Image[] sources, int tileSize, long loadNanos) {
+        this.sources = sources;
+        this.image = Renderer.createImage(sources.length * tileSize, tileSize, Transparency.TRANSLUCENT);
+        this.tileSize = tileSize;
+        this.loadNanos = loadNanos;
+        Graphics2D g = image.createGraphics();
+        for (int i = 0; i < sources.length; i++) {
+            g.drawImage(sources[i], i * tileSize, 0, tileSize, tileSize, null);
+        }
+        g.dispose();
+    }
+
+    // this atlas with tiles size pixels wide
+    SpriteAtlas at(int size) {
+        return size == tileSize ? this : new SpriteAtlas(sources, size, loadNanos);
+    }
+
+    // copies sprite to (x, y); the caller skips sprites that are off screen
+    void draw(Graphics g, int sprite, int x, int y) {
+        int sx = sprite * tileSize;
+        g.drawImage(image, x, y, x + tileSize, y + tileSize, sx, 0, sx + tileSize, tileSize, null);
+    }
+
+    // starts decoding; the future fails with an UncheckedIOException if a sprite
+    // is missing or can't be read
+    static CompletableFuture<SpriteAtlas> load(int tileSize) {
+        long start = System.nanoTime();
+        PerfEvents.AssetLoad event = null;
+        if (PerfEvents.ASSET_LOAD.isEnabled()) {
+            event = new PerfEvents.AssetLoad();
+            event.begin();
+        }
+        int threads = Math.min(SPRITE_FILES.length, Math.max(2, Runtime.getRuntime().availableProcessors()));
+        ExecutorService decoders = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "sprite-decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        @SuppressWarnings({"unchecked", "rawtypes"}) // no generic array creation
+        CompletableFuture<Image>[] decoded = new CompletableFuture[SPRITE_FILES.length];
+        for (int i = 0; i < SPRITE_FILES.length; i++) {
+            String file = SPRITE_FILES[i];
+            decoded[i] = CompletableFuture.supplyAsync(() -> decode(file), decoders);
+        }
+        decoders.shutdown(); // the queued decodes still run
+        PerfEvents.AssetLoad started = event;
+        return CompletableFuture.allOf(decoded).thenApply(ignored -> {
+            Image[] sources = new Image[decoded.length];
+            for (int i = 0; i < decoded.length; i++) {
+                sources[i] = decoded[i].join();
+            }
+            SpriteAtlas atlas = new SpriteAtlas(sources, tileSize, System.nanoTime() - start);
+            if (started != null) {
+                started.sprites = SPRITE_FILES.length;
+                started.tileSize = tileSize;
+                started.commit();
+            }
+            return atlas;
+        });
+    }
+
+    private static Image decode(String file) {
+        URL url = SpriteAtlas.class.getResource(file);
+        if (url == null) {
+            throw new UncheckedIOException(new IOException("no sprite " + file + " next to the classes"));
+        }
+        ImageIcon icon = new ImageIcon(url);
+        if (icon.getImageLoadStatus() != MediaTracker.COMPLETE) {
+            throw new UncheckedIOException(new IOException("can't decode sprite " + file));
+        }
+        return icon.getImage();
+    }
+}
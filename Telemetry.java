@@ -0,0 +1,308 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+// Gameplay events for offline analysis: deaths, ghosts eaten and cherries with
+// the tile they happened on, level times and final scores. Each GameState that
+// reports gets a Source; its events go as two longs into a bounded lock-free
+// ring (the same multi-producer queue as SoundEngine's), so a game thread only
+// claims a slot and stores, and any number of games can share one Telemetry.
+// A writer thread drains the ring into gzip segment files.
+//
+// A segment is written as <name>.part and renamed once it is closed, so readers
+// only ever see whole segments. The ring keeps filling while the writer
+// finishes one segment and opens the next. Events are only lost if the writer
+// falls a whole ring behind; they are counted in dropped.
+//
+// Segments stand alone: each starts with the level of every source it mentions.
+//   segment   "PMT" VERSION, then records to the end of the gzip stream
+//   record    type byte, varint source, then
+//             SOURCE: varint rows, varint columns, varint length + UTF-8 level name
+//             others: zigzag varint tick minus the previous record's, varint value
+//   value     GHOST_EATEN, DEATH: pac man's tile << 8 | the ghost's map char
+//             CHERRY: the tile; LEVEL_CLEARED: ticks the level took;
+//             GAME_OVER: the score; GAME_START: 0
+public class Telemetry {
+    static final byte[] MAGIC = {'P', 'M', 'T'};
+    static final int VERSION = 1;
+    static final String SUFFIX = ".pmt.gz";
+
+    static final int SOURCE = 0;
+    static final int GAME_START = 1;
+    static final int GHOST_EATEN = 2;
+    static final int DEATH = 3;
+    static final int CHERRY = 4;
+    static final int LEVEL_CLEARED = 5;
+    static final int GAME_OVER = 6;
+
+    static final int RING = 1 << 16; // events; power of two
+    static final long DEFAULT_SEGMENT_BYTES = 8L << 20; // of events, before compression
+
+    // one game's events; calls come from whichever thread steps that game
+    static final class Source {
+        final Telemetry telemetry;
+        final int id;
+        private long levelStart;
+
+        private Source(Telemetry telemetry, int id) {
+            this.telemetry = telemetry;
+            this.id = id;
+        }
+
+        void started(long tick) {
+            levelStart = tick;
+            telemetry.offer(GAME_START, id, tick, 0);
+        }
+
+        void ghostEaten(long tick, int tile, char ghost) {
+            telemetry.offer(GHOST_EATEN, id, tick, tile << 8 | ghost & 0xff);
+        }
+
+        void died(long tick, int tile, char ghost) {
+            telemetry.offer(DEATH, id, tick, tile << 8 | ghost & 0xff);
+        }
+
+        void cherry(long tick, int tile) {
+            telemetry.offer(CHERRY, id, tick, tile);
+        }
+
+        void levelCleared(long tick) {
+            telemetry.offer(LEVEL_CLEARED, id, tick, (int) (tick - levelStart));
+            levelStart = tick;
+        }
+
+        void gameOver(long tick, int score) {
+            telemetry.offer(GAME_OVER, id, tick, score);
+        }
+    }
+
+    // the ring: event i is words 2i (tick) and 2i + 1 (type, source, value)
+    private final long[] words = new long[2 * RING];
+    private final AtomicLongArray sequence = new AtomicLongArray(RING);
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0; // writer only
+
+    private static final class Board {
+        final String level;
+        final int rows;
+        final int columns;
+
+        Board(String level, int rows, int columns) {
+            this.level = level;
+            this.rows = rows;
+            this.columns = columns;
+        }
+    }
+
+    // what each source plays on, by id; guarded by itself
+    private final ArrayList<Board> sources = new ArrayList<>();
+
+    final Path directory;
+    final long segmentBytes;
+    private final String prefix;
+    private final Thread writer;
+    private volatile boolean closing = false;
+
+    final AtomicLong dropped = new AtomicLong();
+    volatile long written = 0;  // events in closed segments
+    volatile int segments = 0;  // closed segments
+
+    // writer thread only
+    private OutputStream out;
+    private Path part;
+    private long segmentLength;
+    private boolean[] described = new boolean[16]; // sources this segment has a SOURCE record for
+    private long lastTick;
+    private long inSegment;
+    private final byte[] record = new byte[64];
+
+    Telemetry(Path directory, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        prefix = "telemetry-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "-" + pid + "-";
+        for (int i = 0; i < RING; i++) {
+            sequence.set(i, i);
+        }
+        writer = new Thread(this::writeLoop, "telemetry-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // a new game to report on; call from the thread that will step it
+    Source source(GameState state) {
+        int id;
+        synchronized (sources) {
+            id = sources.size();
+            sources.add(new Board(state.level.name, state.rowCount, state.columnCount));
+        }
+        Source source = new Source(this, id);
+        source.started(state.tick);
+        return source;
+    }
+
+    // events taken into the ring so far, dropped ones not included
+    long offered() {
+        return tail.get();
+    }
+
+    private void offer(int type, int source, long tick, int value) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & (RING - 1));
+            long diff = sequence.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    words[2 * index] = tick;
+                    words[2 * index + 1] = (long) type << 56 | (long) (source & 0xffffff) << 32 | (value & 0xffffffffL);
+                    sequence.lazySet(index, pos + 1);
+                    return;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                dropped.incrementAndGet();
+                return;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    // writes out everything offered so far and closes the last segment; call
+    // once the games reporting here have stopped
+    void close() {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                boolean wasClosing = closing;
+                int drained = drain();
+                if (drained == 0) {
+                    if (wasClosing) {
+                        break; // nothing offered before close() is left in the ring
+                    }
+                    LockSupport.parkNanos(this, 10_000_000L);
+                }
+            }
+            endSegment();
+        } catch (IOException e) {
+            System.err.println("telemetry: " + e.getMessage());
+        }
+    }
+
+    private int drain() throws IOException {
+        int drained = 0;
+        while (true) {
+            int index = (int) (head & (RING - 1));
+            if (sequence.get(index) != head + 1) {
+                return drained;
+            }
+            long tick = words[2 * index];
+            long packed = words[2 * index + 1];
+            sequence.lazySet(index, head + RING);
+            head++;
+            drained++;
+            write((int) (packed >>> 56), (int) (packed >>> 32) & 0xffffff, tick, (int) packed);
+        }
+    }
+
+    private void write(int type, int source, long tick, int value) throws IOException {
+        if (out == null) {
+            startSegment();
+        }
+        if (source >= described.length) {
+            described = Arrays.copyOf(described, Math.max(2 * described.length, source + 1));
+        }
+        if (!described[source]) {
+            describe(source);
+            described[source] = true;
+        }
+        int n = 0;
+        record[n++] = (byte) type;
+        n = putVarLong(record, n, source);
+        long delta = tick - lastTick;
+        n = putVarLong(record, n, delta << 1 ^ delta >> 63);
+        n = putVarLong(record, n, value & 0xffffffffL);
+        lastTick = tick;
+        out.write(record, 0, n);
+        segmentLength += n;
+        inSegment++;
+        if (segmentLength >= segmentBytes) {
+            endSegment();
+        }
+    }
+
+    private void describe(int source) throws IOException {
+        Board board;
+        synchronized (sources) {
+            board = sources.get(source);
+        }
+        byte[] name = board.level.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[32 + name.length];
+        int n = 0;
+        bytes[n++] = SOURCE;
+        n = putVarLong(bytes, n, source);
+        n = putVarLong(bytes, n, board.rows);
+        n = putVarLong(bytes, n, board.columns);
+        n = putVarLong(bytes, n, name.length);
+        System.arraycopy(name, 0, bytes, n, name.length);
+        n += name.length;
+        out.write(bytes, 0, n);
+        segmentLength += n;
+    }
+
+    private void startSegment() throws IOException {
+        part = directory.resolve(prefix + segments + SUFFIX + ".part");
+        out = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(part.toFile()), 1 << 16), 1 << 16);
+        out.write(MAGIC);
+        out.write(VERSION);
+        segmentLength = MAGIC.length + 1;
+        Arrays.fill(described, false);
+        lastTick = 0;
+        inSegment = 0;
+    }
+
+    private void endSegment() throws IOException {
+        if (out == null) {
+            return;
+        }
+        out.close();
+        out = null;
+        Path done = directory.resolve(prefix + segments + SUFFIX);
+        Files.move(part, done, StandardCopyOption.ATOMIC_MOVE);
+        written += inSegment;
+        segments++;
+    }
+
+    private static int putVarLong(byte[] into, int at, long value) {
+        while ((value & ~0x7fL) != 0) {
+            into[at++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        into[at++] = (byte) value;
+        return at;
+    }
+}
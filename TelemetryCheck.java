@@ -0,0 +1,112 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+// Checks that Telemetry loses nothing. Plays headless games on several threads
+// into one Telemetry with tiny segments, so it rotates every few hundred
+// events, reads the segments back with TelemetryReport and compares what they
+// hold with what the games counted themselves. Also times an event on the
+// calling thread, against a Telemetry with ordinary segments. Exits with 1 on any difference.
+//
+//   java -Djava.awt.headless=true [-Dpacman.level=name] TelemetryCheck [games] [ticks]
+public class TelemetryCheck {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        Level level = Level.named(System.getProperty("pacman.level", Level.CLASSIC));
+        Path directory = Files.createTempDirectory("telemetry-check");
+        Telemetry telemetry = new Telemetry(directory, 4096);
+
+        // games in parallel, each with its own source, as GameServer rooms or VecEnv games would be
+        long[] ghostsEaten = new long[games];
+        long[] levelsCleared = new long[games];
+        long[] gamesPlayed = new long[games];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                for (int g = first; g < games; g += threads.length) {
+                    GameState state = new GameState(g + 1, new GameConfig(), level);
+                    state.telemetry = telemetry.source(state);
+                    gamesPlayed[g] = 1;
+                    Rng input = new Rng(g);
+                    char direction = ' ';
+                    for (int i = 0; i < ticks; i++) {
+                        if (state.gameOver) {
+                            state.restart();
+                            gamesPlayed[g]++;
+                        }
+                        if (i % 8 == 0) {
+                            direction = "UDLR".charAt(input.nextInt(4));
+                        }
+                        state.step(direction);
+                    }
+                    ghostsEaten[g] = state.ghostsEaten;
+                    levelsCleared[g] = state.levelsCleared;
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long offered = telemetry.offered();
+        long dropped = telemetry.dropped.get();
+        telemetry.close();
+
+        // what an event costs the game thread, in batches the writer keeps up with
+        Path timingDirectory = Files.createTempDirectory("telemetry-timing");
+        Telemetry timing = new Telemetry(timingDirectory, Telemetry.DEFAULT_SEGMENT_BYTES);
+        Telemetry.Source source = timing.source(new GameState(1, new GameConfig(), level));
+        int batch = Telemetry.RING / 4;
+        long best = Long.MAX_VALUE;
+        for (int b = 0; b < 50; b++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < batch; i++) {
+                source.cherry(b, i % (level.rowCount * level.columnCount));
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            Thread.sleep(20);
+        }
+        timing.close();
+        dropped += timing.dropped.get();
+
+        TelemetryReport.Stats stats = TelemetryReport.readAll(ForkJoinPool.commonPool(),
+                TelemetryReport.segments(List.of(directory.toString())));
+        long expectedGhosts = 0;
+        long expectedLevels = 0;
+        long expectedGames = 0;
+        for (int g = 0; g < games; g++) {
+            expectedGhosts += ghostsEaten[g];
+            expectedLevels += levelsCleared[g];
+            expectedGames += gamesPlayed[g];
+        }
+        TelemetryReport.LevelStats read = stats.levels.values().iterator().next();
+        TelemetryReport.print(stats, 3, 20);
+        System.out.printf("%d events in %d segments, %d dropped; an event costs the game thread %.1f ns%n",
+                stats.events, stats.segments, dropped, best / (double) batch);
+
+        boolean ok = stats.errors.isEmpty() && dropped == 0 && stats.events == offered
+                && telemetry.written == offered && read.ghostsEaten == expectedGhosts
+                && read.levelsCleared == expectedLevels && read.games == expectedGames
+                && timing.written == timing.offered();
+        for (Path d : new Path[] {directory, timingDirectory}) {
+            try (Stream<Path> files = Files.walk(d)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+        if (!ok) {
+            System.out.printf("FAIL: %d offered, %d written, %d read; ghosts %d/%d, levels %d/%d, games %d/%d, errors %s%n",
+                    offered, telemetry.written, stats.events, read.ghostsEaten, expectedGhosts,
+                    read.levelsCleared, expectedLevels, read.games, expectedGames, stats.errors);
+            System.exit(1);
+        }
+        System.out.println("OK: every event offered was read back from the rotated segments");
+    }
+}
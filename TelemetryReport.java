@@ -0,0 +1,296 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+// Reads Telemetry segments and prints, per level, how games went: games and
+// scores, deaths by ghost and by maze region, ghosts eaten, cherries and how
+// long levels take. Segments stand alone, so they are decoded in parallel on a
+// fork/join pool, each into its own Stats, and merged at the end; unreadable
+// ones are reported and skipped.
+//
+//   java TelemetryReport [--threads N] [--top N] directory-or-segment...
+public class TelemetryReport {
+    static final int REGION_TILES = 4; // regions are REGION_TILES x REGION_TILES tiles
+    static final String GHOSTS = "ropb";
+
+    // one level's totals
+    static class LevelStats {
+        final int rows;
+        final int columns;
+        long games;
+        long gamesOver;
+        long scoreSum;
+        long deaths;
+        final long[] deathsByGhost = new long[GHOSTS.length() + 1]; // last: any other
+        long ghostsEaten;
+        long cherries;
+        final long[] deathsByRegion;
+        final long[] cherriesByRegion;
+        long[] levelTicks = new long[16];
+        int levelsCleared;
+
+        LevelStats(int rows, int columns) {
+            this.rows = rows;
+            this.columns = columns;
+            deathsByRegion = new long[regions(rows) * regions(columns)];
+            cherriesByRegion = new long[deathsByRegion.length];
+        }
+
+        int region(int tile) {
+            int r = Math.min(tile / columns, rows - 1);
+            int c = tile % columns;
+            return (r / REGION_TILES) * regions(columns) + c / REGION_TILES;
+        }
+
+        void levelCleared(long ticks) {
+            if (levelsCleared == levelTicks.length) {
+                levelTicks = Arrays.copyOf(levelTicks, 2 * levelTicks.length);
+            }
+            levelTicks[levelsCleared++] = ticks;
+        }
+
+        void merge(LevelStats other) {
+            games += other.games;
+            gamesOver += other.gamesOver;
+            scoreSum += other.scoreSum;
+            deaths += other.deaths;
+            ghostsEaten += other.ghostsEaten;
+            cherries += other.cherries;
+            for (int i = 0; i < deathsByGhost.length; i++) {
+                deathsByGhost[i] += other.deathsByGhost[i];
+            }
+            for (int i = 0; i < deathsByRegion.length; i++) {
+                deathsByRegion[i] += other.deathsByRegion[i];
+                cherriesByRegion[i] += other.cherriesByRegion[i];
+            }
+            for (int i = 0; i < other.levelsCleared; i++) {
+                levelCleared(other.levelTicks[i]);
+            }
+        }
+    }
+
+    static int regions(int tiles) {
+        return (tiles + REGION_TILES - 1) / REGION_TILES;
+    }
+
+    // everything read, by level name and size
+    static class Stats {
+        final Map<String, LevelStats> levels = new HashMap<>();
+        long segments;
+        long events;
+        long bytes;
+        final List<String> errors = new ArrayList<>();
+
+        LevelStats level(String name, int rows, int columns) {
+            return levels.computeIfAbsent(name + " " + rows + "x" + columns, k -> new LevelStats(rows, columns));
+        }
+
+        Stats merge(Stats other) {
+            for (Map.Entry<String, LevelStats> e : other.levels.entrySet()) {
+                LevelStats mine = levels.get(e.getKey());
+                if (mine == null) {
+                    levels.put(e.getKey(), e.getValue());
+                } else {
+                    mine.merge(e.getValue());
+                }
+            }
+            segments += other.segments;
+            events += other.events;
+            bytes += other.bytes;
+            errors.addAll(other.errors);
+            return this;
+        }
+    }
+
+    static Stats read(Path segment) {
+        Stats stats = new Stats();
+        try (InputStream in = new BufferedInputStream(new GZIPInputStream(Files.newInputStream(segment), 1 << 16), 1 << 16)) {
+            for (byte b : Telemetry.MAGIC) {
+                if (in.read() != b) {
+                    throw new IOException("not a telemetry segment");
+                }
+            }
+            int version = in.read();
+            if (version != Telemetry.VERSION) {
+                throw new IOException("version " + version + ", this reads " + Telemetry.VERSION);
+            }
+            LevelStats[] sources = new LevelStats[16];
+            int type;
+            while ((type = in.read()) >= 0) {
+                int source = (int) getVarLong(in);
+                if (type == Telemetry.SOURCE) {
+                    int rows = (int) getVarLong(in);
+                    int columns = (int) getVarLong(in);
+                    byte[] name = new byte[(int) getVarLong(in)];
+                    if (in.readNBytes(name, 0, name.length) != name.length) {
+                        throw new EOFException();
+                    }
+                    if (source >= sources.length) {
+                        sources = Arrays.copyOf(sources, Math.max(2 * sources.length, source + 1));
+                    }
+                    sources[source] = stats.level(new String(name, StandardCharsets.UTF_8), rows, columns);
+                    continue;
+                }
+                getVarLong(in); // tick; nothing here is by time of day
+                int value = (int) getVarLong(in);
+                LevelStats level = source < sources.length ? sources[source] : null;
+                if (level == null) {
+                    throw new IOException("an event from source " + source + " before its level");
+                }
+                stats.events++;
+                switch (type) {
+                    case Telemetry.GAME_START: level.games++; break;
+                    case Telemetry.GHOST_EATEN: level.ghostsEaten++; break;
+                    case Telemetry.DEATH:
+                        level.deaths++;
+                        int ghost = GHOSTS.indexOf((char) (value & 0xff));
+                        level.deathsByGhost[ghost >= 0 ? ghost : GHOSTS.length()]++;
+                        level.deathsByRegion[level.region(value >>> 8)]++;
+                        break;
+                    case Telemetry.CHERRY:
+                        level.cherries++;
+                        level.cherriesByRegion[level.region(value)]++;
+                        break;
+                    case Telemetry.LEVEL_CLEARED: level.levelCleared(value); break;
+                    case Telemetry.GAME_OVER:
+                        level.gamesOver++;
+                        level.scoreSum += value;
+                        break;
+                    default: throw new IOException("unknown event type " + type);
+                }
+            }
+            stats.segments++;
+            stats.bytes += Files.size(segment);
+        } catch (IOException | RuntimeException e) {
+            stats.errors.add(segment + ": " + e);
+        }
+        return stats;
+    }
+
+    private static long getVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("segment ends inside a record");
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("varint too long");
+    }
+
+    static List<Path> segments(List<String> paths) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        for (String p : paths) {
+            Path path = Paths.get(p);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.walk(path)) {
+                    segments.addAll(files.filter(f -> f.getFileName().toString().endsWith(Telemetry.SUFFIX))
+                            .sorted().collect(Collectors.toList()));
+                }
+            } else {
+                segments.add(path);
+            }
+        }
+        return segments;
+    }
+
+    static Stats readAll(ForkJoinPool pool, List<Path> segments) {
+        return pool.submit(() -> segments.parallelStream().collect(
+                Stats::new,
+                (stats, segment) -> stats.merge(read(segment)),
+                Stats::merge)).join();
+    }
+
+    static void print(Stats stats, int top, double tickRate) {
+        for (Map.Entry<String, LevelStats> e : new TreeMap<>(stats.levels).entrySet()) {
+            LevelStats l = e.getValue();
+            System.out.printf("%s: %d games, %d over, mean final score %.0f%n", e.getKey(), l.games, l.gamesOver,
+                    l.scoreSum / (double) Math.max(1, l.gamesOver));
+            StringBuilder byGhost = new StringBuilder();
+            for (int g = 0; g < l.deathsByGhost.length; g++) {
+                if (l.deathsByGhost[g] > 0) {
+                    byGhost.append(byGhost.length() == 0 ? "" : ", ")
+                            .append(g < GHOSTS.length() ? String.valueOf(GHOSTS.charAt(g)) : "other").append(' ')
+                            .append(String.format("%.0f%%", 100.0 * l.deathsByGhost[g] / l.deaths));
+                }
+            }
+            System.out.printf("  %d deaths (%.2f a game%s), %d ghosts eaten, %d cherries%n", l.deaths,
+                    l.deaths / (double) Math.max(1, l.games), byGhost.length() > 0 ? "; by " + byGhost : "",
+                    l.ghostsEaten, l.cherries);
+            if (l.levelsCleared > 0) {
+                long[] ticks = Arrays.copyOf(l.levelTicks, l.levelsCleared);
+                Arrays.sort(ticks);
+                System.out.printf("  %d levels cleared, time per level p50 %.1fs p90 %.1fs max %.1fs%n", ticks.length,
+                        ticks[(ticks.length - 1) / 2] / tickRate, ticks[(int) ((ticks.length - 1) * 0.9)] / tickRate,
+                        ticks[ticks.length - 1] / tickRate);
+            }
+            printRegions("deaths", l, l.deathsByRegion, l.deaths, top);
+            printRegions("cherries", l, l.cherriesByRegion, l.cherries, top);
+        }
+    }
+
+    private static void printRegions(String what, LevelStats l, long[] counts, long total, int top) {
+        Integer[] order = new Integer[counts.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+        for (int k = 0; k < Math.min(top, order.length) && counts[order[k]] > 0; k++) {
+            int region = order[k];
+            int r = region / regions(l.columns) * REGION_TILES;
+            int c = region % regions(l.columns) * REGION_TILES;
+            System.out.printf("  %s rows %d-%d, columns %d-%d: %d (%.1f%%)%n", k == 0 ? "most " + what + ":" : "   ",
+                    r, Math.min(r + REGION_TILES, l.rows) - 1, c, Math.min(c + REGION_TILES, l.columns) - 1,
+                    counts[region], 100.0 * counts[region] / total);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int top = 5;
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--top": top = Integer.parseInt(args[++i]); break;
+                default: paths.add(args[i]);
+            }
+        }
+        if (paths.isEmpty()) {
+            System.out.println("usage: java TelemetryReport [--threads N] [--top N] directory-or-segment...");
+            System.exit(2);
+        }
+        List<Path> segments = segments(paths);
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Stats stats = readAll(pool, segments);
+        pool.shutdown();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        print(stats, top, Integer.getInteger("pacman.tickRate", 20));
+        System.out.printf("%d segments, %d events, %.1f MB compressed, read in %.2fs on %d threads (%.0f events/s)%n",
+                stats.segments, stats.events, stats.bytes / 1e6, seconds, threads, stats.events / seconds);
+        for (String error : stats.errors) {
+            System.out.println("skipped " + error);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+import java.util.Arrays;
+
+// Hashed timing wheel keyed on simulation ticks. Everything the rules do "so
+// many ticks from now" is an entry here instead of a countdown checked every
+// tick or a Swing timer on the wall clock, so timed effects stop when the
+// simulation stops and replay exactly.
+//
+// An entry due at tick t hangs in slot t % slots; advancing one tick looks at
+// that one slot, whatever else is pending, and entries more than a wheel turn
+// ahead just stay where they are until their turn comes round. Entries due on
+// the same tick fire in the order they were scheduled. Scheduling and
+// cancelling are O(1) and, once the pool has grown to the busiest moment, don't
+// allocate.
+//
+// Entries are rows in parallel arrays, linked per slot through next/previous.
+// A handle is the row and its generation, so cancelling an entry that already
+// fired (or whose row has been reused) does nothing.
+public class TickScheduler {
+    static final long NONE = -1;
+
+    // called for every entry as it comes due
+    interface Task {
+        void fire(int kind, int arg);
+    }
+
+    private final int mask;
+    private final int[] head;
+    private final int[] tail;
+    private final int ready; // extra slot: the entries firing right now
+
+    private long[] due = new long[0];
+    private int[] kind = new int[0];
+    private int[] arg = new int[0];
+    private int[] next = new int[0];
+    private int[] previous = new int[0];
+    private int[] slotOf = new int[0];   // -1 when the row is free
+    private int[] generation = new int[0];
+    private int free = -1;
+    private int pending = 0;
+    private long now = 0;
+
+    // slots is rounded up to a power of two; make it longer than most delays
+    TickScheduler(int slots) {
+        int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        mask = size - 1;
+        ready = size;
+        head = new int[size + 1];
+        tail = new int[size + 1];
+        Arrays.fill(head, -1);
+        Arrays.fill(tail, -1);
+        grow(64);
+    }
+
+    // fires delay ticks from now, delay >= 1
+    long schedule(int delay, int kind, int arg) {
+        if (delay < 1) {
+            throw new IllegalArgumentException("delay " + delay);
+        }
+        if (free < 0) {
+            grow(2 * due.length);
+        }
+        int row = free;
+        free = next[row];
+        due[row] = now + delay;
+        this.kind[row] = kind;
+        this.arg[row] = arg;
+        append(row, (int) (due[row] & mask));
+        pending++;
+        return (long) generation[row] << 32 | row;
+    }
+
+    // true if it was still pending
+    boolean cancel(long handle) {
+        if (handle < 0) {
+            return false;
+        }
+        int row = (int) handle;
+        if (row >= slotOf.length || slotOf[row] < 0 || generation[row] != (int) (handle >>> 32)) {
+            return false;
+        }
+        unlink(row);
+        release(row);
+        return true;
+    }
+
+    // moves the clock on to tick, firing everything due on the way
+    void advanceTo(long tick, Task task) {
+        while (now < tick) {
+            now++;
+            int slot = (int) (now & mask);
+            // move what's due out of the slot first, so tasks can schedule and
+            // cancel anything, including each other, while they run
+            for (int row = head[slot]; row >= 0; ) {
+                int following = next[row];
+                if (due[row] == now) {
+                    unlink(row);
+                    append(row, ready);
+                }
+                row = following;
+            }
+            while (head[ready] >= 0) {
+                int row = head[ready];
+                int k = kind[row];
+                int a = arg[row];
+                unlink(row);
+                release(row);
+                task.fire(k, a);
+            }
+        }
+    }
+
+    // makes every pending entry due delay ticks later, in the same order; for
+    // freezing the game around a pause that runs on this wheel too. Not from a
+    // task, while the entries due now are being fired
+    void postpone(int delay) {
+        if (head[ready] >= 0) {
+            throw new IllegalStateException("postpone() from a task");
+        }
+        // gather them slot by slot, so entries due on one tick stay in order
+        for (int slot = 0; slot <= mask; slot++) {
+            while (head[slot] >= 0) {
+                int row = head[slot];
+                unlink(row);
+                append(row, ready);
+            }
+        }
+        while (head[ready] >= 0) {
+            int row = head[ready];
+            unlink(row);
+            due[row] += delay;
+            append(row, (int) (due[row] & mask));
+        }
+    }
+
+    // of what is pending, in a fixed order, for GameState.stateHash()
+    long stateHash() {
+        long h = pending;
+        for (int slot = 0; slot <= mask; slot++) {
+            for (int row = head[slot]; row >= 0; row = next[row]) {
+                h = (h ^ (due[row] - now)) * 0x100000001b3L;
+                h = (h ^ ((long) kind[row] << 32 | (arg[row] & 0xffffffffL))) * 0x100000001b3L;
+            }
+        }
+        return h;
+    }
+
+    // longs save() can write at most while no more rows are added
+    int savedLength() {
+        return 2 + 3 * due.length;
+    }
+
+    // the clock and every pending entry, slot by slot in firing order, for
+    // RewindBuffer: now, count, then (row << 32 | generation), due, (kind << 32 | arg)
+    // each. Returns the index after them
+    int save(long[] into, int at) {
+        into[at++] = now;
+        into[at++] = pending;
+        for (int slot = 0; slot <= mask; slot++) {
+            for (int row = head[slot]; row >= 0; row = next[row]) {
+                into[at++] = (long) row << 32 | (generation[row] & 0xffffffffL);
+                into[at++] = due[row];
+                into[at++] = (long) kind[row] << 32 | (arg[row] & 0xffffffffL);
+            }
+        }
+        return at;
+    }
+
+    // back to what save() wrote, rows and generations included, so the handles
+    // saved alongside it cancel the right entries; returns the index after it
+    int restore(long[] from, int at) {
+        now = from[at++];
+        int count = (int) from[at++];
+        Arrays.fill(head, -1);
+        Arrays.fill(tail, -1);
+        Arrays.fill(slotOf, -1);
+        pending = 0;
+        for (int i = 0; i < count; i++) {
+            long rowAndGeneration = from[at++];
+            int row = (int) (rowAndGeneration >>> 32);
+            if (row >= due.length) {
+                grow(Integer.highestOneBit(row) << 1);
+            }
+            generation[row] = (int) rowAndGeneration;
+            due[row] = from[at++];
+            long kindAndArg = from[at++];
+            kind[row] = (int) (kindAndArg >>> 32);
+            arg[row] = (int) kindAndArg;
+            append(row, (int) (due[row] & mask));
+            pending++;
+        }
+        free = -1;
+        for (int row = due.length - 1; row >= 0; row--) {
+            if (slotOf[row] < 0) {
+                next[row] = free;
+                free = row;
+            }
+        }
+        return at;
+    }
+
+    private void append(int row, int slot) {
+        slotOf[row] = slot;
+        next[row] = -1;
+        previous[row] = tail[slot];
+        if (tail[slot] >= 0) {
+            next[tail[slot]] = row;
+        } else {
+            head[slot] = row;
+        }
+        tail[slot] = row;
+    }
+
+    private void unlink(int row) {
+        int slot = slotOf[row];
+        if (previous[row] >= 0) {
+            next[previous[row]] = next[row];
+        } else {
+            head[slot] = next[row];
+        }
+        if (next[row] >= 0) {
+            previous[next[row]] = previous[row];
+        } else {
+            tail[slot] = previous[row];
+        }
+    }
+
+    private void release(int row) {
+        slotOf[row] = -1;
+        generation[row] = (generation[row] + 1) & Integer.MAX_VALUE; // handles stay positive
+        next[row] = free;
+        free = row;
+        pending--;
+    }
+
+    private void grow(int rows) {
+        int old = due.length;
+        due = Arrays.copyOf(due, rows);
+        kind = Arrays.copyOf(kind, rows);
+        arg = Arrays.copyOf(arg, rows);
+        next = Arrays.copyOf(next, rows);
+        previous = Arrays.copyOf(previous, rows);
+        slotOf = Arrays.copyOf(slotOf, rows);
+        generation = Arrays.copyOf(generation, rows);
+        for (int row = rows - 1; row >= old; row--) {
+            slotOf[row] = -1;
+            next[row] = free;
+            free = row;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// One bit per tile over a plain long[], so whole boards can be copied word by
+// word (level reset, render snapshots) without allocating. Method names follow
+// java.util.BitSet.
+//
+// The number of set bits is kept up to date, so cardinality() and isEmpty() don't
+// scan, and version changes with every write, so a copy can tell it is current.
+public class TileBits {
+    final long[] words;
+    final int size;
+    private int count = 0;
+    int version = 0;
+
+    TileBits(int size) {
+        this.size = size;
+        this.words = new long[(size + 63) >>> 6];
+    }
+
+    boolean get(int i) {
+        return (words[i >>> 6] & (1L << i)) != 0;
+    }
+
+    void set(int i) {
+        long word = words[i >>> 6];
+        if ((word & (1L << i)) == 0) {
+            words[i >>> 6] = word | 1L << i;
+            count++;
+            version++;
+        }
+    }
+
+    void clear(int i) {
+        long word = words[i >>> 6];
+        if ((word & (1L << i)) != 0) {
+            words[i >>> 6] = word & ~(1L << i);
+            count--;
+            version++;
+        }
+    }
+
+    void clear() {
+        Arrays.fill(words, 0);
+        count = 0;
+        version++;
+    }
+
+    void copyFrom(TileBits other) {
+        System.arraycopy(other.words, 0, words, 0, words.length);
+        count = other.count;
+        version++;
+    }
+
+    // flips the bits set in bits in word w (a diff from NetSnapshot)
+    void xorWord(int w, long bits) {
+        long word = words[w];
+        words[w] = word ^ bits;
+        count += Long.bitCount(word ^ bits) - Long.bitCount(word);
+        version++;
+    }
+
+    // words from a little-endian buffer, as Level stores them
+    void read(ByteBuffer data, int offset) {
+        data.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(offset).asLongBuffer().get(words);
+        count = 0;
+        for (long w : words) {
+            count += Long.bitCount(w);
+        }
+        version++;
+    }
+
+    // returns the offset after the words
+    int write(ByteBuffer data, int offset) {
+        for (int i = 0; i < words.length; i++) {
+            data.putLong(offset + 8 * i, words[i]);
+        }
+        return offset + 8 * words.length;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    int cardinality() {
+        return count;
+    }
+
+    // count (at most 32) bits from index from, as the low bits of an int
+    int bits(int from, int count) {
+        int w = from >>> 6;
+        int shift = from & 63;
+        long word = words[w] >>> shift;
+        if (shift + count > 64) {
+            word |= words[w + 1] << (64 - shift);
+        }
+        return (int) (word & ((1L << count) - 1));
+    }
+
+    // like nextSetBit, but only looks at bits before to
+    int nextSetBit(int from, int to) {
+        to = Math.min(to, size);
+        if (from >= to) {
+            return -1;
+        }
+        int w = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long word = words[w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                int i = (w << 6) + Long.numberOfTrailingZeros(word);
+                return i < to ? i : -1;
+            }
+            if (++w > last) {
+                return -1;
+            }
+            word = words[w];
+        }
+    }
+
+    // index of the first set bit at or after from, -1 if none
+    int nextSetBit(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        int w = from >>> 6;
+        long word = words[w] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == words.length) {
+                return -1;
+            }
+            word = words[w];
+        }
+    }
+}
@@ -0,0 +1,83 @@
+// Tile-indexed occupancy grid, filled once from a Level.
+// Walls, pellets and cherries sit on whole tiles, so instead of testing an
+// entity against every object we only look at the few tiles its bounding box
+// overlaps. Pellets and cherries are one bit per tile, indexed row * columns + column.
+public class TileGrid {
+    final int rowCount;
+    final int columnCount;
+    final int tileSize;
+
+    final TileBits walls;
+
+    final TileBits pellets;
+    final TileBits cherries;
+    // pellets as loaded from the map; a level reset copies it back into pellets
+    final TileBits pelletTemplate;
+
+    TileGrid(int rowCount, int columnCount, int tileSize) {
+        this.rowCount = rowCount;
+        this.columnCount = columnCount;
+        this.tileSize = tileSize;
+        this.walls = new TileBits(rowCount * columnCount);
+        this.pellets = new TileBits(rowCount * columnCount);
+        this.cherries = new TileBits(rowCount * columnCount);
+        this.pelletTemplate = new TileBits(rowCount * columnCount);
+    }
+
+    // first/last tile touched by the half-open span [p, p + size)
+    int firstTile(int p) {
+        return Math.floorDiv(p, tileSize);
+    }
+
+    int lastTile(int p, int size) {
+        return Math.floorDiv(p + size - 1, tileSize);
+    }
+
+    boolean inBounds(int r, int c) {
+        return r >= 0 && r < rowCount && c >= 0 && c < columnCount;
+    }
+
+    int index(int r, int c) {
+        return r * columnCount + c;
+    }
+
+    void setWall(int r, int c) {
+        walls.set(index(r, c));
+    }
+
+    // tiles outside the board (portal tunnel) never hold walls
+    boolean isWall(int r, int c) {
+        return inBounds(r, c) && walls.get(index(r, c));
+    }
+
+    // same result as collision() against every wall Block of size tileSize
+    boolean hitsWall(int x, int y, int width, int height) {
+        int r1 = lastTile(y, height);
+        int c1 = lastTile(x, width);
+        for (int r = firstTile(y); r <= r1; r++) {
+            for (int c = firstTile(x); c <= c1; c++) {
+                if (isWall(r, c)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    boolean hasPellet(int r, int c) {
+        return inBounds(r, c) && pellets.get(index(r, c));
+    }
+
+    boolean hasCherry(int r, int c) {
+        return inBounds(r, c) && cherries.get(index(r, c));
+    }
+
+    int pelletCount() {
+        return pellets.cardinality();
+    }
+
+    // back to the pellets the map started with, no allocation once sized
+    void resetPellets() {
+        pellets.copyFrom(pelletTemplate);
+    }
+}
@@ -0,0 +1,347 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.LockSupport;
+
+// Many independent games stepped in lockstep for training agents, with every
+// input and output in one flat buffer instead of objects: a trainer writes an
+// action per game, step() plays one tick of each game and writes back a reward,
+// a done flag and the board as per-tile byte planes. The buffer can be direct
+// memory in this process or a memory-mapped file another process (numpy.memmap)
+// drives through the request/complete counters in its header, so nothing is
+// copied or serialized either way.
+//
+// A game that ends is restarted at once; its done flag is set and the planes
+// already show the new game, as gym's vector envs do. Game i is seeded from
+// (seed, i) as in BalanceSweeper, so a run is the same however many threads
+// step it. Planes are kept up to date rather than redrawn: pellets by diffing
+// bit words, ghosts and pac man by moving counts between tiles, so a step costs
+// about what the tick costs.
+//
+// Buffer layout, little endian, sections 64-byte aligned:
+//   header        int magic 'PMVE', version, envs, rows, columns, channels,
+//                 actionsAt, rewardsAt, donesAt, observationsAt;
+//                 long requested at 40 (trainer), long completed at 48 (env)
+//   actions       envs bytes: 0 keep going, 1 up, 2 down, 3 left, 4 right
+//   rewards       envs float32: score gained this step
+//   dones         envs bytes: 1 if the game ended this step
+//   observations  envs x CHANNELS x rows x columns bytes, see the constants;
+//                 walls, pellets and cherries 0/1, the others a count
+//
+// Driving it from outside: write actions, then store requested + 1 at offset
+// 40; the step is done when completed at 48 reaches that. Storing -1 in
+// requested stops serve().
+//
+//   java [-Dpacman.level=name] VecEnv file envs [seed]
+public class VecEnv {
+    static final int MAGIC = 0x45564d50; // "PMVE"
+    static final int VERSION = 2; // 2: FRIGHTENED follows isCherryActive, not the scared look
+
+    static final int WALLS = 0;
+    static final int PELLETS = 1;
+    static final int GHOSTS = 2;
+    static final int PACMAN = 3;
+    static final int FRIGHTENED = 4; // ghosts pac man would eat on touching them (isCherryActive)
+    static final int CHERRIES = 5;
+    static final int CHANNELS = 6;
+
+    static final int REQUESTED = 40;
+    static final int COMPLETED = 48;
+    static final int HEADER = 64;
+    static final int CHUNK = 64; // games per fork/join task
+
+    private static final char[] ACTIONS = {' ', 'U', 'D', 'L', 'R'};
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    final int envs;
+    final int rows;
+    final int columns;
+    final ByteBuffer buffer;
+    final int actionsAt;
+    final int rewardsAt;
+    final int donesAt;
+    final int observationsAt;
+    private final int planeSize;
+    private final GameState[] games;
+
+    // per game, what its planes show
+    private final long[][] shownPellets;
+    private final long[][] shownCherries;
+    private final int[][] shownGhosts;    // tile, -1 for none
+    private final boolean[][] shownScared;
+    private final int[] shownPacman;
+
+    private final Chunk[] chunks;
+
+    // total bytes a buffer for envs games on level needs; a ByteBuffer can't
+    // hold more than Integer.MAX_VALUE
+    static int bytesNeeded(Level level, int envs) {
+        long bytes = align(align(align(HEADER + (long) envs) + 4L * envs) + envs)
+                + (long) envs * CHANNELS * level.rowCount * level.columnCount;
+        if (envs < 0 || bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(envs + " games of " + level.rowCount + "x" + level.columnCount
+                    + " need " + bytes + " bytes, more than one buffer can hold (" + Integer.MAX_VALUE + ")");
+        }
+        return (int) bytes;
+    }
+
+    private static long align(long at) {
+        return (at + 63) & ~63L;
+    }
+
+    // buffer must be at least bytesNeeded() long; it is written with the
+    // header and every game's starting board
+    VecEnv(Level level, int envs, long seed, ByteBuffer buffer) {
+        if (buffer.capacity() < bytesNeeded(level, envs)) {
+            throw new IllegalArgumentException("the buffer holds " + buffer.capacity() + " bytes, "
+                    + envs + " games need " + bytesNeeded(level, envs));
+        }
+        this.envs = envs;
+        this.rows = level.rowCount;
+        this.columns = level.columnCount;
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        actionsAt = HEADER;
+        rewardsAt = (int) align(actionsAt + envs);
+        donesAt = (int) align(rewardsAt + 4 * envs);
+        observationsAt = (int) align(donesAt + envs);
+        planeSize = rows * columns;
+
+        games = new GameState[envs];
+        shownPellets = new long[envs][];
+        shownCherries = new long[envs][];
+        shownGhosts = new int[envs][];
+        shownScared = new boolean[envs][];
+        shownPacman = new int[envs];
+        for (int i = 0; i < envs; i++) {
+            long gameSeed = new Rng(seed ^ (i * 0x9E3779B97F4A7C15L)).nextLong();
+            games[i] = new GameState(gameSeed, new GameConfig(), level);
+            shownPellets[i] = new long[games[i].grid.pellets.words.length];
+            shownCherries[i] = new long[games[i].grid.cherries.words.length];
+            shownGhosts[i] = new int[games[i].ghosts.size()];
+            shownScared[i] = new boolean[games[i].ghosts.size()];
+        }
+
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, envs);
+        buffer.putInt(12, rows);
+        buffer.putInt(16, columns);
+        buffer.putInt(20, CHANNELS);
+        buffer.putInt(24, actionsAt);
+        buffer.putInt(28, rewardsAt);
+        buffer.putInt(32, donesAt);
+        buffer.putInt(36, observationsAt);
+        buffer.putLong(REQUESTED, 0);
+        buffer.putLong(COMPLETED, 0);
+        for (int i = 0; i < envs; i++) {
+            buffer.put(actionsAt + i, (byte) 0);
+            buffer.putFloat(rewardsAt + 4 * i, 0);
+            buffer.put(donesAt + i, (byte) 0);
+            reset(i);
+        }
+
+        chunks = new Chunk[(envs + CHUNK - 1) / CHUNK];
+        for (int k = 0; k < chunks.length; k++) {
+            chunks[k] = new Chunk(k * CHUNK, Math.min(envs, (k + 1) * CHUNK));
+        }
+    }
+
+    GameState game(int i) {
+        return games[i];
+    }
+
+    // one tick of every game with the actions in the buffer
+    void step() {
+        if (chunks.length < 2 || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            step(0, envs);
+            return;
+        }
+        for (Chunk chunk : chunks) {
+            chunk.reinitialize();
+        }
+        ForkJoinTask.invokeAll(chunks);
+    }
+
+    @SuppressWarnings("serial") // never serialized
+    private final class Chunk extends RecursiveAction {
+        final int from;
+        final int to;
+
+        Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            step(from, to);
+        }
+    }
+
+    private void step(int from, int to) {
+        for (int i = from; i < to; i++) {
+            GameState game = games[i];
+            int action = buffer.get(actionsAt + i);
+            int score = game.score;
+            game.step(action > 0 && action < ACTIONS.length ? ACTIONS[action] : ' ');
+            buffer.putFloat(rewardsAt + 4 * i, game.score - score);
+            if (game.gameOver) {
+                buffer.put(donesAt + i, (byte) 1);
+                game.restart();
+                reset(i);
+            } else {
+                buffer.put(donesAt + i, (byte) 0);
+                observe(i);
+            }
+        }
+    }
+
+    // draws game i's planes from nothing
+    private void reset(int i) {
+        GameState game = games[i];
+        int base = observationsAt + i * CHANNELS * planeSize;
+        for (int p = 0; p < CHANNELS * planeSize; p++) {
+            buffer.put(base + p, (byte) 0);
+        }
+        TileBits walls = game.grid.walls;
+        for (int t = walls.nextSetBit(0, planeSize); t >= 0; t = walls.nextSetBit(t + 1, planeSize)) {
+            buffer.put(base + WALLS * planeSize + t, (byte) 1);
+        }
+        Arrays.fill(shownPellets[i], 0);
+        Arrays.fill(shownCherries[i], 0);
+        Arrays.fill(shownGhosts[i], -1);
+        Arrays.fill(shownScared[i], false);
+        shownPacman[i] = -1;
+        observe(i);
+    }
+
+    // brings game i's planes up to date with what changed since the last call
+    private void observe(int i) {
+        GameState game = games[i];
+        int base = observationsAt + i * CHANNELS * planeSize;
+        syncBits(game.grid.pellets, shownPellets[i], base + PELLETS * planeSize);
+        syncBits(game.grid.cherries, shownCherries[i], base + CHERRIES * planeSize);
+
+        int pacmanTile = tile(game, game.pacman);
+        if (pacmanTile != shownPacman[i]) {
+            if (shownPacman[i] >= 0) {
+                buffer.put(base + PACMAN * planeSize + shownPacman[i], (byte) 0);
+            }
+            buffer.put(base + PACMAN * planeSize + pacmanTile, (byte) 1);
+            shownPacman[i] = pacmanTile;
+        }
+
+        int[] ghostTiles = shownGhosts[i];
+        boolean[] scared = shownScared[i];
+        for (int g = 0; g < ghostTiles.length; g++) {
+            GameState.Block ghost = game.ghosts.get(g);
+            int t = ghost.look == GameState.LOOK_HIDDEN ? -1 : tile(game, ghost);
+            // the rules' own test, not the look: after the first ghost is eaten they
+            // stay scared-looking but catch pac man again
+            boolean frightened = t >= 0 && game.isCherryActive;
+            if (t == ghostTiles[g] && frightened == scared[g]) {
+                continue;
+            }
+            if (ghostTiles[g] >= 0) {
+                add(base + GHOSTS * planeSize + ghostTiles[g], -1);
+                if (scared[g]) {
+                    add(base + FRIGHTENED * planeSize + ghostTiles[g], -1);
+                }
+            }
+            if (t >= 0) {
+                add(base + GHOSTS * planeSize + t, 1);
+                if (frightened) {
+                    add(base + FRIGHTENED * planeSize + t, 1);
+                }
+            }
+            ghostTiles[g] = t;
+            scared[g] = frightened;
+        }
+    }
+
+    // counts saturate at 255 going up; going down they are exact as long as
+    // fewer than 255 ghosts share a tile
+    private void add(int at, int delta) {
+        int count = (buffer.get(at) & 0xff) + delta;
+        buffer.put(at, (byte) Math.max(0, Math.min(255, count)));
+    }
+
+    private void syncBits(TileBits bits, long[] shown, int plane) {
+        for (int w = 0; w < shown.length; w++) {
+            long diff = bits.words[w] ^ shown[w];
+            while (diff != 0) {
+                int t = (w << 6) + Long.numberOfTrailingZeros(diff);
+                diff &= diff - 1;
+                buffer.put(plane + t, bits.get(t) ? (byte) 1 : 0);
+            }
+            shown[w] = bits.words[w];
+        }
+    }
+
+    // the tile under a block's centre; the portal tunnel counts as the edge column
+    private int tile(GameState game, GameState.Block block) {
+        int r = Math.floorDiv(block.y + block.height / 2, game.tileSize);
+        int c = Math.floorDiv(block.x + block.width / 2, game.tileSize);
+        r = Math.max(0, Math.min(rows - 1, r));
+        c = Math.max(0, Math.min(columns - 1, c));
+        return r * columns + c;
+    }
+
+    // answers step requests in the buffer until requested is -1; for a trainer
+    // in another process, sharing the buffer as a mapped file
+    void serve() {
+        long done = (long) LONGS.getAcquire(buffer, COMPLETED);
+        int idle = 0;
+        while (true) {
+            long requested = (long) LONGS.getAcquire(buffer, REQUESTED);
+            if (requested < 0) {
+                return;
+            }
+            if (requested > done) {
+                step();
+                done++;
+                LONGS.setRelease(buffer, COMPLETED, done);
+                idle = 0;
+            } else if (++idle < 1000) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(50_000);
+            }
+        }
+    }
+
+    // maps file, sized for envs games on level, and wraps a VecEnv around it
+    static VecEnv mapped(Path file, Level level, int envs, long seed) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytesNeeded(level, envs));
+            return new VecEnv(level, envs, seed, buffer);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("usage: java VecEnv file envs [seed]");
+            System.exit(2);
+        }
+        Path file = Paths.get(args[0]);
+        int envs = Integer.parseInt(args[1]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+        Level level = Level.named(System.getProperty("pacman.level", Level.CLASSIC));
+        VecEnv env = mapped(file, level, envs, seed);
+        System.out.printf("%d games of %s (%dx%d) in %s, %d bytes; waiting for steps%n",
+                envs, level.name, env.rows, env.columns, file, bytesNeeded(level, envs));
+        env.serve();
+    }
+}
@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Checks VecEnv and times it. Steps a batch of games with random actions in
+// direct memory and compares each game, every tick, with a plain GameState
+// given the same actions (and restarted the same way), and every few hundred
+// steps compares the planes with ones drawn from scratch. Then drives a second
+// VecEnv through a memory-mapped file from another thread the way a trainer
+// process would, through its own mapping of the file. Prints steps per second
+// for both; exits with 1 on any mismatch.
+//
+//   java -Djava.awt.headless=true [-Dpacman.level=name] VecEnvCheck [envs] [steps]
+public class VecEnvCheck {
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    public static void main(String[] args) throws IOException {
+        int envs = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 4000;
+        Level level = Level.named(System.getProperty("pacman.level", Level.CLASSIC));
+        int mismatches = 0;
+
+        ByteBuffer memory = ByteBuffer.allocateDirect(VecEnv.bytesNeeded(level, envs));
+        VecEnv env = new VecEnv(level, envs, 1, memory);
+        GameState[] plain = new GameState[envs];
+        for (int i = 0; i < envs; i++) {
+            plain[i] = new GameState(env.game(i).seed, new GameConfig(), level);
+        }
+        Rng input = new Rng(7);
+        long stepNanos = 0;
+        for (int s = 0; s < steps; s++) {
+            for (int i = 0; i < envs; i++) {
+                memory.put(env.actionsAt + i, (byte) input.nextInt(5));
+            }
+            long start = System.nanoTime();
+            env.step();
+            stepNanos += System.nanoTime() - start;
+            for (int i = 0; i < envs; i++) {
+                GameState game = plain[i];
+                int score = game.score;
+                game.step(" UDLR".charAt(memory.get(env.actionsAt + i)));
+                int reward = game.score - score;
+                boolean done = game.gameOver;
+                if (done) {
+                    game.restart();
+                }
+                if (game.stateHash() != env.game(i).stateHash()
+                        || memory.getFloat(env.rewardsAt + 4 * i) != reward
+                        || memory.get(env.donesAt + i) != (done ? 1 : 0)) {
+                    mismatches++;
+                }
+            }
+            if (s % 500 == 0 || s == steps - 1) {
+                mismatches += comparePlanes(env, memory);
+            }
+        }
+        System.out.printf("%d games of %s, %d steps in direct memory: %.0f steps/s%n",
+                envs, level.name, steps, (double) envs * steps / (stepNanos / 1e9));
+
+        // a trainer in another thread, through its own mapping of the file
+        Path file = Files.createTempFile("vecenv", ".bin");
+        VecEnv served = VecEnv.mapped(file, level, envs, 1);
+        Thread server = new Thread(served::serve, "vecenv");
+        server.setDaemon(true);
+        server.start();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer trainer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            trainer.order(ByteOrder.LITTLE_ENDIAN);
+            int actionsAt = trainer.getInt(24);
+            long start = System.nanoTime();
+            for (long s = 1; s <= steps; s++) {
+                for (int i = 0; i < envs; i++) {
+                    trainer.put(actionsAt + i, (byte) input.nextInt(5));
+                }
+                LONGS.setRelease(trainer, VecEnv.REQUESTED, s);
+                while ((long) LONGS.getAcquire(trainer, VecEnv.COMPLETED) < s) {
+                    Thread.onSpinWait();
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            LONGS.setRelease(trainer, VecEnv.REQUESTED, -1L);
+            System.out.printf("%d steps through a mapped file, trainer included: %.0f steps/s%n",
+                    steps, (double) envs * steps / (elapsed / 1e9));
+            mismatches += comparePlanes(served, trainer);
+        }
+        Files.delete(file);
+
+        if (mismatches > 0) {
+            System.out.println("FAIL: " + mismatches + " mismatches");
+            System.exit(1);
+        }
+        System.out.println("OK: every game matched a plain GameState and every plane was up to date");
+    }
+
+    // the planes in buffer against ones drawn from each game as it is now
+    static int comparePlanes(VecEnv env, ByteBuffer buffer) {
+        int mismatches = 0;
+        int planeSize = env.rows * env.columns;
+        for (int i = 0; i < env.envs; i++) {
+            GameState game = env.game(i);
+            int[] expected = new int[VecEnv.CHANNELS * planeSize];
+            for (int t = 0; t < planeSize; t++) {
+                expected[VecEnv.WALLS * planeSize + t] = game.grid.walls.get(t) ? 1 : 0;
+                expected[VecEnv.PELLETS * planeSize + t] = game.grid.pellets.get(t) ? 1 : 0;
+                expected[VecEnv.CHERRIES * planeSize + t] = game.grid.cherries.get(t) ? 1 : 0;
+            }
+            expected[VecEnv.PACMAN * planeSize + tile(env, game, game.pacman)] = 1;
+            for (GameState.Block ghost : game.ghosts) {
+                if (ghost.look == GameState.LOOK_HIDDEN) {
+                    continue;
+                }
+                int t = tile(env, game, ghost);
+                expected[VecEnv.GHOSTS * planeSize + t]++;
+                if (game.isCherryActive) {
+                    expected[VecEnv.FRIGHTENED * planeSize + t]++;
+                }
+            }
+            int base = env.observationsAt + i * VecEnv.CHANNELS * planeSize;
+            for (int p = 0; p < expected.length; p++) {
+                if ((buffer.get(base + p) & 0xff) != Math.min(255, expected[p])) {
+                    mismatches++;
+                }
+            }
+        }
+        return mismatches;
+    }
+
+    private static int tile(VecEnv env, GameState game, GameState.Block block) {
+        int r = Math.max(0, Math.min(env.rows - 1, Math.floorDiv(block.y + block.height / 2, game.tileSize)));
+        int c = Math.max(0, Math.min(env.columns - 1, Math.floorDiv(block.x + block.width / 2, game.tileSize)));
+        return r * env.columns + c;
+    }
+}
@@ -0,0 +1,178 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+// The game side of bench.Target; see jmh/bench/GameBenchmark.java.
+// Numbered maps are pillar mazes (every other tile a wall, pellets everywhere
+// else), so every size is connected and has a junction on every other tile.
+// "maze1000" is a MazeGenerator maze of 1000x1000 tiles, "horde" the maze of
+// levels/horde.txt with however many ghosts are asked for.
+// Every map is drawn through a classic-sized view, so draw() shows whether
+// paint cost follows the view or the map.
+public class BenchmarkTarget implements bench.Target {
+    private static final String GHOST_TYPES = "rpbo";
+    private static final int VIEW_WIDTH = 19 * 32;
+    private static final int VIEW_HEIGHT = 21 * 32;
+    private static final int HORDE_SIZE = 161;
+
+    private GameState state;
+    private Rng input;
+    private char nextDirection = ' ';
+
+    private Renderer renderer;
+    private Snapshot snapshot;
+    private Snapshot previous;
+    private Graphics2D graphics;
+
+    static String[] pillarMap(int size, int ghosts) {
+        char[][] rows = new char[size][size];
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                boolean border = r == 0 || c == 0 || r == size - 1 || c == size - 1;
+                rows[r][c] = border || (r % 2 == 0 && c % 2 == 0) ? 'X' : ' ';
+            }
+        }
+        rows[size - 2][1] = 'P';
+        // ghosts fill the open tiles of the middle rows, outwards from the centre
+        int placed = 0;
+        int middle = size / 2;
+        for (int d = 0; placed < ghosts && d < size; d++) {
+            for (int r = middle - d; r <= middle + d && placed < ghosts; r++) {
+                for (int c = middle - d; c <= middle + d && placed < ghosts; c++) {
+                    boolean ring = Math.max(Math.abs(r - middle), Math.abs(c - middle)) == d;
+                    if (ring && r > 0 && c > 0 && r < size - 1 && c < size - 1 && rows[r][c] == ' ') {
+                        rows[r][c] = GHOST_TYPES.charAt(placed++ % 4);
+                    }
+                }
+            }
+        }
+        String[] map = new String[size];
+        for (int r = 0; r < size; r++) {
+            map[r] = new String(rows[r]);
+        }
+        return map;
+    }
+
+    @Override
+    public void setUp(String map, int ghosts, long seed) {
+        if (map.equals("classic")) {
+            state = new GameState(seed);
+            // extra ghosts share the four spawn tiles
+            for (int i = state.ghosts.size(); i < ghosts; i++) {
+                GameState.Block ghost = state.ghosts.get(i % 4);
+                state.ghosts.add(state.new Block(ghost.type, ghost.startX, ghost.startY, ghost.width, ghost.height));
+            }
+        } else if (map.equals("horde")) {
+            state = new GameState(seed, new GameConfig(), MazeGenerator.generate(HORDE_SIZE, HORDE_SIZE, ghosts, 1));
+        } else if (map.startsWith("maze")) {
+            int size = Integer.parseInt(map.substring(4));
+            state = new GameState(seed, new GameConfig(), MazeGenerator.generate(size, size, ghosts, seed));
+        } else {
+            state = new GameState(seed, new GameConfig(), pillarMap(Integer.parseInt(map), ghosts));
+        }
+        input = new Rng(seed * 31 + 7);
+        // spread everyone out before measuring
+        for (int i = 0; i < 100; i++) {
+            tick();
+        }
+
+        renderer = new Renderer(state.tileSize).awaitSprites();
+        renderer.setViewport(VIEW_WIDTH, VIEW_HEIGHT);
+        snapshot = new Snapshot(state);
+        previous = new Snapshot(state);
+        BufferedImage frame = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        graphics = frame.createGraphics();
+    }
+
+    @Override
+    public long tick() {
+        if (state.gameOver) {
+            state.restart();
+        }
+        if (state.tick % 8 == 0) {
+            nextDirection = "UDLR".charAt(input.nextInt(4));
+        }
+        state.step(nextDirection);
+        return state.score + state.pacman.x;
+    }
+
+    @Override
+    public int collisions() {
+        int hits = 0;
+        GameState.Block pacman = state.pacman;
+        for (int i = 0; i < state.ghosts.size(); i++) {
+            if (state.collision(state.ghosts.get(i), pacman)) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    private int canMove(GameState.Block block) {
+        int open = 0;
+        for (int d = 0; d < 4; d++) {
+            if (state.canMove(block, "UDLR".charAt(d))) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    @Override
+    public int canMove() {
+        int open = canMove(state.pacman);
+        for (int i = 0; i < state.ghosts.size(); i++) {
+            open += canMove(state.ghosts.get(i));
+        }
+        return open;
+    }
+
+    @Override
+    public int wallHits() {
+        TileGrid grid = state.grid;
+        GameState.Block pacman = state.pacman;
+        int hits = grid.hitsWall(pacman.x, pacman.y, pacman.width, pacman.height) ? 1 : 0;
+        for (int i = 0; i < state.ghosts.size(); i++) {
+            GameState.Block ghost = state.ghosts.get(i);
+            if (grid.hitsWall(ghost.x, ghost.y, ghost.width, ghost.height)) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    // the pellet search move() does for pac man, here for every entity
+    private int pellets(GameState.Block block) {
+        TileGrid grid = state.grid;
+        int found = 0;
+        int lastRow = grid.lastTile(block.y, block.height);
+        int lastColumn = grid.lastTile(block.x, block.width);
+        for (int r = grid.firstTile(block.y); r <= lastRow; r++) {
+            for (int c = grid.firstTile(block.x); c <= lastColumn; c++) {
+                if (grid.hasPellet(r, c)) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public int pelletLookups() {
+        int found = pellets(state.pacman);
+        for (int i = 0; i < state.ghosts.size(); i++) {
+            found += pellets(state.ghosts.get(i));
+        }
+        return found;
+    }
+
+    @Override
+    public void loadMap() {
+        state.loadMap();
+    }
+
+    @Override
+    public void draw() {
+        snapshot.capture(state, previous, 0);
+        renderer.draw(graphics, snapshot, 0.5);
+    }
+}
@@ -0,0 +1,66 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// The hot paths of a tick and a frame, over map size and ghost count.
+//
+//   mvn -Pbench package
+//   java -jar target/benchmarks.jar -rf json -rff bench.json
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameBenchmark {
+
+    @Param({"classic", "41", "81", "maze1000"})
+    String map;
+
+    @Param({"4", "32"})
+    int ghosts;
+
+    Target target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        target = (Target) Class.forName("BenchmarkTarget").getDeclaredConstructor().newInstance();
+        target.setUp(map, ghosts, 1);
+    }
+
+    @Benchmark
+    public long tick() {
+        return target.tick();
+    }
+
+    @Benchmark
+    public int collision() {
+        return target.collisions();
+    }
+
+    @Benchmark
+    public int canMove() {
+        return target.canMove();
+    }
+
+    @Benchmark
+    public int hitsWall() {
+        return target.wallHits();
+    }
+
+    @Benchmark
+    public int pellets() {
+        return target.pelletLookups();
+    }
+
+    @Benchmark
+    public void loadMap() {
+        target.loadMap();
+    }
+
+    @Benchmark
+    public void draw() {
+        target.draw();
+    }
+}
@@ -0,0 +1,34 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// A tick with hundreds to thousands of ghosts, on the maze of levels/horde.txt.
+// Ghost moves are spread over the common fork/join pool; for the one core
+// number add -jvmArgsAppend -Djava.util.concurrent.ForkJoinPool.common.parallelism=1
+//
+//   java -jar target/benchmarks.jar HordeBenchmark
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HordeBenchmark {
+
+    @Param({"500", "2000"})
+    int ghosts;
+
+    Target target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws ReflectiveOperationException {
+        target = (Target) Class.forName("BenchmarkTarget").getDeclaredConstructor().newInstance();
+        target.setUp("horde", ghosts, 1);
+    }
+
+    @Benchmark
+    public long tick() {
+        return target.tick();
+    }
+}
@@ -0,0 +1,26 @@
+package bench;
+
+// What the benchmarks measure, implemented by BenchmarkTarget next to the game.
+// The game's classes are in the default package, which code in a named package
+// can't import and JMH won't generate benchmarks for, so the benchmarks reach
+// the game only through this interface.
+public interface Target {
+    // map: "classic" for the shipped maze, "horde" for the horde level's maze,
+    // or the side of a square generated one
+    void setUp(String map, int ghosts, long seed);
+
+    // one GameState.step() with scripted input, restarting after game over
+    long tick();
+
+    int collisions();
+
+    int canMove();
+
+    int wallHits();
+
+    int pelletLookups();
+
+    void loadMap();
+
+    void draw();
+}